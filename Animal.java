@@ -1,5 +1,21 @@
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
 
 /* To populate the knowledge tree, the very first line will be the subject title.
  *   Every line afterwards will begin with an integer (1 to signify an internal (question)
@@ -7,64 +23,488 @@ import java.util.*;
  *   and the remainder of the line will be the question or guess. The tree is stored in preorder
  *   traversal. Also thought it would be more accurate to rename this as a "Guessing Game" since
  *   a player could input anything as their answer.
+ *
+ *   The same tree can also be saved in a binary form (saveBinary/openBinary) that loads without
+ *   any line parsing: a header of magic 'ANML', format version and the subject, then the nodes in
+ *   the same preorder, each a kind byte (1 question, 0 guess), a length and that many UTF-8 bytes.
+ *   openBinary maps the file, but it still builds the whole tree on the heap with a String per
+ *   node: what it saves over load() is finding the line ends, not the decoding. Games change the
+ *   tree in place, so it can't be played out of a read-only mapping the way MappedBST is queried.
+ *
+ *   Opened with open(snapshot, journal), every guess the game learns is also appended to an
+ *   AnimalJournal before play continues, and the journal is replayed over the snapshot on the next
+ *   start. Once it holds COMPACT_EVERY records a background thread writes a fresh snapshot (temp
+ *   file, then rename) and empties the journal; optimize() does the same after every rebuild.
+ *   save() ends the snapshot with a line "epoch N" after the tree (a file without one is epoch 0),
+ *   and each new snapshot takes the next epoch, which the emptied journal is then stamped with.
+ *   A crash between the two steps leaves a journal from the previous epoch, whose paths may not
+ *   even fit the new tree after optimize(); open() sees the older epoch and skips it. If the reset
+ *   fails while the game runs, the journal refuses appends and the next split writes the snapshot
+ *   at that epoch again before it is journaled.
+ *
+ *   Any number of players can share one Animal, each through its own Player (the console, a
+ *   socket session in AnimalServer, a script). Nodes never change kind: learning builds a new
+ *   question node and swaps it into the parent's branch (or the root) with compareAndSet, so games
+ *   walk the tree without locks. If two players lose on the same leaf at once, one swap wins and
+ *   the other player carries on from the new question instead of overwriting it.
+ *
+ *   Every guess counts a hit on its leaf, which gives expectedQuestions(), the average number of
+ *   questions per game weighted by how often each answer comes up. optimize() rebuilds the tree
+ *   without questions whose answer can't matter (both branches lead to the same guesses, or the
+ *   same question was already asked higher up) and reports the new figure. It only ever drops
+ *   questions, so every consistent set of answers still reaches the same guess, in fewer steps.
+ *
+ *   load(path, true) keeps node text in a TextPool instead: one deduplicated UTF-8 copy of each
+ *   distinct question or guess, with nodes holding an int handle, and nothing decoded at load time.
  */
 
 public class Animal{
-    private static int wins = 0;
-    private static int losses = 0;
-    private static int total = 0;
+    private final LongAdder wins = new LongAdder();     // striped: every session bumps these
+    private final LongAdder losses = new LongAdder();
+    private final LongAdder total = new LongAdder();
 
     private static Scanner stdin = new Scanner(System.in);
     public static BufferedReader br = null;
     public static String line;
     private String subject;
-    private Node root;
+    private volatile Node root;
+    private TextPool pool;          // node text when loaded with compactText, otherwise null
+    private Path snapshot;          // where compaction writes, null without a journal
+    private AnimalJournal journal;  // learned guesses not yet in the snapshot, or null
+    private long epoch;             // of the snapshot this tree was loaded from or last saved as
+    private ExecutorService compactor;
+    private final LongAdder questions = new LongAdder(); // questions asked over all games
+    private volatile int generation;  // bumped whenever optimize() swaps in a new tree or learn() takes a split back
+    private long splits;              // guesses learned, guarded by this
+    private ScheduledExecutorService optimizer;
 
 
+    private static final int MAGIC = 0x414E4D4C;    // "ANML"
+    private static final int VERSION = 1;
+    private static final int IO_BUFFER = 1 << 20;   // bytes per channel read or write in load and save
+    /* compact() writes the whole snapshot holding the lock that learn() takes, which is O(n): about
+     *   1.6 s at 10M nodes. Games carry on meanwhile, but a lost game waits that long to be journaled.
+     */
+    private static final int COMPACT_EVERY = 1000;  // journal records that trigger a background compaction
+    private static final AtomicReferenceFieldUpdater<Animal, Node> ROOT = AtomicReferenceFieldUpdater.newUpdater(Animal.class, Node.class, "root");
+
+    public interface Player { // one player's side of a game: the console, a socket session, a script
+        boolean confirm(String question) throws IOException; // a yes/no question
+        String ask(String prompt) throws IOException;        // a question with a free-text answer
+        void tell(String message) throws IOException;
+    }
+
     public Animal(BufferedReader file) throws IOException {
         subject = file.readLine();
         root = readTree(file);
     }
 
+    public static Animal load(Path path) throws IOException { // the text format, parsed without recursion through one large buffer
+        return load(path, false);
+    }
+
+    public static Animal load(Path path, boolean compactText) throws IOException { // compactText: node text in a shared TextPool
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            LineReader in = new LineReader(ch);
+            String subject = in.readLine(0);
+            if (subject == null) {
+                throw new IOException("empty knowledge file: " + path);
+            }
+            TextPool pool = compactText ? new TextPool() : null;
+            TreeBuilder tree = new TreeBuilder();
+            while (!tree.isComplete() && in.next(2)) {
+                boolean isQuestion = in.kind == '1';
+                if (pool == null) {
+                    String contents = new String(in.line(), in.from, in.to - in.from, StandardCharsets.UTF_8);
+                    tree.add(isQuestion ? new Node(contents, null, null) : new Node(contents));
+                } else {
+                    int text = pool.intern(in.line(), in.from, in.to - in.from);  // straight from the read buffer, no String
+                    tree.add(isQuestion ? new Node(text, null, null) : new Node(text));
+                }
+            }
+            Animal game = new Animal(subject, tree.root());
+            game.pool = pool;
+            game.epoch = readEpoch(in.readLine(0), path);
+            return game;
+        }
+    }
+
+    public TextPool textPool() { // null unless loaded with compactText
+        return pool;
+    }
+
+    private Animal(String subject, Node root) {
+        this.subject = subject;
+        this.root = root;
+    }
+
+    public static Animal open(Path snapshot, Path journal) throws IOException { // last snapshot plus the journal, journaling from here on
+        Animal game = load(snapshot);
+        game.snapshot = snapshot;
+        game.journal = AnimalJournal.open(journal, game.epoch, game::replay);
+        game.compactor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "animal-compactor");
+            t.setDaemon(true);
+            return t;
+        });
+        return game;
+    }
+
+    public synchronized void compact() throws IOException { // fold the journal into a new snapshot
+        if (journal == null || journal.records() == 0 && !journal.failed()) {
+            return;
+        }
+        checkpoint(root);
+    }
+
+    private void checkpoint(Node tree) throws IOException { // tree as the next epoch's snapshot, then an empty journal for it; holds this
+        long next = epoch + 1;
+        save(snapshot, tree, next);
+        journal.reset(next);    // if this throws, the snapshot is rewritten at the same epoch next time
+        epoch = next;
+    }
+
+    public void close() throws IOException { // waits for a running compaction, then closes the journal
+        if (optimizer != null) {
+            optimizer.shutdownNow();
+        }
+        if (journal == null) {
+            return;
+        }
+        compactor.shutdown();
+        try {
+            compactor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        journal.close();
+    }
+
+    public static Animal openBinary(Path path) throws IOException { // load a tree written by saveBinary
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer file = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            if (file.remaining() < 8 || file.getInt() != MAGIC || file.getInt() != VERSION) {
+                throw new IOException("not a binary game tree: " + path);
+            }
+            String subject = readText(file);
+            return new Animal(subject, readTree(file));
+        } catch (java.nio.BufferUnderflowException e) {
+            throw new IOException("truncated game tree: " + path);
+        }
+    }
+
 
     public void saveTree(PrintWriter file) throws IOException {
         file.println(subject);
         writeTree(file, root);
     }
 
-    public void playGame() throws IOException {
+    public void save(Path path) throws IOException { // the text format through one large buffer, via a temp file and rename
+        save(path, root, epoch);
+    }
+
+    private void save(Path path, Node tree, long epoch) throws IOException {
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buf = ByteBuffer.allocateDirect(IO_BUFFER);
+            put(ch, buf, (subject + "\n").getBytes(StandardCharsets.UTF_8));
+            byte[] question = {'1', ' '};
+            byte[] guess = {'0', ' '};
+            byte[] newline = {'\n'};
+            ArrayDeque<Node> pending = new ArrayDeque<Node>();
+            pending.push(tree);
+            while (!pending.isEmpty()) {
+                Node x = pending.pop();
+                put(ch, buf, x.isQuestion() ? question : guess);
+                put(ch, buf, utf8(x));
+                put(ch, buf, newline);
+                if (x.isQuestion()) {
+                    pending.push(x.getYesBranch());
+                    pending.push(x.getNoBranch());
+                }
+            }
+            put(ch, buf, ("epoch " + epoch + "\n").getBytes(StandardCharsets.UTF_8));
+            drain(ch, buf);
+            ch.force(false);
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public void saveBinary(Path path) throws IOException { // written to a temp file, forced to disk and renamed, so a crash leaves the old tree
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buf = ByteBuffer.allocateDirect(IO_BUFFER);
+            buf.putInt(MAGIC).putInt(VERSION);
+            putText(ch, buf, subject.getBytes(StandardCharsets.UTF_8));
+            ArrayDeque<Node> pending = new ArrayDeque<Node>();
+            pending.push(root);
+            while (!pending.isEmpty()) {
+                Node x = pending.pop();
+                if (!buf.hasRemaining()) {
+                    drain(ch, buf);
+                }
+                buf.put((byte) (x.isQuestion() ? 1 : 0));
+                putText(ch, buf, utf8(x));
+                if (x.isQuestion()) {
+                    pending.push(x.getYesBranch());
+                    pending.push(x.getNoBranch());
+                }
+            }
+            drain(ch, buf);
+            ch.force(false);    // the data is on disk before the rename can be
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public void playGame() throws IOException { // one game on the console
+        play(CONSOLE);
+    }
+
+    public void play(Player player) throws IOException { // one game; safe to call from many threads at once
+        int gen = generation;          // read before root: a tree swapped in after this is noticed by learn
+        Node parent = null;            // question above current, null at the root
+        boolean yesSide = false;       // which branch of parent current is
         Node current = root;
+        BitSet path = new BitSet();    // answers given so far, for the journal
+        int depth = 0;
 
-        if (!askYesNo(subject)) {
+        if (!player.confirm(subject)) {
             return;
         }
-        while (current.isQuestion()) {
-            if (askYesNo(current.getQuestion())) {
-                current = current.getYesBranch();
-            } else {
-                current = current.getNoBranch();
+        while (true) {
+            while (current.isQuestion()) {
+                parent = current;
+                questions.increment();
+                yesSide = player.confirm(text(current));
+                if (yesSide) {
+                    path.set(depth);
+                    current = current.getYesBranch();
+                } else {
+                    current = current.getNoBranch();
+                }
+                depth++;
+            }
+
+            current.hit();
+            String guess = text(current);
+            if (player.confirm(guess)) {
+                player.tell("Yay I win! I knew it all along.");
+                wins.increment();
+                total.increment();
+                return;
+            }
+            // Wrong guess - find out what user was thinking of and get a new question for future use.
+            String userAnswer = player.ask("I give up, what were you thinking of?");
+            String userQuestion = player.ask("Please enter a yes/no question that would distinguish a(n) " + userAnswer + " from a(n) " + guess + ".");
+            boolean answerIsYes = player.confirm("For a(n) " + userAnswer + " the answer would be");
+            if (learn(gen, parent, yesSide, current, new AnimalJournal.Record(path, depth, answerIsYes, guess, userQuestion, userAnswer))) {
+                losses.increment();
+                total.increment();
+                return;
             }
+            if (gen != generation) { // the tree was reorganized under us: start again on the new one
+                player.tell("I just reorganized my questions, let's start over.");
+                gen = generation;
+                parent = null;
+                current = root;
+                path.clear();
+                depth = 0;
+                continue;
+            }
+            player.tell("Someone just taught me something new about a(n) " + guess + ", let me think again.");
+            current = parent == null ? root : yesSide ? parent.getYesBranch() : parent.getNoBranch();
         }
+    }
 
-        if (!askYesNo(current.getGuess())) {   // Wrong guess - find out what user was thinking of and get a new question for future use.
-            String userAnswer, userQuestion;
+    public void session(Player player) throws IOException { // games until the player has had enough
+        do {
+            play(player);
+        } while (player.confirm("Shall we play again"));
+    }
 
-            System.out.print("I give up, what were you thinking of? ");
-            userAnswer = consoleIn.readLine();
-            losses++;
-            total++;
-            System.out.println("Please enter a yes/no question that would distinguish a(n) " + userAnswer + " from a(n) " + current.getGuess() + ".");
-            userQuestion = consoleIn.readLine();
+    public double questionsPerGame() { // measured: questions actually asked per finished game
+        long games = total.sum();
+        return games == 0 ? 0 : (double) questions.sum() / games;
+    }
 
-            if (askYesNo("For a(n) " + userAnswer + " the answer would be")) {   // Extend the tree appropriately
-                current.convertToQuestion(userQuestion, new Node(current.getGuess()), new Node(userAnswer));
+    public double expectedQuestions() { // questions per game the current tree needs, weighted by leaf hits (uniform before any)
+        long weight = 0;
+        long sum = 0;
+        long leaves = 0;
+        long depths = 0;
+        ArrayDeque<Node> nodes = new ArrayDeque<Node>();
+        ArrayDeque<Integer> levels = new ArrayDeque<Integer>();
+        nodes.push(root);
+        levels.push(0);
+        while (!nodes.isEmpty()) {
+            Node x = nodes.pop();
+            int depth = levels.pop();
+            if (x.isQuestion()) {
+                nodes.push(x.getYesBranch());
+                levels.push(depth + 1);
+                nodes.push(x.getNoBranch());
+                levels.push(depth + 1);
             } else {
-                current.convertToQuestion(userQuestion, new Node(userAnswer), new Node(current.getGuess()));
+                weight += x.hits;
+                sum += x.hits * depth;
+                leaves++;
+                depths += depth;
             }
+        }
+        return weight == 0 ? (double) depths / leaves : (double) sum / weight;
+    }
+
+    public synchronized void optimizeEvery(long period, TimeUnit unit) { // run optimize() in the background on a schedule
+        if (optimizer == null) {
+            optimizer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "animal-optimizer");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        optimizer.scheduleWithFixedDelay(() -> {
+            try {
+                optimize();
+            } catch (IOException e) {
+                System.err.println("optimize failed: " + e.getMessage());
+            }
+        }, period, period, unit);
+    }
+
+    /* optimize() builds the new tree off to the side while games go on, then swaps it in under the
+     *   lock that learn() takes, but only if nothing was learned meanwhile (the copy would lose it).
+     *   Players still on the old tree finish their games there; one who loses notices the generation
+     *   change in learn() and starts over on the new tree. With a journal, the new tree is written as
+     *   the snapshot straight away, since old records' paths don't fit it.
+     *
+     *   Why not Huffman-style reordering by hit counts: that picks which question to ask first by
+     *   frequency, but a guess only comes with answers to the questions on its own path. Moving a
+     *   question above a subtree asks it of things nobody ever answered it for, so the new tree
+     *   can send a player to a different guess than the old one. Dropping a question is safe only
+     *   when its answer is already known (asked higher up) or irrelevant (both branches the same),
+     *   and swapping two questions is safe only when both branches ask the same second question;
+     *   those are the transformations used, so every path gets shorter or stays the same.
+     */
+
+    public boolean optimize() throws IOException { // false if a player taught the game something while it ran; try again later
+        Node old;
+        long learned;
+        synchronized (this) {
+            old = root;
+            learned = splits;
+        }
+        Node fresh = new Optimizer().run(old);
+        synchronized (this) {
+            if (splits != learned) {
+                return false;
+            }
+            if (journal != null) { // on disk first: if that fails the old tree, its epoch and its journal stay as they were
+                checkpoint(fresh);
+            }
+            root = fresh;
+            generation++;    // after the root: play() reads these in the other order
+        }
+        return true;
+    }
+
+    public long wins() {
+        return wins.sum();
+    }
+
+    public long losses() {
+        return losses.sum();
+    }
+
+    public long games() { // games finished, won or lost
+        return total.sum();
+    }
+
+    private boolean learn(int gen, Node parent, boolean yesSide, Node leaf, AnimalJournal.Record r) throws IOException { // Extend the tree appropriately; false if another player got to leaf first
+        Node question = split(r);
+        question.getNoBranch().hits = r.answerIsYes ? leaf.hits : 0; // the old guess keeps its count
+        question.getYesBranch().hits = r.answerIsYes ? 0 : leaf.hits;
+        synchronized (this) { // orders splits against optimize() and, with a journal, against its records
+            if (gen != generation) {
+                return false;
+            }
+            if (journal != null && journal.failed()) { // left unusable by a failed write or reset: start it over first
+                checkpoint(root);
+            }
+            if (!replace(parent, yesSide, leaf, question)) {
+                return false;
+            }
+            if (journal == null) {
+                splits++;
+                return true;
+            }
+            try {
+                journal.append(r);
+            } catch (IOException | RuntimeException e) { // not durable, so not learned: put the guess back
+                replace(parent, yesSide, question, leaf);
+                generation++;   // a player who already walked onto question starts over rather than split below it
+                throw e;
+            }
+            splits++;
+            if (journal.records() % COMPACT_EVERY == 0) {
+                compactor.execute(() -> {
+                    try {
+                        compact();
+                    } catch (IOException e) {
+                        System.err.println("compaction failed, journal kept: " + e.getMessage());
+                    }
+                });
+            }
+        }
+        return true;
+    }
+
+    private boolean replace(Node parent, boolean yesSide, Node old, Node fresh) {
+        if (parent == null) {
+            return ROOT.compareAndSet(this, old, fresh);
+        }
+        return parent.replaceBranch(yesSide, old, fresh);
+    }
+
+    private Node split(AnimalJournal.Record r) { // the question node that replaces the old guess
+        if (r.answerIsYes) {
+            return question(r.question, guess(r.oldGuess), guess(r.answer));
         } else {
-            System.out.println("Yay I win! I knew it all along.");
-            wins++;
-            total++;
+            return question(r.question, guess(r.answer), guess(r.oldGuess));
+        }
+    }
+
+    private Node question(String question, Node ifNo, Node ifYes) { // a node in whichever text layout this tree uses
+        return pool == null ? new Node(question, ifNo, ifYes) : new Node(pool.intern(question), ifNo, ifYes);
+    }
+
+    private Node guess(String guess) {
+        return pool == null ? new Node(guess) : new Node(pool.intern(guess));
+    }
+
+    private String text(Node x) { // the question or guess
+        return x.contents != null ? x.contents : pool.get(x.text);
+    }
+
+    private byte[] utf8(Node x) {
+        return x.contents != null ? x.contents.getBytes(StandardCharsets.UTF_8) : pool.utf8(x.text);
+    }
+
+    private void replay(AnimalJournal.Record r) throws IOException { // redo one journal record; one the snapshot already has is skipped
+        Node parent = null;
+        Node x = root;
+        for (int i = 0; i < r.depth; i++) {
+            if (!x.isQuestion()) {
+                throw new IOException("journal does not match the snapshot");
+            }
+            parent = x;
+            x = r.path.get(i) ? x.getYesBranch() : x.getNoBranch();
+        }
+        if (!x.isQuestion() && text(x).equals(r.oldGuess)) {
+            replace(parent, r.depth > 0 && r.path.get(r.depth - 1), x, split(r));
+            return;
+        }
+        if (!x.isQuestion() || !text(x).equals(r.question)) { // later records may have split its branches since
+            throw new IOException("journal does not match the snapshot");
         }
     }
 
@@ -74,9 +514,6 @@ public class Animal{
         String ans = consoleIn.readLine();
         if (ans.equalsIgnoreCase("YES".substring(0, ans.length()))){
             deleteLines("src/AnimalGame.txt");
-            wins=0;
-            losses=0;
-            total=0;
         }
         else if (ans.equalsIgnoreCase("NO".substring(0, ans.length()))){
 
@@ -86,18 +523,15 @@ public class Animal{
 
         System.out.println("Think of something and I will try to guess it!");
 
-        BufferedReader knowledgeIn = new BufferedReader(new FileReader("src/AnimalGame.txt"));
-
-        Animal theGame = new Animal(knowledgeIn); // Create the game
-        knowledgeIn.close();
+        Animal theGame = Animal.open(Paths.get("src/AnimalGame.txt"), Paths.get("src/AnimalGame.journal")); // Create the game
 
         do {    // Play the game as many times as the user wants
             System.out.print("Would you like to view w/l stats? ");
             String answ = consoleIn.readLine();
             if (answ.equalsIgnoreCase("YES".substring(0, answ.length()))){
-                System.out.println("Games won by me: " + wins);
-                System.out.println("Games lost by me: " + losses);
-                System.out.println("My win percentage: " + (double)wins/total*100 + "%");
+                System.out.println("Games won by me: " + theGame.wins());
+                System.out.println("Games lost by me: " + theGame.losses());
+                System.out.println("My win percentage: " + (double)theGame.wins()/theGame.games()*100 + "%");
             }
             else if (answ.equalsIgnoreCase("NO".substring(0, answ.length()))){
 
@@ -108,14 +542,13 @@ public class Animal{
         } while (askYesNo("Shall we play again"));
 
 
-        PrintWriter knowledgeOut = new PrintWriter(new FileWriter("src/AnimalGame.txt"));  // save the knowledge base to file
-        theGame.saveTree(knowledgeOut);
-        knowledgeOut.close();
+        theGame.close();  // everything learned is already in the journal
 
         System.exit(0);
     }
 
     public static void deleteLines(String filepath) throws IOException { //
+        Files.deleteIfExists(Paths.get("src/AnimalGame.journal")); // its records belong to the old tree
         FileWriter newfile = new FileWriter("src/AnimalGame.txt", false);
         BufferedWriter writer = new BufferedWriter(newfile); //wrap filewriter into bufferedwriter
 
@@ -137,31 +570,211 @@ public class Animal{
     /* Private methods - auxiliary to public methods above */
 
     private static Node readTree(BufferedReader file) throws IOException { //Read a tree stored in preorder in a file
-        boolean isQuestion = ((char) file.read() == '1');  //Read the information for this node
-        file.skip(1);		//Skip over single blank space
-        String contents = file.readLine();
-
-        if (isQuestion) { //Construct the node, reading subtrees recursively if needed
-            Node ifNo = readTree(file);
-            Node ifYes = readTree(file);
-            return new Node(contents, ifNo, ifYes);
-        } else {
-            return new Node(contents);
+        TreeBuilder tree = new TreeBuilder();
+        while (!tree.isComplete()) { //One line per node; the builder keeps track of where it goes
+            String contents = file.readLine();
+            if (contents == null) {
+                break;
+            }
+            String text = contents.length() < 2 ? "" : contents.substring(2);
+            tree.add(contents.startsWith("1") ? new Node(text, null, null) : new Node(text));
         }
+        return tree.root();
     }
 
-    private static void writeTree(PrintWriter file, Node root) throws IOException { //Write a tree to a file in preorder
-        file.print(root.isQuestion() ? 1 : 0);
-        file.print(" ");
-        if (root.isQuestion()) {
-            file.println(root.getQuestion());
-            writeTree(file, root.getNoBranch());
-            writeTree(file, root.getYesBranch());
-        } else {
-            file.println(root.getGuess());
+    private void writeTree(PrintWriter file, Node root) throws IOException { //Write a tree to a file in preorder
+        ArrayDeque<Node> pending = new ArrayDeque<Node>(); //Explicit stack: no branch on top so it is written first
+        pending.push(root);
+        while (!pending.isEmpty()) {
+            Node x = pending.pop();
+            file.print(x.isQuestion() ? 1 : 0);
+            file.print(" ");
+            file.println(text(x));
+            if (x.isQuestion()) {
+                pending.push(x.getYesBranch());
+                pending.push(x.getNoBranch());
+            }
+        }
+    }
+
+    private static Node readTree(ByteBuffer file) { //Read a binary tree stored in preorder
+        TreeBuilder tree = new TreeBuilder();
+        while (!tree.isComplete()) {
+            boolean isQuestion = file.get() == 1;
+            String text = readText(file);
+            tree.add(isQuestion ? new Node(text, null, null) : new Node(text));
+        }
+        return tree.root;
+    }
+
+    /* Rebuilds a tree from its nodes in preorder, one at a time and without recursion, so any depth
+     *   loads. The stack holds the question nodes that are still missing a branch: a new node becomes
+     *   the no branch of the top one if that is empty, otherwise its yes branch, which completes it.
+     */
+
+    private static class TreeBuilder {
+        private final ArrayDeque<Node> open = new ArrayDeque<Node>();
+        private Node root;
+
+        boolean isComplete() {
+            return root != null && open.isEmpty();
+        }
+
+        void add(Node x) {
+            if (root == null) {
+                root = x;
+            } else {
+                Node parent = open.peek();
+                if (parent.lchild == null) {
+                    parent.lchild = x;
+                } else {
+                    parent.rchild = x;
+                    open.pop();
+                }
+            }
+            if (x.isQuestion()) {
+                open.push(x);
+            }
+        }
+
+        Node root() throws IOException {
+            if (!isComplete()) {
+                throw new IOException("knowledge file ends in the middle of the tree");
+            }
+            return root;
         }
     }
 
+    /* Reads the text format straight from a FileChannel through one large buffer: the file is
+     *   scanned for newlines in place, and next() just marks where the line's text is in the buffer,
+     *   for the caller to decode into one String or hand to a TextPool as bytes. The buffer only grows
+     *   for a line longer than itself.
+     */
+
+    private static class LineReader {
+        private final FileChannel ch;
+        private ByteBuffer buf = ByteBuffer.allocate(IO_BUFFER);
+        private int pos;            // start of the unread part of buf
+        private int kind;           // first byte of the last line read
+        private int from, to;       // its text, after the skipped prefix, in line()
+
+        LineReader(FileChannel ch) {
+            this.ch = ch;
+            buf.limit(0);
+        }
+
+        String readLine(int skip) throws IOException { // next line without its first skip bytes, null at end of file
+            if (!next(skip)) {
+                return null;
+            }
+            return new String(line(), from, to - from, StandardCharsets.UTF_8);
+        }
+
+        boolean next(int skip) throws IOException { // finds the next line, false at end of file
+            int scan = pos;
+            while (true) {
+                byte[] a = buf.array();
+                int limit = buf.limit();
+                for (; scan < limit; scan++) {
+                    if (a[scan] == '\n') {
+                        mark(a, pos, scan, skip);
+                        pos = scan + 1;
+                        return true;
+                    }
+                }
+                int unread = scan - pos;
+                if (!fill()) {
+                    if (unread == 0) {
+                        return false;
+                    }
+                    mark(buf.array(), pos, pos + unread, skip);
+                    pos += unread;
+                    return true;
+                }
+                scan = pos + unread;
+            }
+        }
+
+        byte[] line() { // holds the last line until the next call to next()
+            return buf.array();
+        }
+
+        private void mark(byte[] a, int start, int end, int skip) {
+            if (end > start && a[end - 1] == '\r') {
+                end--;
+            }
+            kind = end > start ? a[start] : -1;
+            from = Math.min(end, start + skip);
+            to = end;
+        }
+
+        private boolean fill() throws IOException { // moves the unread bytes to the front and reads more after them
+            int unread = buf.limit() - pos;
+            if (unread == buf.capacity()) {
+                ByteBuffer bigger = ByteBuffer.allocate(2 * buf.capacity());
+                bigger.put(buf.array(), 0, unread);
+                buf = bigger;
+            } else {
+                System.arraycopy(buf.array(), pos, buf.array(), 0, unread);
+                buf.clear();
+                buf.position(unread);
+            }
+            pos = 0;
+            int read = ch.read(buf);
+            buf.flip();
+            return read > 0;
+        }
+    }
+
+    private static void put(FileChannel ch, ByteBuffer buf, byte[] bytes) throws IOException { // through buf, in pieces if needed
+        int off = 0;
+        while (off < bytes.length) {
+            if (!buf.hasRemaining()) {
+                drain(ch, buf);
+            }
+            int n = Math.min(buf.remaining(), bytes.length - off);
+            buf.put(bytes, off, n);
+            off += n;
+        }
+    }
+
+    private static void drain(FileChannel ch, ByteBuffer buf) throws IOException {
+        buf.flip();
+        while (buf.hasRemaining()) {
+            ch.write(buf);
+        }
+        buf.clear();
+    }
+
+    private static long readEpoch(String line, Path path) throws IOException { // the line after the tree, 0 if there is none
+        if (line == null || !line.startsWith("epoch ")) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(line.substring(6).trim());
+        } catch (NumberFormatException e) {
+            throw new IOException("bad snapshot epoch in " + path + ": " + line);
+        }
+    }
+
+    private static String readText(ByteBuffer file) { // length-prefixed UTF-8
+        int length = file.getInt();
+        if (length < 0 || length > file.remaining()) {
+            throw new java.nio.BufferUnderflowException();
+        }
+        byte[] bytes = new byte[length];
+        file.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void putText(FileChannel ch, ByteBuffer buf, byte[] text) throws IOException { // length-prefixed, as readText expects
+        if (buf.remaining() < 4) {
+            drain(ch, buf);
+        }
+        buf.putInt(text.length);
+        put(ch, buf, text);
+    }
+
     private static boolean askYesNo(String question) throws IOException { //Ask the user a yes-no question
         String answer;
         do {  // Ask the user the question, read answer, convert to all caps
@@ -179,11 +792,154 @@ public class Animal{
         } while (true);
     }
 
+    /* Post-order rebuild with an explicit stack (the tree can be any depth). On the way down, a
+     *   question already answered on this path is replaced by the branch that answer picks; on the
+     *   way up, join() collapses a question whose branches are the same tree (adding up their hit
+     *   counts), and swaps Q?(P?(a,b), P?(c,d)) into P?(Q?(a,c), Q?(b,d)) when that lets a Q
+     *   collapse. Subtree equality goes through a structural hash first.
+     */
+
+    private static class Optimizer {
+        private final Map<Object, Boolean> asked = new HashMap<Object, Boolean>();  // answers on the current path, by Node.key()
+        private final IdentityHashMap<Node, Integer> hashes = new IdentityHashMap<Node, Integer>();
+
+        private static class Frame {
+            Node src;
+            int state;      // 0 before the no branch, 1 before the yes branch, 2 both done
+            Node no, yes;
+
+            Frame(Node src) {
+                this.src = src;
+            }
+        }
+
+        Node run(Node root) {
+            ArrayDeque<Frame> stack = new ArrayDeque<Frame>();
+            stack.push(new Frame(root));
+            Node result = null;
+            while (!stack.isEmpty()) {
+                Frame f = stack.peek();
+                if (!f.src.isQuestion()) {
+                    Node leaf = new Node(f.src, null, null);
+                    leaf.hits = f.src.hits;
+                    hashes.put(leaf, f.src.key().hashCode());
+                    result = leaf;
+                } else if (f.state == 0) {
+                    Boolean known = asked.get(f.src.key());
+                    if (known != null) { // asked before on this path: only one branch is reachable
+                        f.src = known ? f.src.getYesBranch() : f.src.getNoBranch();
+                        continue;
+                    }
+                    asked.put(f.src.key(), false);
+                    f.state = 1;
+                    stack.push(new Frame(f.src.getNoBranch()));
+                    continue;
+                } else if (f.state == 1) {
+                    asked.put(f.src.key(), true);
+                    f.state = 2;
+                    stack.push(new Frame(f.src.getYesBranch()));
+                    continue;
+                } else {
+                    asked.remove(f.src.key());
+                    result = combine(f.src, f.no, f.yes);
+                }
+                stack.pop();
+                Frame parent = stack.peek();
+                if (parent == null) {
+                    return result;
+                }
+                if (parent.state == 1) {
+                    parent.no = result;
+                } else {
+                    parent.yes = result;
+                }
+            }
+            return result;
+        }
+
+        private Node combine(Node q, Node no, Node yes) { // q: the question being rebuilt, for its text
+            if (no.isQuestion() && yes.isQuestion() && no.key().equals(yes.key())) {
+                Node a = no.getNoBranch(), b = no.getYesBranch(), c = yes.getNoBranch(), d = yes.getYesBranch();
+                if (same(a, c) || same(b, d)) {
+                    return join(no, join(q, a, c), join(q, b, d));
+                }
+            }
+            return join(q, no, yes);
+        }
+
+        private Node join(Node q, Node no, Node yes) {
+            if (same(no, yes)) {
+                addHits(no, yes);
+                return no;
+            }
+            Node x = new Node(q, no, yes);
+            hashes.put(x, (q.key().hashCode() * 31 + hashes.get(no)) * 31 + hashes.get(yes));
+            return x;
+        }
+
+        private boolean same(Node a, Node b) { // same questions and guesses in the same places
+            if (!hashes.get(a).equals(hashes.get(b))) {
+                return false;
+            }
+            ArrayDeque<Node> pairs = new ArrayDeque<Node>();
+            pairs.push(a);
+            pairs.push(b);
+            while (!pairs.isEmpty()) {
+                Node y = pairs.pop();
+                Node x = pairs.pop();
+                if (x.isQuestion() != y.isQuestion() || !x.key().equals(y.key())) {
+                    return false;
+                }
+                if (x.isQuestion()) {
+                    pairs.push(x.getNoBranch());
+                    pairs.push(y.getNoBranch());
+                    pairs.push(x.getYesBranch());
+                    pairs.push(y.getYesBranch());
+                }
+            }
+            return true;
+        }
+
+        private static void addHits(Node into, Node from) { // into and from have the same shape
+            ArrayDeque<Node> pairs = new ArrayDeque<Node>();
+            pairs.push(into);
+            pairs.push(from);
+            while (!pairs.isEmpty()) {
+                Node y = pairs.pop();
+                Node x = pairs.pop();
+                if (x.isQuestion()) {
+                    pairs.push(x.getNoBranch());
+                    pairs.push(y.getNoBranch());
+                    pairs.push(x.getYesBranch());
+                    pairs.push(y.getYesBranch());
+                } else {
+                    x.hits += y.hits;
+                }
+            }
+        }
+    }
+
+    private static final Player CONSOLE = new Player() { // the interactive game on System.in/System.out
+        public boolean confirm(String question) throws IOException {
+            return askYesNo(question);
+        }
+
+        public String ask(String prompt) throws IOException {
+            System.out.print(prompt + " ");
+            return consoleIn.readLine();
+        }
+
+        public void tell(String message) {
+            System.out.println(message);
+        }
+    };
+
     /* The game tree is composed of two kinds of nodes - question
      *	(internal) nodes and guess (leaf) nodes.  The content of
      *	a question node is the question to ask; of a guess node,
-     *	the answer to propose.  A guess node can be turned into a
-     * 	question node when a guess fails
+     *	the answer to propose.  When a guess fails, a new question
+     * 	node takes the guess node's place in its parent; a node never
+     * 	changes kind, so a player still standing on it is unaffected
      */
 
     private static class Node { //Constructor for a question node
@@ -191,6 +947,7 @@ public class Animal{
         Node(String question, Node ifNo, Node ifYes) {
             isQuestion = true;
             contents = question;
+            text = -1;
             this.lchild = ifNo;
             this.rchild = ifYes;
         }
@@ -198,16 +955,37 @@ public class Animal{
         Node(String guess) { //Constructor for a guess node
             isQuestion = false;
             contents = guess;
+            text = -1;
             lchild = null;
             rchild = null;
         }
 
-        boolean isQuestion(){ //Accessor for whether a node represents a question or a guess
-            return isQuestion;
+        Node(int question, Node ifNo, Node ifYes) { //Question node with its text in a TextPool
+            isQuestion = true;
+            contents = null;
+            text = question;
+            this.lchild = ifNo;
+            this.rchild = ifYes;
         }
 
-        String getQuestion() { //Accessor for question stored in a node.
-            return contents;
+        Node(int guess) { //Guess node with its text in a TextPool
+            isQuestion = false;
+            contents = null;
+            text = guess;
+            lchild = null;
+            rchild = null;
+        }
+
+        Node(Node like, Node ifNo, Node ifYes) { //Same kind and text as like, new branches
+            isQuestion = like.isQuestion;
+            contents = like.contents;
+            text = like.text;
+            this.lchild = ifNo;
+            this.rchild = ifYes;
+        }
+
+        boolean isQuestion(){ //Accessor for whether a node represents a question or a guess
+            return isQuestion;
         }
 
         Node getNoBranch() { //Accessor for "no" branch from a question node.
@@ -218,20 +996,28 @@ public class Animal{
             return rchild;
         }
 
-        String getGuess(){ //Accessor for guess stored in a node.
-            return contents;
+        Object key() { //Equal for equal text: the String, or the pool handle (pools store each text once)
+            return contents != null ? contents : Integer.valueOf(text);
         }
 
-        void convertToQuestion(String question, Node ifNo, Node ifYes){ //Convert a guess node to a question node
-            isQuestion = true;
-            contents = question;
-            lchild = ifNo;
-            rchild = ifYes;
+        void hit() { //Count one game that ended on this guess
+            HITS.incrementAndGet(this);
+        }
+
+        boolean replaceBranch(boolean yes, Node expect, Node update) { //Swap one branch atomically, false if it no longer holds expect
+            return (yes ? YES : NO).compareAndSet(this, expect, update);
         }
 
-        private boolean isQuestion;	// True for question, false for guess
-        private String contents;	// Question or quess as the case may be
-        private Node lchild, rchild;// "No" and "Yes" branches for a question
+        private static final AtomicReferenceFieldUpdater<Node, Node> NO = AtomicReferenceFieldUpdater.newUpdater(Node.class, Node.class, "lchild");
+        private static final AtomicReferenceFieldUpdater<Node, Node> YES = AtomicReferenceFieldUpdater.newUpdater(Node.class, Node.class, "rchild");
+
+        private static final AtomicLongFieldUpdater<Node> HITS = AtomicLongFieldUpdater.newUpdater(Node.class, "hits");
+
+        private final boolean isQuestion;	// True for question, false for guess
+        private final String contents;	// Question or quess as the case may be, null if pooled
+        private final int text;         // handle in the Animal's TextPool when contents is null
+        private volatile Node lchild, rchild;// "No" and "Yes" branches for a question
+        private volatile long hits;     // games that ended on this guess, since load
     }
 
     private static BufferedReader consoleIn = new BufferedReader(new InputStreamReader(System.in));  // Wrap System.in in a BufferedReader object so we can use readLine()
@@ -0,0 +1,350 @@
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/* Benchmarks for the guessing game. Usage:
+ *   java AnimalBenchmark io [nodes]                  load/save throughput, default 10M nodes (about -Xmx4g)
+ *   java AnimalBenchmark server [sessions] [clients] sessions per second on one shared tree, default 10000, 1000
+ *   java AnimalBenchmark optimize [sessions]         questions per game before and after optimize(), default 20000
+ *   java AnimalBenchmark text [nodes]                heap and load time, String per node vs TextPool, default 10M
+ *
+ *   io: two generated trees of the given size: "random" (random splits, depth O(log n)) and "skewed"
+ *   (every yes branch a guess, so the depth is n/2, the shape a long-lived game drifts toward).
+ *   Each is timed through the line-at-a-time BufferedReader/PrintWriter path, the buffered NIO
+ *   text path (load/save) and the binary format (openBinary/saveBinary).
+ *
+ *   server: scripted players, each thinking of one of THINGS things and answering every question
+ *   from a hash of (thing, question), play sessions of GAMES_PER_SESSION games against one Animal
+ *   that starts from the three-node default tree and learns as it goes. Run with that many clients
+ *   at once, first through the in-process API, then over sockets to an AnimalServer.
+ *
+ *   optimize: the same players, but teaching questions from a pool of only TRAITS, so the same
+ *   question turns up in many places the way it does with people. Reports questions per game
+ *   expected from the hit counts before and after optimize(), then measured by replaying the same
+ *   games (guesses taken as right, so nothing is learned) on the tree before and after.
+ *
+ *   text: random-shaped trees whose text is all distinct, then drawn from 5% as many distinct
+ *   questions and guesses (closer to a learned tree, where "Does it ..." questions recur), loaded
+ *   with a String per node and with compactText. Heap is measured after full GCs, tree minus empty.
+ */
+
+public class AnimalBenchmark {
+    private static final int ROUNDS = 3;
+    private static final int THINGS = 100000;
+    private static final int GAMES_PER_SESSION = 5;
+    private static final int TRAITS = 200;
+
+    interface Work {
+        Object run() throws IOException;
+    }
+
+    static Object sink;
+
+    public static void main(String[] args) throws Exception {
+        String suite = args.length > 0 ? args[0] : "io";
+        if (suite.equals("io")) {
+            io(args.length > 1 ? Integer.parseInt(args[1]) : 10000000);
+        } else if (suite.equals("text")) {
+            text(args.length > 1 ? Integer.parseInt(args[1]) : 10000000);
+        } else if (suite.equals("optimize")) {
+            optimize(args.length > 1 ? Integer.parseInt(args[1]) : 20000);
+        } else if (suite.equals("server")) {
+            server(args.length > 1 ? Integer.parseInt(args[1]) : 10000, args.length > 2 ? Integer.parseInt(args[2]) : 1000);
+        } else {
+            throw new IllegalArgumentException("unknown suite: " + suite);
+        }
+    }
+
+    private static void io(int n) throws IOException {
+        n |= 1; // a full binary tree has an odd number of nodes
+        Path dir = Files.createTempDirectory("animal");
+        for (String shape : new String[] {"random", "skewed"}) {
+            Path text = dir.resolve(shape + ".txt");
+            Path binary = dir.resolve(shape + ".bin");
+            generate(text, n, shape.equals("skewed"), n);
+            Animal game = Animal.load(text);
+            game.saveBinary(binary);
+            long textBytes = Files.size(text);
+            long binaryBytes = Files.size(binary);
+            System.out.printf("%s tree, %d nodes, %.1f MB text, %.1f MB binary%n", shape, n, textBytes / 1e6, binaryBytes / 1e6);
+            report("BufferedReader load", n, textBytes, best(() -> {
+                try (BufferedReader in = new BufferedReader(new FileReader(text.toFile()))) {
+                    return new Animal(in);
+                }
+            }));
+            report("NIO load", n, textBytes, best(() -> Animal.load(text)));
+            report("binary load", n, binaryBytes, best(() -> Animal.openBinary(binary)));
+            Path out = dir.resolve("out");
+            report("PrintWriter save", n, textBytes, best(() -> {
+                try (PrintWriter w = new PrintWriter(new FileWriter(out.toFile()))) {
+                    game.saveTree(w);
+                }
+                return out;
+            }));
+            report("NIO save", n, textBytes, best(() -> {
+                game.save(out);
+                return out;
+            }));
+            report("binary save", n, binaryBytes, best(() -> {
+                game.saveBinary(out);
+                return out;
+            }));
+            sink = null;
+            Files.delete(text);
+            Files.delete(binary);
+            Files.delete(out);
+        }
+        Files.delete(dir);
+    }
+
+    private static void server(int sessions, int clients) throws Exception {
+        Path dir = Files.createTempDirectory("animal");
+        Path start = dir.resolve("start.txt");
+        Files.write(start, "Guessing Game, are you ready?\n1 Is it a mammal\n0 Trout\n0 Cow\n".getBytes(StandardCharsets.UTF_8));
+
+        Animal local = Animal.load(start);
+        long nanos = runClients(sessions, clients, id -> local.session(new ScriptedPlayer(id, 1 << 20)));
+        System.out.printf("in-process  %8d sessions %6d clients %10.0f sessions/s %10.0f games/s, %d lost (tree grew by %d nodes)%n",
+                sessions, clients, sessions / (nanos / 1e9), local.games() / (nanos / 1e9), local.losses(), 2 * local.losses());
+
+        Animal shared = Animal.load(start);
+        try (AnimalServer server = new AnimalServer(shared, 0)) {
+            server.start();
+            int port = server.port();
+            nanos = runClients(sessions, clients, id -> {
+                try (Socket socket = new Socket("localhost", port)) {
+                    socket.setTcpNoDelay(true);
+                    BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                    PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true);
+                    ScriptedPlayer player = new ScriptedPlayer(id, 1 << 20);
+                    String line;
+                    while ((line = in.readLine()) != null) { // until the server hangs up after the last game
+                        if (line.startsWith("? ")) {
+                            out.println(player.confirm(line.substring(2)) ? "yes" : "no");
+                        } else if (line.startsWith("> ")) {
+                            out.println(player.ask(line.substring(2)));
+                        }
+                    }
+                }
+            });
+            System.out.printf("sockets     %8d sessions %6d clients %10.0f sessions/s %10.0f games/s, %d lost%n",
+                    sessions, clients, sessions / (nanos / 1e9), shared.games() / (nanos / 1e9), shared.losses());
+        }
+        Files.delete(start);
+        Files.delete(dir);
+    }
+
+    private static void text(int n) throws IOException {
+        n |= 1;
+        Path dir = Files.createTempDirectory("animal");
+        Path file = dir.resolve("tree.txt");
+        for (int distinct : new int[] {n, n / 20}) {
+            generate(file, n, false, distinct);
+            System.out.printf("%d nodes, question and guess numbers mod %d, %.1f MB file%n", n, distinct, Files.size(file) / 1e6);
+            for (boolean compact : new boolean[] {false, true}) {
+                long loadTime = best(() -> Animal.load(file, compact));
+                sink = null;
+                long empty = usedHeap();
+                Animal game = Animal.load(file, compact);
+                long heap = usedHeap() - empty;
+                String pool = compact ? String.format(", pool %d texts in %.1f MB", game.textPool().size(), game.textPool().bytes() / 1e6) : "";
+                System.out.printf("  %-10s %8.1f MB heap %7.1f bytes/node %8.0f ms load%s%n", compact ? "TextPool" : "String",
+                        heap / 1e6, (double) heap / n, loadTime / 1e6, pool);
+                sink = game.games(); // keeps game reachable until measured
+            }
+        }
+        Files.delete(file);
+        Files.delete(dir);
+    }
+
+    static long usedHeap() { // live heap after a few full collections
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    private static void optimize(int sessions) throws IOException {
+        Path dir = Files.createTempDirectory("animal");
+        Path start = dir.resolve("start.txt");
+        Files.write(start, "Guessing Game, are you ready?\n1 Is it a mammal\n0 Trout\n0 Cow\n".getBytes(StandardCharsets.UTF_8));
+        Animal game = Animal.load(start);
+        for (int id = 0; id < sessions; id++) {
+            game.session(new ScriptedPlayer(id, TRAITS));
+        }
+        System.out.printf("%d games, %d learned%n", game.games(), game.losses());
+        Path saved = dir.resolve("before.txt");
+        game.save(saved);
+        Animal before = Animal.load(saved);
+        double expected = game.expectedQuestions();
+        long t = System.nanoTime();
+        game.optimize();
+        t = System.nanoTime() - t;
+        System.out.printf("expected questions/game: before %.2f, after %.2f (optimize took %.1f ms)%n", expected, game.expectedQuestions(), t / 1e6);
+        game.save(saved);
+        Animal after = Animal.load(saved); // fresh counters for the replay
+        for (int id = 0; id < sessions; id++) {
+            before.session(new Frozen(new ScriptedPlayer(id, TRAITS)));
+            after.session(new Frozen(new ScriptedPlayer(id, TRAITS)));
+        }
+        System.out.printf("measured questions/game: before %.2f, after %.2f over %d replayed games%n",
+                before.questionsPerGame(), after.questionsPerGame(), after.games());
+        Files.delete(saved);
+        Files.delete(start);
+        Files.delete(dir);
+    }
+
+    interface Client {
+        void run(int id) throws IOException;
+    }
+
+    private static long runClients(int sessions, int clients, Client client) throws InterruptedException { // wall time for all sessions, clients at a time
+        AtomicInteger next = new AtomicInteger();
+        Thread[] threads = new Thread[clients];
+        long start = System.nanoTime();
+        for (int c = 0; c < clients; c++) {
+            threads[c] = new Thread(() -> {
+                for (int id = next.getAndIncrement(); id < sessions; id = next.getAndIncrement()) {
+                    try {
+                        client.run(id);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            });
+            threads[c].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        return System.nanoTime() - start;
+    }
+
+    /* A player with a fixed world: thing t answers question q with a bit of hash(t, q), so the same
+     *   thing always answers the same way and the tree it teaches the game stays consistent.
+     */
+
+    static class ScriptedPlayer implements Animal.Player {
+        private final Random rnd;
+        private final int traits;   // distinct questions this player knows
+        private String thing;       // what this player is thinking of in the current game
+        private String question;    // the last question it taught the game
+        private int games;
+
+        ScriptedPlayer(int id, int traits) {
+            rnd = new Random(id);
+            this.traits = traits;
+            newGame();
+        }
+
+        private void newGame() {
+            thing = "thing " + rnd.nextInt(THINGS);
+        }
+
+        public boolean confirm(String q) {
+            if (q.startsWith("Guessing Game")) {
+                return true;
+            }
+            if (q.equals("Shall we play again")) {
+                newGame();
+                return ++games < GAMES_PER_SESSION;
+            }
+            if (q.startsWith("For a(n) ")) {
+                return answer(question);
+            }
+            if (q.startsWith("thing ")) { // a guess
+                return q.equals(thing);
+            }
+            return answer(q);
+        }
+
+        public String ask(String prompt) {
+            if (prompt.startsWith("I give up")) {
+                return thing;
+            }
+            question = "Does it have trait " + rnd.nextInt(traits);
+            return question;
+        }
+
+        public void tell(String message) {
+        }
+
+        private boolean answer(String q) {
+            int h = thing.hashCode() * 31 + q.hashCode();
+            h ^= h >>> 16;
+            return (h * 0x45d9f3b & 0x10000) != 0;
+        }
+    }
+
+    static class Frozen implements Animal.Player { // plays like p, but every guess is right, so the tree stays as it is
+        private final ScriptedPlayer p;
+
+        Frozen(ScriptedPlayer p) {
+            this.p = p;
+        }
+
+        public boolean confirm(String q) {
+            return q.startsWith("thing ") || p.confirm(q);
+        }
+
+        public String ask(String prompt) {
+            return p.ask(prompt);
+        }
+
+        public void tell(String message) {
+        }
+    }
+
+    private static void report(String what, int nodes, long bytes, long nanos) {
+        System.out.printf("  %-20s %8.0f ms %10.2f M nodes/s %8.1f MB/s%n", what, nanos / 1e6, nodes / (nanos / 1e3), bytes / (nanos / 1e3));
+    }
+
+    static long best(Work work) throws IOException { // best wall time in nanoseconds over ROUNDS runs, after one warm-up run
+        sink = work.run();
+        long best = Long.MAX_VALUE;
+        for (int r = 0; r < ROUNDS; r++) {
+            sink = null;
+            long start = System.nanoTime();
+            sink = work.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+
+    private static void generate(Path file, int n, boolean skewed, int distinct) throws IOException { // writes a knowledge file of n nodes in preorder, texts numbered mod distinct
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file), 1 << 20)) {
+            out.write("Guessing Game, are you ready?\n".getBytes(StandardCharsets.US_ASCII));
+            Random rnd = new Random(42);
+            ArrayDeque<Integer> pending = new ArrayDeque<Integer>(); // sizes of subtrees still to write, next on top
+            pending.push(n);
+            int id = 0;
+            while (!pending.isEmpty()) {
+                int size = pending.pop();
+                id++;
+                if (size == 1) {
+                    out.write(("0 Thing number " + id % distinct + "\n").getBytes(StandardCharsets.US_ASCII));
+                    continue;
+                }
+                out.write(("1 Does it have feature " + id % distinct + "\n").getBytes(StandardCharsets.US_ASCII));
+                int no = skewed ? size - 2 : 2 * rnd.nextInt((size - 1) / 2) + 1;
+                pending.push(size - 1 - no); // yes branch, written after the whole no branch
+                pending.push(no);
+            }
+        }
+    }
+}
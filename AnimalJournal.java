@@ -0,0 +1,249 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.zip.CRC32;
+
+/* Append-only write-ahead log of the guesses the game has learned since its last snapshot. Each
+ *   lost game becomes one record, appended and forced to disk before the game carries on, so a
+ *   crash loses nothing and a game costs O(depth) bytes of I/O rather than a rewrite of the tree.
+ *
+ *   Header: magic 'AJNL' and the epoch of the snapshot the records apply to. Records hold paths
+ *   into that snapshot's tree, which mean nothing in a reorganized one, so open() replays them
+ *   only when the epochs match. An older journal is left over from a crash after the snapshot was
+ *   replaced but before the journal was emptied: its records are already in the snapshot, and it
+ *   is emptied unread. A newer one means the snapshot it belongs to was lost, and open() refuses it.
+ *   reset() drops the records before it writes the new epoch, so no crash leaves old records
+ *   under a new epoch.
+ *
+ *   Record: payload length, CRC-32 of the payload, then the payload:
+ *     depth, the answers from the root to the guess as a bitmap (bit i set = yes at level i),
+ *     1 if the new answer goes on the yes side, then the old guess, question and new answer, each
+ *     as a length and that many UTF-8 bytes.
+ *   Replay stops at the first record that is cut short or fails its checksum (a write that didn't
+ *   complete before a crash) and cuts the file back to the last good record. An append that fails
+ *   while the process lives is cut back the same way before it throws, so the next record follows
+ *   the last good one; if even that fails, or a reset does, the journal refuses every append
+ *   until a reset goes through.
+ */
+
+public class AnimalJournal implements AutoCloseable {
+    private static final int MAGIC = 0x414A4E4C;    // "AJNL"
+    private static final int HEADER = 12;           // magic and epoch
+    private static final int MAX_RECORD = 1 << 24;  // anything longer is garbage, not a record
+
+    private final FileChannel ch;
+    private long epoch;                             // snapshot epoch the records apply to
+    private int records;                            // records in the file
+    private boolean failed;                         // a failed append couldn't be cut back, or a reset didn't finish
+
+    public static class Record {
+        final BitSet path;          // answers from the root: set = yes
+        final int depth;            // number of answers in path
+        final boolean answerIsYes;  // side of the new question the user's answer goes on
+        final String oldGuess;
+        final String question;
+        final String answer;
+
+        Record(BitSet path, int depth, boolean answerIsYes, String oldGuess, String question, String answer) {
+            this.path = path;
+            this.depth = depth;
+            this.answerIsYes = answerIsYes;
+            this.oldGuess = oldGuess;
+            this.question = question;
+            this.answer = answer;
+        }
+    }
+
+    public interface Replayer {
+        void apply(Record r) throws IOException;
+    }
+
+    private AnimalJournal(FileChannel ch, long epoch, int records) {
+        this.ch = ch;
+        this.epoch = epoch;
+        this.records = records;
+    }
+
+    public static AnimalJournal open(Path path, long epoch, Replayer replayer) throws IOException { // replays the complete records of this snapshot epoch, then opens for appending
+        return open(FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE), path, epoch, replayer);
+    }
+
+    static AnimalJournal open(FileChannel ch, Path path, long epoch, Replayer replayer) throws IOException { // over a channel already open on path
+        try {
+            long stamped = readEpoch(ch, path);
+            if (stamped > epoch) {
+                throw new IOException("journal " + path + " is from snapshot epoch " + stamped + ", newer than the snapshot's " + epoch);
+            }
+            if (stamped < epoch) { // new, or its records are in the snapshot already
+                restart(ch, epoch);
+                return new AnimalJournal(ch, epoch, 0);
+            }
+            ch.position(HEADER);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(ch), 1 << 16));
+            long good = HEADER;
+            int records = 0;
+            while (true) {
+                Record r;
+                int length;
+                try {
+                    length = in.readInt();
+                    int crc = in.readInt();
+                    if (length < 0 || length > MAX_RECORD) {
+                        break;
+                    }
+                    byte[] payload = new byte[length];
+                    in.readFully(payload);
+                    CRC32 check = new CRC32();
+                    check.update(payload);
+                    if ((int) check.getValue() != crc) {
+                        break;
+                    }
+                    r = decode(ByteBuffer.wrap(payload));
+                } catch (EOFException e) {
+                    break;
+                }
+                replayer.apply(r);
+                good += 8 + length;
+                records++;
+            }
+            if (good < ch.size()) { // a torn last write: drop it so new records follow the good ones
+                ch.truncate(good);
+                ch.force(false);
+            }
+            ch.position(good);
+            return new AnimalJournal(ch, epoch, records);
+        } catch (IOException | RuntimeException e) {
+            ch.close();
+            throw e;
+        }
+    }
+
+    public synchronized void append(Record r) throws IOException { // durable when this returns, and not in the file if it throws
+        if (failed) {
+            throw new IOException("journal unusable until reset: an earlier write failed");
+        }
+        byte[] payload = encode(r);
+        CRC32 check = new CRC32();
+        check.update(payload);
+        ByteBuffer frame = ByteBuffer.allocate(8 + payload.length);
+        frame.putInt(payload.length).putInt((int) check.getValue()).put(payload).flip();
+        long start = ch.position();
+        try {
+            while (frame.hasRemaining()) {
+                ch.write(frame);
+            }
+            ch.force(false);
+        } catch (IOException | RuntimeException e) {
+            try { // whatever part of the record got out: the caller takes it back, so must the file
+                ch.truncate(start);
+                ch.position(start);
+                ch.force(false);
+            } catch (IOException | RuntimeException f) {
+                failed = true;
+                e.addSuppressed(f);
+            }
+            throw e;
+        }
+        records++;
+    }
+
+    public synchronized int records() { // records since the last reset
+        return records;
+    }
+
+    public synchronized void reset(long epoch) throws IOException { // empty the journal for a new snapshot, once that holds everything in it
+        try {
+            restart(ch, epoch);
+        } catch (IOException | RuntimeException e) { // header half written or still the old one: no appends until a reset gets through
+            failed = true;
+            throw e;
+        }
+        this.epoch = epoch;
+        records = 0;
+        failed = false;
+    }
+
+    public synchronized boolean failed() { // appends are refused until the next successful reset
+        return failed;
+    }
+
+    public synchronized long epoch() {
+        return epoch;
+    }
+
+    public synchronized void close() throws IOException {
+        ch.close();
+    }
+
+    private static long readEpoch(FileChannel ch, Path path) throws IOException { // -1 if the header isn't all there
+        if (ch.size() < HEADER) {
+            return -1;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        while (header.hasRemaining()) {
+            if (ch.read(header, header.position()) < 0) {
+                return -1;
+            }
+        }
+        header.flip();
+        if (header.getInt() != MAGIC) {
+            throw new IOException("not a game journal: " + path);
+        }
+        return header.getLong();
+    }
+
+    private static void restart(FileChannel ch, long epoch) throws IOException { // no records, then the new epoch: never the other way round
+        ch.truncate(Math.min(ch.size(), HEADER));
+        ch.force(false);
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        header.putInt(MAGIC).putLong(epoch).flip();
+        while (header.hasRemaining()) {
+            ch.write(header, header.position());
+        }
+        ch.force(false);
+        ch.position(HEADER);
+    }
+
+    private static byte[] encode(Record r) {
+        byte[] path = r.path.toByteArray();
+        byte[] oldGuess = r.oldGuess.getBytes(StandardCharsets.UTF_8);
+        byte[] question = r.question.getBytes(StandardCharsets.UTF_8);
+        byte[] answer = r.answer.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer b = ByteBuffer.allocate(4 + 4 + path.length + 1 + 12 + oldGuess.length + question.length + answer.length);
+        b.putInt(r.depth).putInt(path.length).put(path);
+        b.put((byte) (r.answerIsYes ? 1 : 0));
+        b.putInt(oldGuess.length).put(oldGuess);
+        b.putInt(question.length).put(question);
+        b.putInt(answer.length).put(answer);
+        return b.array();
+    }
+
+    private static Record decode(ByteBuffer b) throws IOException {
+        try {
+            int depth = b.getInt();
+            byte[] path = new byte[b.getInt()];
+            b.get(path);
+            boolean answerIsYes = b.get() == 1;
+            String oldGuess = text(b);
+            String question = text(b);
+            String answer = text(b);
+            return new Record(BitSet.valueOf(path), depth, answerIsYes, oldGuess, question, answer);
+        } catch (RuntimeException e) { // checksum passed but the layout is wrong: not a journal we wrote
+            throw new IOException("malformed journal record", e);
+        }
+    }
+
+    private static String text(ByteBuffer b) {
+        byte[] bytes = new byte[b.getInt()];
+        b.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,153 @@
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/* Serves one shared, learning Animal game to many players over TCP. Usage:
+ *   java AnimalServer [port] [snapshot] [journal]    defaults 4444, src/AnimalGame.txt, src/AnimalGame.journal
+ *
+ *   Each connection is a session: games until the player says no to "Shall we play again". The
+ *   protocol is one line per message, so a script or a person with nc can play:
+ *     "? question"   yes/no question, reply with a line starting y or n
+ *     "> prompt"     free-text question, reply with one line
+ *     anything else  a message, no reply
+ *   Sessions run on a cached thread pool, one thread each while connected (no virtual threads on
+ *   Java 17); play() itself is lock-free, so sessions only ever wait on their own socket. In-process
+ *   players skip the server and call Animal.session or Animal.play directly.
+ */
+
+public class AnimalServer implements AutoCloseable {
+    private final Animal game;
+    private final ServerSocket listener;
+    private final ExecutorService sessions = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "animal-session");
+        t.setDaemon(true);
+        return t;
+    });
+    private final LongAdder served = new LongAdder();   // sessions finished
+
+    public AnimalServer(Animal game, int port) throws IOException { // port 0 picks a free one
+        this.game = game;
+        this.listener = new ServerSocket(port, 1024);
+    }
+
+    public int port() {
+        return listener.getLocalPort();
+    }
+
+    public long sessionsServed() {
+        return served.sum();
+    }
+
+    public void start() { // accepts connections on a background thread until close()
+        sessions.execute(this::run);
+    }
+
+    public void run() { // accepts connections on this thread until close()
+        while (!listener.isClosed()) {
+            try {
+                Socket s = listener.accept();
+                sessions.execute(() -> serve(s));
+            } catch (IOException e) {
+                if (!listener.isClosed()) {
+                    System.err.println("accept failed: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void serve(Socket s) {
+        try (Socket socket = s) {
+            socket.setTcpNoDelay(true);
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true);
+            game.session(new LinePlayer(in, out));
+            served.increment();
+        } catch (EOFException e) {
+            // player hung up mid-game
+        } catch (IOException e) {
+            System.err.println("session failed: " + e.getMessage());
+        }
+    }
+
+    public void close() throws IOException {
+        listener.close();
+        sessions.shutdownNow();
+        try {
+            sessions.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /* The server side of the line protocol */
+
+    static class LinePlayer implements Animal.Player {
+        private final BufferedReader in;
+        private final PrintWriter out;
+
+        LinePlayer(BufferedReader in, PrintWriter out) {
+            this.in = in;
+            this.out = out;
+        }
+
+        public boolean confirm(String question) throws IOException {
+            while (true) {
+                out.println("? " + question);
+                String answer = reply().trim().toLowerCase();
+                if (answer.startsWith("y")) {
+                    return true;
+                }
+                if (answer.startsWith("n")) {
+                    return false;
+                }
+                out.println("Please answer yes or no");
+            }
+        }
+
+        public String ask(String prompt) throws IOException {
+            out.println("> " + prompt);
+            return reply();
+        }
+
+        public void tell(String message) {
+            out.println(message);
+        }
+
+        private String reply() throws IOException {
+            String line = in.readLine();
+            if (line == null) {
+                throw new EOFException();
+            }
+            return line;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 4444;
+        String snapshot = args.length > 1 ? args[1] : "src/AnimalGame.txt";
+        String journal = args.length > 2 ? args[2] : "src/AnimalGame.journal";
+        Animal game = Animal.open(Paths.get(snapshot), Paths.get(journal));
+        AnimalServer server = new AnimalServer(game, port);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                server.close();
+                game.close();
+            } catch (IOException e) {
+                System.err.println("shutdown: " + e.getMessage());
+            }
+        }));
+        System.out.println("Guessing game server on port " + server.port());
+        server.run();
+    }
+}
@@ -1,152 +1,1225 @@
-import edu.princeton.cs.algs4.*;
-
+import java.io.Flushable;
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Scanner;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.BiPredicate;
+import java.util.function.BinaryOperator;
+import java.util.function.ToLongFunction;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class BST<Key extends Comparable<Key>, Value>{
+    private static final boolean RED   = true;
+    private static final boolean BLACK = false;
+
     private Node root;             // root of BST
+    private final boolean balanced; // keep the tree a left-leaning red-black BST?
+    private Node[] path = newPath(64); // reusable search path for the loop-based put and delete
+    private Verification verification = Verification.FULL; // what check() validates after each mutation
+    private int sampleEvery = 1000;   // SAMPLED mode: full check after this many mutations
+    private int sinceFullCheck;       // mutations since the last full check
+    private int modCount;             // bumped by every put and delete, lets iterators fail fast
+    private final Augmentation<? super Key, ? super Value, Object> augmentation; // extra per-subtree summary, null for none
+    private Metrics metrics;          // where instrumented operations report, null (the default) for no instrumentation
+    private int heightEstimate;       // see the instrumentation comment, only kept up while metrics is set
+    private int opDepth;              // nodes on the last write's search path, left behind for the instrumentation
+    private int opComparisons;        // key comparisons the last write made, likewise
+
+    public enum Verification {
+        OFF,     // no checking, even with -ea
+        SAMPLED, // check the nodes the mutation rewrote, and the whole tree every sampleEvery-th mutation
+        FULL     // check the whole tree after every mutation, O(n)
+    }
+
+    /* Optional instrumentation. With a Metrics set, get, rank, select, put, delete and deleteMin
+     *   each report their latency, the number of nodes on their search path and the key comparisons
+     *   they made; writes also report the new size and a height estimate. Reads have counted twins of
+     *   their search loops (getCounted, rankCounted, selectCounted) that only run with a Metrics set
+     *   and keep their counts in locals, so without one a read costs a null check, and readers on
+     *   other threads (parallelForEach's slices call select) never write to the tree. Writes own the
+     *   tree anyway: their loops count as they go into opDepth and opComparisons, so an instrumented
+     *   call is still a single pass. A red-black delete's comparisons are its lookup plus the two or
+     *   three per level its fix-up descent makes, counted the same way.
+     *
+     *   The height is an estimate, since measuring it is O(n). In a plain tree a put deepens the tree
+     *   at most to its new leaf and a delete never deepens it, so the deepest path walked since the
+     *   last measurement is an upper bound, exact until a delete takes out the deepest leaf. In a
+     *   red-black tree rotations can deepen paths no call has walked, so after each write the
+     *   estimate is kept within what the black height bh allows any red-black tree, bh - 1 to
+     *   2 bh - 1 links, with bh read off the left spine in O(log n). Reads leave it alone: a path
+     *   they walk is never deeper than the bound. setMetrics and bulk changes (loads, batches, split,
+     *   deleteRange) measure it exactly again, O(n), the latter only when instrumented.
+     */
+    public enum Op {
+        GET, PUT, DELETE, DELETE_MIN, RANK, SELECT
+    }
+
+    public interface Metrics {
+        void record(Op op, int depth, int comparisons, long nanos); // depth: nodes on the search path
+        void shape(int size, int heightEstimate);                    // after every instrumented write
+    }
+
+    public void setMetrics(Metrics metrics) { // null turns instrumentation off
+        this.metrics = metrics;
+        if (metrics != null) {
+            heightEstimate = height(root);
+            metrics.shape(size(), heightEstimate);
+        }
+    }
+
+    private void record(Metrics m, Op op, int depth, int comparisons, long nanos) {
+        m.record(op, depth, comparisons, nanos);
+        if (op == Op.PUT) { // a delete's path may be gone, or shorter, by now
+            heightEstimate = Math.max(heightEstimate, depth - 1);
+        }
+        if (op == Op.PUT || op == Op.DELETE || op == Op.DELETE_MIN) {
+            if (balanced) { // the bounds every red-black tree of this black height is within
+                int bh = blackHeight(root);
+                heightEstimate = Math.min(Math.max(heightEstimate, bh - 1), 2 * bh - 1);
+            } else if (root == null) {
+                heightEstimate = -1;
+            }
+            m.shape(size(), heightEstimate);
+        }
+    }
+
+    private void reshaped() { // after a bulk change: measure the height again, O(n), only when instrumented
+        if (metrics != null) {
+            heightEstimate = height(root);
+            metrics.shape(size(), heightEstimate);
+        }
+    }
+
+    /* A monoid summary kept in every node next to size: agg(x) = agg(x.left) + lift(x) + agg(x.right),
+     *   where + is combine. combine must be associative with identity() as its unit, it need not be
+     *   commutative since the order of the parts is always the key order. Every place that fixes up a
+     *   size fixes up agg with it (update()), so aggregate(lo, hi) can add up the O(log n) whole
+     *   subtrees and boundary nodes that cover [lo, hi] instead of visiting every key in it.
+     *   Ranks, range counts and percentiles need nothing extra, they come from size through rank()
+     *   and select().
+     */
+    public interface Augmentation<K, V, A> {
+        A identity();
+        A lift(K key, V val);       // summary of a single entry
+        A combine(A left, A right); // summary of left's entries followed by right's
+
+        static <K, V> Augmentation<K, V, Long> sum(ToLongFunction<? super V> f) {
+            return of(0L, (k, v) -> f.applyAsLong(v), Long::sum);
+        }
+
+        static <K, V> Augmentation<K, V, Long> min(ToLongFunction<? super V> f) { // identity Long.MAX_VALUE
+            return of(Long.MAX_VALUE, (k, v) -> f.applyAsLong(v), Math::min);
+        }
+
+        static <K, V> Augmentation<K, V, Long> max(ToLongFunction<? super V> f) { // identity Long.MIN_VALUE
+            return of(Long.MIN_VALUE, (k, v) -> f.applyAsLong(v), Math::max);
+        }
+
+        static <K, V, A> Augmentation<K, V, A> of(A identity, BiFunction<? super K, ? super V, ? extends A> lift, BinaryOperator<A> combine) {
+            return new Augmentation<K, V, A>() {
+                public A identity() {
+                    return identity;
+                }
+
+                public A lift(K key, V val) {
+                    return lift.apply(key, val);
+                }
+
+                public A combine(A left, A right) {
+                    return combine.apply(left, right);
+                }
+            };
+        }
+    }
 
     private class Node {
         private Key key;           // sorted by key
         private Value val;         // associated data
         private Node left, right;  // left and right subtrees
         private int size;          // number of nodes in subtree
+        private boolean color;     // color of parent link (only used when balanced)
+        private Object agg;        // augmentation summary of the subtree, null without one
 
         public Node(Key key, Value val, int size) {
             this.key = key;
             this.val = val;
             this.size = size;
+            this.color = RED;
+            if (augmentation != null) {
+                this.agg = augmentation.lift(key, val);
+            }
         }
     }
 
-    private boolean check() { //makes sure it is a valid binary tree
-        if (!isBST()){
-            System.out.println("Not in symmetric order");
+    public BST() { // plain BST, shape depends on insertion order
+        this(false);
+    }
+
+    public BST(boolean balanced) { // balanced = true keeps height under 2 lg n even for sorted input
+        this(balanced, null);
+    }
+
+    @SuppressWarnings("unchecked")
+    public BST(boolean balanced, Augmentation<? super Key, ? super Value, ?> augmentation) { // augmentation may be null
+        this.balanced = balanced;
+        this.augmentation = (Augmentation<? super Key, ? super Value, Object>) augmentation;
+    }
+
+    public boolean isBalanced() { // was this tree constructed in self-balancing mode?
+        return balanced;
+    }
+
+    /* Bulk loading. Each builds the whole tree in O(n) straight from sorted input instead of n puts:
+     *   a plain tree comes out perfectly balanced (height floor(lg n)), a balanced one is a valid
+     *   red-black tree of black height floor(lg(n+1)) with red links only where the count forces them.
+     *   Every loader takes an optional Augmentation, as the constructor does; the summaries are built
+     *   bottom-up with the nodes, so they cost O(n) too.
+     */
+
+    public static <Key extends Comparable<Key>, Value> BST<Key, Value> fromSorted(Key[] keys, Value[] vals, boolean balanced) { // keys must be strictly ascending
+        return fromSorted(keys, vals, balanced, null);
+    }
+
+    public static <Key extends Comparable<Key>, Value> BST<Key, Value> fromSorted(Key[] keys, Value[] vals, boolean balanced, Augmentation<? super Key, ? super Value, ?> augmentation) {
+        if (keys == null || vals == null){
+            throw new IllegalArgumentException("argument to fromSorted() is null");
+        }
+        if (keys.length != vals.length){
+            throw new IllegalArgumentException("fromSorted() needs as many values as keys: " + keys.length + " != " + vals.length);
         }
-        if (!isSizeConsistent()){
-            System.out.println("Subtree counts not consistent");
+        BST<Key, Value> st = new BST<Key, Value>(balanced, augmentation);
+        st.load(keys, vals, keys.length);
+        return st;
+    }
+
+    public static <Key extends Comparable<Key>, Value> BST<Key, Value> fromSorted(Iterator<? extends Map.Entry<Key, Value>> entries, boolean balanced) { // entries must be in strictly ascending key order
+        return fromSorted(entries, balanced, null);
+    }
+
+    public static <Key extends Comparable<Key>, Value> BST<Key, Value> fromSorted(Iterator<? extends Map.Entry<Key, Value>> entries, boolean balanced, Augmentation<? super Key, ? super Value, ?> augmentation) {
+        if (entries == null){
+            throw new IllegalArgumentException("argument to fromSorted() is null");
         }
-        if (!isRankConsistent()){
-            System.out.println("Ranks not consistent");
+        ArrayList<Object> keys = new ArrayList<Object>();
+        ArrayList<Object> vals = new ArrayList<Object>();
+        while (entries.hasNext()) {
+            Map.Entry<Key, Value> e = entries.next();
+            keys.add(e.getKey());
+            vals.add(e.getValue());
         }
-        return isBST() && isSizeConsistent() && isRankConsistent();
+        BST<Key, Value> st = new BST<Key, Value>(balanced, augmentation);
+        st.load(keys.toArray(), vals.toArray(), keys.size());
+        return st;
     }
 
-    private boolean isBST() { // does this binary tree satisfy symmetric order?
-        return isBST(root, null, null);
+    public static <Key extends Comparable<Key>, Value> BST<Key, Value> fromSorted(Stream<? extends Map.Entry<Key, Value>> entries, boolean balanced) {
+        return fromSorted(entries, balanced, null);
     }
-    private boolean isBST(Node x, Key min, Key max) { //is the tree rooted at x a BST with all keys strictly between min and max?
-        if (x == null){
-            return true;
+
+    public static <Key extends Comparable<Key>, Value> BST<Key, Value> fromSorted(Stream<? extends Map.Entry<Key, Value>> entries, boolean balanced, Augmentation<? super Key, ? super Value, ?> augmentation) {
+        if (entries == null){
+            throw new IllegalArgumentException("argument to fromSorted() is null");
         }
-        if (min != null && x.key.compareTo(min) <= 0){
-            return false;
+        return fromSorted(entries.sequential().iterator(), balanced, augmentation);
+    }
+
+    public static <Key extends Comparable<Key>, Value> BST<Key, Value> fromUnsorted(Key[] keys, Value[] vals, boolean balanced) { // sorts copies first; for repeated keys the last value wins, as with put
+        return fromUnsorted(keys, vals, balanced, null);
+    }
+
+    public static <Key extends Comparable<Key>, Value> BST<Key, Value> fromUnsorted(Key[] keys, Value[] vals, boolean balanced, Augmentation<? super Key, ? super Value, ?> augmentation) {
+        if (keys == null || vals == null){
+            throw new IllegalArgumentException("argument to fromUnsorted() is null");
         }
-        if (max != null && x.key.compareTo(max) >= 0){
-            return false;
+        if (keys.length != vals.length){
+            throw new IllegalArgumentException("fromUnsorted() needs as many values as keys: " + keys.length + " != " + vals.length);
+        }
+        int n = keys.length;
+        @SuppressWarnings("unchecked")
+        Map.Entry<Key, Value>[] entries = (Map.Entry<Key, Value>[]) new Map.Entry<?, ?>[n];
+        for (int i = 0; i < n; i++) {
+            if (keys[i] == null){
+                throw new IllegalArgumentException("fromUnsorted() with a null key");
+            }
+            entries[i] = new AbstractMap.SimpleImmutableEntry<Key, Value>(keys[i], vals[i]);
         }
-        return isBST(x.left, min, x.key) && isBST(x.right, x.key, max);
+        Arrays.parallelSort(entries, Map.Entry.comparingByKey()); // stable, and only forks once the array is big enough to pay for it
+
+        Object[] sortedKeys = new Object[n];
+        Object[] sortedVals = new Object[n];
+        int m = 0;
+        for (int i = 0; i < n; i++) {
+            if (i + 1 < n && entries[i].getKey().compareTo(entries[i + 1].getKey()) == 0) { // a later duplicate overrides this one
+                continue;
+            }
+            sortedKeys[m] = entries[i].getKey();
+            sortedVals[m++] = entries[i].getValue();
+        }
+        BST<Key, Value> st = new BST<Key, Value>(balanced, augmentation);
+        st.load(sortedKeys, sortedVals, m);
+        return st;
     }
 
-    private boolean isSizeConsistent(){// are the size fields correct?
-        return isSizeConsistent(root);
+    @SuppressWarnings("unchecked")
+    private void load(Object[] keys, Object[] vals, int n) { // replace the contents with the first n sorted entries
+        for (int i = 0; i < n; i++) {
+            if (keys[i] == null || vals[i] == null){
+                throw new IllegalArgumentException("bulk load with a null key or value at index " + i);
+            }
+            if (i > 0 && ((Key) keys[i - 1]).compareTo((Key) keys[i]) >= 0){
+                throw new IllegalArgumentException("bulk load keys are not strictly ascending at index " + i);
+            }
+        }
+        modCount++;
+        if (balanced) {
+            int blackHeight = 31 - Integer.numberOfLeadingZeros(n + 1); // floor(lg(n+1))
+            root = build(keys, vals, 0, n, blackHeight);
+        } else {
+            root = build(keys, vals, 0, n);
+        }
+        assert check(null);
+        reshaped();
     }
-    private boolean isSizeConsistent(Node x) {
-        if (x == null){
+
+    @SuppressWarnings("unchecked")
+    private Node build(Object[] keys, Object[] vals, int lo, int hi) { // perfectly balanced subtree over [lo, hi)
+        if (lo >= hi) {
+            return null;
+        }
+        int mid = (lo + hi) >>> 1;
+        Node x = new Node((Key) keys[mid], (Value) vals[mid], hi - lo);
+        x.left = build(keys, vals, lo, mid);
+        x.right = build(keys, vals, mid + 1, hi);
+        update(x);
+        return x;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Node build(Object[] keys, Object[] vals, int lo, int hi, int blackHeight) { // red-black subtree over [lo, hi), needs 2^h - 1 <= n <= 3^h - 1
+        int n = hi - lo;
+        if (blackHeight == 0) {
+            return null;
+        }
+        long childMax = 1;              // most keys a subtree of black height h - 1 can hold: 3^(h-1) - 1
+        for (int i = 1; i < blackHeight; i++) {
+            childMax *= 3;
+        }
+        childMax--;
+        if (n - 1 <= 2 * childMax) {    // a 2-node: one black key over two children
+            int mid = lo + (n - 1) / 2;
+            Node x = new Node((Key) keys[mid], (Value) vals[mid], n);
+            x.color = BLACK;
+            x.left = build(keys, vals, lo, mid, blackHeight - 1);
+            x.right = build(keys, vals, mid + 1, hi, blackHeight - 1);
+            update(x);
+            return x;
+        }
+        int third = (n - 2) / 3;        // a 3-node: a black key with a red left key, over three children
+        int first = lo + third + ((n - 2) % 3 > 0 ? 1 : 0);
+        int second = first + 1 + third + ((n - 2) % 3 > 1 ? 1 : 0);
+        Node red = new Node((Key) keys[first], (Value) vals[first], second - lo);
+        red.left = build(keys, vals, lo, first, blackHeight - 1);
+        red.right = build(keys, vals, first + 1, second, blackHeight - 1);
+        update(red);
+        Node x = new Node((Key) keys[second], (Value) vals[second], n);
+        x.color = BLACK;
+        x.left = red;
+        x.right = build(keys, vals, second + 1, hi, blackHeight - 1);
+        update(x);
+        return x;
+    }
+
+    public void setVerification(Verification mode) { // how much of the tree check() looks at when running with -ea
+        setVerification(mode, sampleEvery);
+    }
+
+    public void setVerification(Verification mode, int every) { // in SAMPLED mode, every-th mutation gets a full check
+        if (mode == null){
+            throw new IllegalArgumentException("verification mode is null");
+        }
+        if (every < 1){
+            throw new IllegalArgumentException("sampling interval must be positive: " + every);
+        }
+        this.verification = mode;
+        this.sampleEvery = every;
+        this.sinceFullCheck = 0;
+    }
+
+    private boolean check(Key touched) { //makes sure it is a valid binary tree, touched is the key the mutation went for (null for the minimum)
+        String problem;
+        if (verification == Verification.OFF) {
             return true;
         }
-        if (x.size != size(x.left) + size(x.right) + 1){
-            return false;
+        if (verification == Verification.SAMPLED && ++sinceFullCheck < sampleEvery) {
+            problem = checkPath(touched);
+        } else {
+            sinceFullCheck = 0;
+            problem = checkAll();
         }
-        return isSizeConsistent(x.left) && isSizeConsistent(x.right);
+        if (problem != null){
+            System.out.println(problem);
+        }
+        return problem == null;
     }
 
-    private boolean isRankConsistent() {
-        for (int i = 0; i < size(); i++) {
-            if (i != rank(select(i))) {
-                return false;
+    private String checkAll() { // one in-order pass over every node: symmetric order, size fields and, when balanced, red-black shape
+        if (balanced && isRed(root)) {
+            return "Not a left-leaning red-black tree";
+        }
+        Node[] stack = newPath(64);
+        int[] blacks = new int[64]; // black links from the root down to (and including) stack[i]
+        int top = 0;
+        int expectedBlack = -1;     // black links on the first root-null path, every other one must match
+        int count = 0;
+        Key prev = null;
+        Node x = root;
+        int black = 0;
+        while (true) {
+            while (x != null) {
+                String problem = checkNode(x);
+                if (problem != null) {
+                    return problem;
+                }
+                if (!isRed(x)) {
+                    black++;
+                }
+                if (top == stack.length) {
+                    Node[] bigger = newPath(2 * top);
+                    System.arraycopy(stack, 0, bigger, 0, top);
+                    stack = bigger;
+                    int[] biggerBlacks = new int[2 * top];
+                    System.arraycopy(blacks, 0, biggerBlacks, 0, top);
+                    blacks = biggerBlacks;
+                }
+                stack[top] = x;
+                blacks[top++] = black;
+                x = x.left;
             }
+            if (balanced) { // just stepped onto a null link
+                if (expectedBlack == -1) {
+                    expectedBlack = black;
+                } else if (black != expectedBlack) {
+                    return "Not a left-leaning red-black tree";
+                }
+            }
+            if (top == 0) {
+                break;
+            }
+            Node next = stack[--top];
+            black = blacks[top];
+            if (prev != null && prev.compareTo(next.key) >= 0) {
+                return "Not in symmetric order";
+            }
+            prev = next.key;
+            count++;
+            x = next.right;
         }
-        for (Key key : keys()) {
-            if (key.compareTo(select(rank(key))) != 0) {
-                return false;
+        if (count != size(root)) {
+            return "Subtree counts not consistent";
+        }
+        return null;
+    }
+
+    /* checkPath covers what a put or delete rewrites: the search path for the key, the children
+     *   hanging off it (where a rotation moves a node down) and the left spine under the key's
+     *   successor, which is where a delete takes the replacement node from and rewrites sizes. The
+     *   successor is the last node on the path where the search turned left (or the key's own node).
+     *   In a red-black tree every node visited must also see the same number of black links down
+     *   both of its children as the root's left spine has, which makes the check O(height^2).
+     */
+    private String checkPath(Key key) { // the search path for key (the left spine if key is null) and its successor's spine
+        if (balanced && isRed(root)) {
+            return "Not a left-leaning red-black tree";
+        }
+        int expected = balanced ? blackHeight(root) : 0; // black links on every root-null path
+        Key lo = null;
+        Key hi = null;
+        int black = 0;
+        Node successor = null;
+        Key successorHi = null;
+        int successorBlack = 0;
+        Node x = root;
+        while (x != null) {
+            if (!isRed(x)) {
+                black++;
+            }
+            String problem = checkOnPath(x, lo, hi, expected - black);
+            if (problem != null) {
+                return problem;
+            }
+            int cmp = key == null ? -1 : key.compareTo(x.key);
+            if (cmp <= 0) {
+                successor = x;
+                successorHi = hi;
+                successorBlack = black;
+            }
+            if (cmp < 0) {
+                hi = x.key;
+                x = x.left;
             }
+            else if (cmp > 0) {
+                lo = x.key;
+                x = x.right;
+            } else {
+                break;
+            }
+        }
+        if (successor == null) {
+            return null;
         }
-        return true;
+        lo = successor.key;
+        hi = successorHi;
+        black = successorBlack;
+        for (x = successor.right; x != null; x = x.left) {
+            if (!isRed(x)) {
+                black++;
+            }
+            String problem = checkOnPath(x, lo, hi, expected - black);
+            if (problem != null) {
+                return problem;
+            }
+            hi = x.key;
+        }
+        return null;
     }
+
+    private String checkOnPath(Node x, Key lo, Key hi, int blackBelow) { // x, within (lo, hi), its children, and blackBelow black links under it
+        if ((lo != null && x.key.compareTo(lo) <= 0) || (hi != null && x.key.compareTo(hi) >= 0)) {
+            return "Not in symmetric order";
+        }
+        String problem = checkNode(x);
+        if (problem == null && x.left != null) {
+            problem = checkNode(x.left);
+        }
+        if (problem == null && x.right != null) {
+            problem = checkNode(x.right);
+        }
+        if (problem != null) {
+            return problem;
+        }
+        if (balanced && (blackHeight(x.left) != blackBelow || blackHeight(x.right) != blackBelow)) {
+            return "Not a left-leaning red-black tree";
+        }
+        return null;
+    }
+
+    private String checkNode(Node x) { // invariants that only involve x and its children
+        if ((x.left != null && x.left.key.compareTo(x.key) >= 0) || (x.right != null && x.right.key.compareTo(x.key) <= 0)) {
+            return "Not in symmetric order";
+        }
+        if (x.size != size(x.left) + size(x.right) + 1) {
+            return "Subtree counts not consistent";
+        }
+        if (augmentation != null && !Objects.equals(x.agg, summarize(x))) {
+            return "Subtree aggregates not consistent";
+        }
+        if (balanced && (isRed(x.right) || (isRed(x) && isRed(x.left)))) {
+            return "Not a left-leaning red-black tree";
+        }
+        return null;
+    }
+
     public int rank(Key key) { // Number of keys in the subtree less than key.
         if (key == null){
             throw new IllegalArgumentException("argument to rank() is null");
         }
-        return rank(key, root);
-    }
-    private int rank(Key key, Node x) {
-        if (x == null){
-            return 0;
+        Metrics m = metrics;
+        if (m != null) {
+            return rankCounted(m, key);
         }
-        int cmp = key.compareTo(x.key);
-        if(cmp < 0) {
-            return rank(key, x.left);
+        return rank(root, key);
+    }
+
+    private int rank(Node root, Key key) {
+        int r = 0;
+        Node x = root;
+        while (x != null) {
+            int cmp = key.compareTo(x.key);
+            if (cmp < 0) {
+                x = x.left;
+            }
+            else if (cmp > 0) {
+                r += 1 + size(x.left);
+                x = x.right;
+            } else {
+                r += size(x.left);
+                break;
+            }
         }
-        else if (cmp > 0) {
-            return 1 + size(x.left) + rank(key, x.right);
-        } else {
-            return size(x.left);
+        return r;
+    }
+
+    private int rankCounted(Metrics m, Key key) { // rank(root, key), reporting its path to m
+        long start = System.nanoTime();
+        int r = 0;
+        int depth = 0;
+        Node x = root;
+        while (x != null) {
+            depth++;
+            int cmp = key.compareTo(x.key);
+            if (cmp < 0) {
+                x = x.left;
+            }
+            else if (cmp > 0) {
+                r += 1 + size(x.left);
+                x = x.right;
+            } else {
+                r += size(x.left);
+                break;
+            }
         }
+        record(m, Op.RANK, depth, depth, System.nanoTime() - start); // one comparison per node
+        return r;
     }
     public Key select(int k) {  // Return key of rank k.
         if (k < 0 || k >= size()) {
             throw new IllegalArgumentException("argument to select() is invalid: " + k);
         }
-        Node x = select(root, k);
-        return x.key;
-    }
-    private Node select(Node x, int k) {
-        if (x == null){
-            return null;
+        Metrics m = metrics;
+        if (m != null) {
+            return selectCounted(m, k);
         }
-        int t = size(x.left);
-        if (t > k){
-            return select(x.left,  k);
+        return select(root, k);
+    }
+
+    private Key select(Node x, int k) {
+        while (true) {
+            int t = size(x.left);
+            if (t > k){
+                x = x.left;
+            }
+            else if (t < k){
+                k = k - t - 1;
+                x = x.right;
+            } else {
+                return x.key;
+            }
         }
-        else if (t < k){
-            return select(x.right, k-t-1);
-        } else {
-            return x;
+    }
+
+    private Key selectCounted(Metrics m, int k) { // select(root, k), reporting its path to m
+        long start = System.nanoTime();
+        Node x = root;
+        int depth = 1;
+        while (true) {
+            int t = size(x.left);
+            if (t > k){
+                x = x.left;
+            }
+            else if (t < k){
+                k = k - t - 1;
+                x = x.right;
+            } else {
+                record(m, Op.SELECT, depth, 0, System.nanoTime() - start);
+                return x.key;
+            }
+            depth++;
         }
     }
-    public Iterable<Key> keys() {
-        if (isEmpty()){
-            return new Queue<Key>();
+    public Iterable<Key> keys() { // all keys in order, produced lazily
+        return () -> new KeyIterator(null, null);
+    }
+    public Iterable<Key> keys(Key lo, Key hi) { // keys in [lo, hi] in order, produced lazily: the first costs O(log n), each later one O(1) amortized
+        checkRange(lo, hi, "keys()");
+        return () -> new KeyIterator(lo, hi);
+    }
+
+    public Iterable<Map.Entry<Key, Value>> entries() {
+        return () -> new EntryIterator(null, null);
+    }
+    public Iterable<Map.Entry<Key, Value>> entries(Key lo, Key hi) { // key-value pairs in [lo, hi] in key order
+        checkRange(lo, hi, "entries()");
+        return () -> new EntryIterator(lo, hi);
+    }
+
+    public Stream<Key> keyStream(Key lo, Key hi) { // sequential, sorted, sized stream view of keys(lo, hi)
+        checkRange(lo, hi, "keyStream()");
+        int characteristics = Spliterator.ORDERED | Spliterator.SORTED | Spliterator.DISTINCT | Spliterator.NONNULL;
+        return StreamSupport.stream(Spliterators.spliterator(new KeyIterator(lo, hi), size(lo, hi), characteristics), false);
+    }
+    public Stream<Map.Entry<Key, Value>> entryStream(Key lo, Key hi) { // sequential, sized stream view of entries(lo, hi)
+        checkRange(lo, hi, "entryStream()");
+        int characteristics = Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL;
+        return StreamSupport.stream(Spliterators.spliterator(new EntryIterator(lo, hi), size(lo, hi), characteristics), false);
+    }
+
+    public int size(Key lo, Key hi) { // Number of keys in [lo, hi], O(log n) through rank.
+        checkRange(lo, hi, "size()");
+        if (lo.compareTo(hi) > 0) {
+            return 0;
         }
-        return keys(min(), max());
+        if (contains(hi)) {
+            return rank(hi) - rank(lo) + 1;
+        }
+        return rank(hi) - rank(lo);
     }
-    public Iterable<Key> keys(Key lo, Key hi) {
+
+    private void checkRange(Key lo, Key hi, String method) {
         if (lo == null){
-            throw new IllegalArgumentException("first argument to keys() is null");
+            throw new IllegalArgumentException("first argument to " + method + " is null");
         }
         if (hi == null){
-            throw new IllegalArgumentException("second argument to keys() is null");
+            throw new IllegalArgumentException("second argument to " + method + " is null");
+        }
+    }
+
+    /* In-order walk over [lo, hi] with an explicit stack of pending ancestors (null bounds mean
+     *   unbounded). Only the stack is allocated, O(height) once per walk, never per key. Any put or
+     *   delete on the tree after the walk started makes the next call fail fast.
+     */
+    private abstract class RangeWalk {
+        private final Key hi;
+        private final int expectedModCount = modCount;
+        private Node[] stack = newPath(32);
+        private int top;
+
+        RangeWalk(Key lo, Key hi) {
+            this.hi = hi;
+            pushLeft(root, lo);
+        }
+
+        private void pushLeft(Node x, Key lo) { // only nodes >= lo are worth visiting, skip left of anything smaller
+            while (x != null) {
+                if (lo == null || lo.compareTo(x.key) <= 0) {
+                    if (top == stack.length) {
+                        Node[] bigger = newPath(2 * top);
+                        System.arraycopy(stack, 0, bigger, 0, top);
+                        stack = bigger;
+                    }
+                    stack[top++] = x;
+                    x = x.left;
+                } else {
+                    x = x.right;
+                }
+            }
+        }
+
+        public boolean hasNext() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            return top > 0 && (hi == null || hi.compareTo(stack[top - 1].key) >= 0);
+        }
+
+        Node nextNode() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Node next = stack[--top];
+            stack[top] = null;
+            pushLeft(next.right, null);
+            return next;
+        }
+    }
+
+    private class KeyIterator extends RangeWalk implements Iterator<Key> {
+        KeyIterator(Key lo, Key hi) {
+            super(lo, hi);
+        }
+
+        public Key next() {
+            return nextNode().key;
+        }
+    }
+
+    private class EntryIterator extends RangeWalk implements Iterator<Map.Entry<Key, Value>> {
+        EntryIterator(Key lo, Key hi) {
+            super(lo, hi);
+        }
+
+        public Map.Entry<Key, Value> next() {
+            Node x = nextNode();
+            return new AbstractMap.SimpleImmutableEntry<Key, Value>(x.key, x.val);
+        }
+    }
+
+    /* Whole-tree walks in any of the four classic orders, without recursion and without allocating
+     *   anything per node: one OrderWalk keeps an array of nodes that doubles when full, used as a
+     *   stack for the depth-first orders and as a circular FIFO for level order, so a walk allocates
+     *   O(height) (O(width) for level order) once. traverse hands key and value straight to the
+     *   visitor, keys and keyStream are the same walk as an Iterable and a sized Stream. All fail fast
+     *   on a write during the walk, the visitor's own writes included.
+     *
+     *   dump writes "key value" lines through a 64K-char buffer, one append to out per full buffer,
+     *   so a PrintStream (System.out) takes its lock once per buffer instead of once per key.
+     */
+    public enum Traversal {
+        IN_ORDER,    // left subtree, node, right subtree: ascending keys
+        PRE_ORDER,   // node, left subtree, right subtree
+        POST_ORDER,  // left subtree, right subtree, node
+        LEVEL_ORDER  // by depth from the root, left to right within a level
+    }
+
+    public void traverse(Traversal order, BiConsumer<? super Key, ? super Value> visitor) { // visitor gets every entry, in the given order
+        if (order == null || visitor == null){
+            throw new IllegalArgumentException("argument to traverse() is null");
+        }
+        OrderWalk walk = new OrderWalk(order);
+        while (walk.hasNext()) {
+            Node x = walk.nextNode();
+            visitor.accept(x.key, x.val);
+        }
+    }
+
+    public Iterable<Key> keys(Traversal order) { // all keys in the given order, produced lazily
+        if (order == null){
+            throw new IllegalArgumentException("argument to keys() is null");
+        }
+        return () -> new OrderWalk(order);
+    }
+
+    public Stream<Key> keyStream(Traversal order) { // sequential, sized stream view of keys(order), sorted only for IN_ORDER
+        if (order == null){
+            throw new IllegalArgumentException("argument to keyStream() is null");
+        }
+        int characteristics = Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL;
+        if (order == Traversal.IN_ORDER) {
+            characteristics |= Spliterator.SORTED;
+        }
+        return StreamSupport.stream(Spliterators.spliterator(new OrderWalk(order), size(), characteristics), false);
+    }
+
+    public Iterable<Key> levelOrder() { // all keys, level by level from the root, left to right within a level
+        return keys(Traversal.LEVEL_ORDER);
+    }
+
+    private static final int DUMP_BUFFER = 1 << 16; // chars collected before each append to the output
+
+    public void dump(Traversal order, Appendable out) throws IOException { // one "key value" line per entry, in the given order
+        if (order == null || out == null){
+            throw new IllegalArgumentException("argument to dump() is null");
+        }
+        StringBuilder buf = new StringBuilder(DUMP_BUFFER + 256);
+        OrderWalk walk = new OrderWalk(order);
+        while (walk.hasNext()) {
+            Node x = walk.nextNode();
+            appendText(buf, x.key).append(' ');
+            appendText(buf, x.val).append('\n');
+            if (buf.length() >= DUMP_BUFFER) {
+                out.append(buf);
+                buf.setLength(0);
+            }
+        }
+        if (buf.length() > 0) {
+            out.append(buf);
+        }
+        if (out instanceof Flushable) {
+            ((Flushable) out).flush();
+        }
+    }
+
+    private static StringBuilder appendText(StringBuilder buf, Object o) { // boxed numbers go in as digits, with no String made for them
+        if (o instanceof Integer) {
+            return buf.append(((Integer) o).intValue());
+        } else if (o instanceof Long) {
+            return buf.append(((Long) o).longValue());
+        }
+        return buf.append(o);
+    }
+
+    private class OrderWalk implements Iterator<Key> {
+        private final Traversal order;
+        private final int expectedModCount = modCount;
+        private Node[] nodes = newPath(32); // a stack, or for LEVEL_ORDER a circular queue starting at head
+        private int head;
+        private int count;
+
+        OrderWalk(Traversal order) {
+            this.order = order;
+            if (root == null) {
+                return;
+            }
+            if (order == Traversal.IN_ORDER) {
+                pushLeft(root);
+            } else if (order == Traversal.POST_ORDER) {
+                pushToLeaf(root);
+            } else {
+                push(root);
+            }
+        }
+
+        private void push(Node x) { // onto the top of the stack, or the tail of the queue
+            if (count == nodes.length) {
+                Node[] bigger = newPath(2 * count);
+                for (int i = 0; i < count; i++) {
+                    bigger[i] = nodes[(head + i) & (count - 1)];
+                }
+                nodes = bigger;
+                head = 0;
+            }
+            nodes[(head + count++) & (nodes.length - 1)] = x;
+        }
+
+        private Node pop() { // from the top of the stack
+            Node x = nodes[--count];
+            nodes[count] = null;
+            return x;
+        }
+
+        private void pushLeft(Node x) { // x and its chain of left children, the smallest on top
+            for (; x != null; x = x.left) {
+                push(x);
+            }
+        }
+
+        private void pushToLeaf(Node x) { // the path from x to the first leaf post-order reaches, that leaf on top
+            while (x != null) {
+                push(x);
+                x = x.left != null ? x.left : x.right;
+            }
+        }
+
+        public boolean hasNext() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            return count > 0;
         }
 
-        Queue<Key> queue = new Queue<Key>();
-        keys(root, queue, lo, hi);
-        return queue;
+        Node nextNode() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Node x;
+            switch (order) {
+                case IN_ORDER:
+                    x = pop();
+                    pushLeft(x.right);
+                    break;
+                case PRE_ORDER:
+                    x = pop();
+                    if (x.right != null) {
+                        push(x.right);
+                    }
+                    if (x.left != null) {
+                        push(x.left);
+                    }
+                    break;
+                case POST_ORDER: // x's children are done; if x was a left child, its sibling subtree is next
+                    x = pop();
+                    if (count > 0 && nodes[count - 1].left == x) {
+                        pushToLeaf(nodes[count - 1].right);
+                    }
+                    break;
+                default:
+                    x = nodes[head];
+                    nodes[head] = null;
+                    head = (head + 1) & (nodes.length - 1);
+                    count--;
+                    if (x.left != null) {
+                        push(x.left);
+                    }
+                    if (x.right != null) {
+                        push(x.right);
+                    }
+            }
+            return x;
+        }
+
+        public Key next() {
+            return nextNode().key;
+        }
+    }
+
+    /* Parallel bulk operations on a ForkJoinPool (the common pool unless one is given). The work is
+     *   cut by rank, not by subtree: halving [0, n) and finding where each half starts with select
+     *   keeps the pieces even however lopsided the tree is, and a plain tree's long chains don't
+     *   turn into deep recursion. Pieces of at most about n / (8 * parallelism) keys are walked in
+     *   order by one thread each. reduce combines results in key order, so its combiner must be
+     *   associative but need not be commutative. Reading in parallel is safe as long as nothing
+     *   writes; a write during the walk fails it with ConcurrentModificationException.
+     */
+
+    private static final int MIN_SLICE = 1 << 12; // below this a slice isn't worth a task
+
+    public void parallelForEach(BiConsumer<? super Key, ? super Value> action) { // called concurrently, in no particular order
+        parallelForEach(ForkJoinPool.commonPool(), action);
     }
 
-    private void keys(Node x, Queue<Key> queue, Key lo, Key hi) {
-        if (x == null){
-            return;
+    public void parallelForEach(ForkJoinPool pool, BiConsumer<? super Key, ? super Value> action) {
+        if (action == null){
+            throw new IllegalArgumentException("argument to parallelForEach() is null");
+        }
+        parallel(pool, (walk, count) -> {
+            for (int i = 0; i < count; i++) {
+                Node x = walk.nextNode();
+                action.accept(x.key, x.val);
+            }
+            return null;
+        }, (a, b) -> null);
+    }
+
+    public <R> R parallelReduce(R identity, BiFunction<? super Key, ? super Value, ? extends R> mapper, BinaryOperator<R> combiner) {
+        return parallelReduce(ForkJoinPool.commonPool(), identity, mapper, combiner);
+    }
+
+    public <R> R parallelReduce(ForkJoinPool pool, R identity, BiFunction<? super Key, ? super Value, ? extends R> mapper, BinaryOperator<R> combiner) { // combiner(identity, r) must be r
+        if (mapper == null || combiner == null){
+            throw new IllegalArgumentException("argument to parallelReduce() is null");
+        }
+        R result = parallel(pool, (walk, count) -> {
+            R acc = identity;
+            for (int i = 0; i < count; i++) {
+                Node x = walk.nextNode();
+                acc = combiner.apply(acc, mapper.apply(x.key, x.val));
+            }
+            return acc;
+        }, combiner);
+        return result == null ? identity : result;
+    }
+
+    public long parallelCount(BiPredicate<? super Key, ? super Value> predicate) { // entries the predicate accepts
+        return parallelCount(ForkJoinPool.commonPool(), predicate);
+    }
+
+    public long parallelCount(ForkJoinPool pool, BiPredicate<? super Key, ? super Value> predicate) {
+        if (predicate == null){
+            throw new IllegalArgumentException("argument to parallelCount() is null");
+        }
+        Long count = parallel(pool, (walk, n) -> {
+            long c = 0;
+            for (int i = 0; i < n; i++) {
+                Node x = walk.nextNode();
+                if (predicate.test(x.key, x.val)) {
+                    c++;
+                }
+            }
+            return c;
+        }, Long::sum);
+        return count == null ? 0 : count;
+    }
+
+    private interface SliceWork<K extends Comparable<K>, V, R> { // what one task does with count consecutive entries from walk
+        R run(BST<K, V>.RangeWalk walk, int count);
+    }
+
+    private <R> R parallel(ForkJoinPool pool, SliceWork<Key, Value, R> work, BinaryOperator<R> combiner) { // null for an empty tree
+        if (pool == null){
+            throw new IllegalArgumentException("pool is null");
+        }
+        int n = size();
+        if (n == 0) {
+            return null;
+        }
+        int slice = Math.max(MIN_SLICE, n / (8 * pool.getParallelism()));
+        return pool.invoke(new Slice<R>(0, n, slice, modCount, work, combiner));
+    }
+
+    private class Slice<R> extends RecursiveTask<R> { // the entries of rank [from, to)
+        private static final long serialVersionUID = 1L; // RecursiveTask is Serializable; a Slice is never actually serialized
+        private final int from, to, slice, expectedModCount;
+        private final SliceWork<Key, Value, R> work;
+        private final BinaryOperator<R> combiner;
+
+        Slice(int from, int to, int slice, int expectedModCount, SliceWork<Key, Value, R> work, BinaryOperator<R> combiner) {
+            this.from = from;
+            this.to = to;
+            this.slice = slice;
+            this.expectedModCount = expectedModCount;
+            this.work = work;
+            this.combiner = combiner;
+        }
+
+        protected R compute() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (to - from <= slice) {
+                KeyIterator walk = new KeyIterator(select(root, from), null);
+                return work.run(walk, to - from);
+            }
+            int mid = (from + to) >>> 1;
+            Slice<R> left = new Slice<R>(from, mid, slice, expectedModCount, work, combiner);
+            left.fork();
+            R right = new Slice<R>(mid, to, slice, expectedModCount, work, combiner).compute();
+            return combiner.apply(left.join(), right);
+        }
+    }
+
+    /* Cursors (fingers) for sequential and near-neighbour access. A cursor keeps the path from the
+     *   root to the node it is on, with the open key interval each node on it covers and the rank of
+     *   each one's leftmost key. A search from the cursor first climbs only as far as the nearest
+     *   node whose interval holds the target and descends from there, so a lookup near the last one
+     *   touches few nodes: next and prev are O(1) amortized, and seek, get, floor and ceiling cost
+     *   the climb plus the descent, about O(log d) for a key d positions away unless the two lie on
+     *   either side of a key high in the tree (then up to O(log n), as from the root).
+     *
+     *   A cursor is on a key (valid()) or on none: before the first seek, and after next or prev
+     *   step off either end. Writes to the tree make valid, key, value, rank, next and prev throw
+     *   ConcurrentModificationException; the next seek, get, floor or ceiling starts over from the
+     *   root and the cursor is good again.
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    public class Cursor {
+        private int expectedModCount = modCount;
+        private Node[] path = newPath(64);  // root to the current node
+        private Key[] lo = newKeys(64);     // keys in path[i]'s subtree are above lo[i] and below hi[i], null for no bound
+        private Key[] hi = newKeys(64);
+        private int[] base = new int[64];   // rank of the smallest key in path[i]'s subtree
+        private int depth;                  // nodes on the path, 0 when not on a key
+
+        private Cursor() {
+        }
+
+        public boolean valid() { // on a key?
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            return depth > 0;
+        }
+
+        public Key key() {
+            return current().key;
+        }
+
+        public Value value() {
+            return current().val;
+        }
+
+        public int rank() { // rank of the current key
+            Node x = current();
+            return base[depth - 1] + size(x.left);
+        }
+
+        public boolean seek(Key key) { // moves to the smallest key >= key; false, and on no key, if there is none
+            if (key == null){
+                throw new IllegalArgumentException("argument to seek() is null");
+            }
+            if (search(key) > 0 && depth > 0) {
+                next();
+            }
+            return depth > 0;
+        }
+
+        public Value get(Key key) { // like BST.get, leaving the cursor on key or next to where it would be
+            if (key == null){
+                throw new IllegalArgumentException("calls get() with a null key");
+            }
+            return search(key) == 0 ? path[depth - 1].val : null;
+        }
+
+        public Key floor(Key key) { // moves to the largest key <= key and returns it, or null (and on no key) if there is none
+            if (key == null){
+                throw new IllegalArgumentException("argument to floor() is null");
+            }
+            if (search(key) < 0 && depth > 0) {
+                prev();
+            }
+            return depth > 0 ? path[depth - 1].key : null;
+        }
+
+        public Key ceiling(Key key) { // moves to the smallest key >= key and returns it, or null (and on no key) if there is none
+            return seek(key) ? path[depth - 1].key : null;
+        }
+
+        public boolean next() { // moves to the next larger key; false, and on no key, past the largest
+            Node x = current();
+            if (x.right != null) {
+                int d = depth - 1;
+                push(x.right, x.key, hi[d], base[d] + size(x.left) + 1);
+                descendLeft();
+            } else { // up to the first ancestor this subtree hangs to the left of
+                while (depth > 1 && path[depth - 2].right == path[depth - 1]) {
+                    depth--;
+                }
+                depth--;
+            }
+            return depth > 0;
+        }
+
+        public boolean prev() { // moves to the next smaller key; false, and on no key, before the smallest
+            Node x = current();
+            if (x.left != null) {
+                int d = depth - 1;
+                push(x.left, lo[d], x.key, base[d]);
+                while (path[depth - 1].right != null) {
+                    Node y = path[depth - 1];
+                    push(y.right, y.key, hi[depth - 1], base[depth - 1] + size(y.left) + 1);
+                }
+            } else {
+                while (depth > 1 && path[depth - 2].left == path[depth - 1]) {
+                    depth--;
+                }
+                depth--;
+            }
+            return depth > 0;
+        }
+
+        private Node current() {
+            if (!valid()) {
+                throw new NoSuchElementException("cursor is not on a key");
+            }
+            return path[depth - 1];
+        }
+
+        private int search(Key key) { // ends on key (0) or on the last node of its search path: key is just below (< 0) or above (> 0) it
+            if (modCount != expectedModCount) {
+                expectedModCount = modCount;
+                depth = 0;
+            }
+            while (depth > 1 && !encloses(depth - 1, key)) {
+                depth--;
+            }
+            if (depth == 0) {
+                if (root == null) {
+                    return 1; // no node to be on
+                }
+                push(root, null, null, 0);
+            }
+            while (true) {
+                int d = depth - 1;
+                Node x = path[d];
+                int cmp = key.compareTo(x.key);
+                if (cmp < 0 && x.left != null) {
+                    push(x.left, lo[d], x.key, base[d]);
+                } else if (cmp > 0 && x.right != null) {
+                    push(x.right, x.key, hi[d], base[d] + size(x.left) + 1);
+                } else {
+                    return cmp;
+                }
+            }
         }
-        int cmplo = lo.compareTo(x.key);
-        int cmphi = hi.compareTo(x.key);
-        if (cmplo < 0){
-            keys(x.left, queue, lo, hi);
+
+        private boolean encloses(int d, Key key) {
+            return (lo[d] == null || lo[d].compareTo(key) < 0) && (hi[d] == null || key.compareTo(hi[d]) < 0);
         }
-        if (cmplo <= 0 && cmphi >= 0){
-            queue.enqueue(x.key);
+
+        private void descendLeft() {
+            while (path[depth - 1].left != null) {
+                int d = depth - 1;
+                push(path[d].left, lo[d], path[d].key, base[d]);
+            }
         }
-        if (cmphi > 0){
-            keys(x.right, queue, lo, hi);
+
+        private void push(Node x, Key low, Key high, int rank) {
+            if (depth == path.length) {
+                path = Arrays.copyOf(path, 2 * depth);
+                lo = Arrays.copyOf(lo, 2 * depth);
+                hi = Arrays.copyOf(hi, 2 * depth);
+                base = Arrays.copyOf(base, 2 * depth);
+            }
+            path[depth] = x;
+            lo[depth] = low;
+            hi[depth] = high;
+            base[depth++] = rank;
         }
     }
 
@@ -157,56 +1230,151 @@ public class BST<Key extends Comparable<Key>, Value>{
         return get(key) != null;
     }
     public Value get(Key key){
-        return get(root, key);
-    }
-    private Value get(Node x, Key key) {
         if (key == null){
             throw new IllegalArgumentException("calls get() with a null key");
         }
-        if (x == null){
-            return null;
+        Metrics m = metrics;
+        if (m != null) {
+            return getCounted(m, key);
         }
-        int cmp = key.compareTo(x.key);
-        if(cmp < 0){
-            return get(x.left, key);
-        } else if (cmp > 0) {
-            return get(x.right, key);
-        } else {
-            return x.val;
+        return get(root, key);
+    }
+
+    private Value get(Node x, Key key) {
+        while (x != null) {
+            int cmp = key.compareTo(x.key);
+            if(cmp < 0){
+                x = x.left;
+            } else if (cmp > 0) {
+                x = x.right;
+            } else {
+                return x.val;
+            }
+        }
+        return null;
+    }
+
+    private Value getCounted(Metrics m, Key key) { // get(root, key), reporting its path to m
+        long start = System.nanoTime();
+        int depth = 0;
+        Node x = root;
+        while (x != null) {
+            depth++;
+            int cmp = key.compareTo(x.key);
+            if(cmp < 0){
+                x = x.left;
+            } else if (cmp > 0) {
+                x = x.right;
+            } else {
+                break;
+            }
         }
+        record(m, Op.GET, depth, depth, System.nanoTime() - start); // one comparison per node
+        return x == null ? null : x.val;
     }
 
     public void delete(Key key){ // Removes the specified key and its associated value from this symbol table.
         if (key == null){
             throw new IllegalArgumentException("calls delete() with a null key");
         }
-        root = delete(root, key);
-        assert check();
+        Metrics m = metrics;
+        long start = m == null ? 0 : System.nanoTime();
+        modCount++;
+        int depth;
+        if (balanced) {
+            Node hit = root;
+            depth = 0;
+            while (hit != null) { // the lookup, counted in a local: free when nobody reads it
+                depth++;
+                int cmp = key.compareTo(hit.key);
+                if (cmp == 0) {
+                    break;
+                }
+                hit = cmp < 0 ? hit.left : hit.right;
+            }
+            boolean present = hit != null;
+            opComparisons = depth; // the lookup's, then deleteBalanced adds its own
+            if (!present) {
+                if (m != null) {
+                    record(m, Op.DELETE, depth, depth, System.nanoTime() - start);
+                }
+                return;
+            }
+            if (!isRed(root.left) && !isRed(root.right)) {
+                root.color = RED;
+            }
+            root = deleteBalanced(root, key);
+            if (root != null) {
+                root.color = BLACK;
+            }
+        } else {
+            root = delete(root, key);
+            depth = opDepth;
+            opComparisons = depth;
+        }
+        assert check(key);
+        if (m != null) {
+            record(m, Op.DELETE, depth, opComparisons, System.nanoTime() - start);
+        }
     }
 
-    private Node delete(Node x, Key key) {
-        if (x == null) return null;
+    private Node delete(Node root, Key key) { // Hibbard deletion without recursion, returns the new root
+        int depth = 0;
+        Node x = root;
+        while (x != null) {
+            int cmp = key.compareTo(x.key);
+            if (cmp == 0) {
+                break;
+            }
+            depth = push(depth, x);
+            x = cmp < 0 ? x.left : x.right;
+        }
+        opDepth = x == null ? depth : depth + 1;
+        if (x == null) { // key not present, leave sizes alone
+            return root;
+        }
 
-        int cmp = key.compareTo(x.key);
-        if(cmp < 0) {
-            x.left  = delete(x.left,  key);
+        int changed = depth; // path[0, changed) is every node whose subtree lost x, top down
+        Node replacement;
+        if (x.right == null) {
+            replacement = x.left;
         }
-        else if (cmp > 0) {
-            x.right = delete(x.right, key);
+        else if (x.left == null) {
+            replacement = x.right;
+        }
+        else if (x.right.left == null) { // successor is x.right itself
+            replacement = x.right;
+            replacement.left = x.left;
+            changed = push(changed, replacement);
         } else {
-            if (x.right == null) {
-                return x.left;
+            Node successor = x.right;
+            while (successor.left != null) {
+                successor = successor.left;
             }
-            if (x.left  == null) {
-                return x.right;
+            replacement = successor;
+            changed = push(changed, replacement);
+            Node parent = x.right; // every node between x.right and the successor loses one descendant
+            changed = push(changed, parent);
+            while (parent.left != successor) {
+                parent = parent.left;
+                changed = push(changed, parent);
             }
-            Node t = x;
-            x = min(t.right);
-            x.right = deleteMin(t.right);
-            x.left = t.left;
+            parent.left = replacement.right;
+            replacement.left = x.left;
+            replacement.right = x.right;
         }
-        x.size = size(x.left) + size(x.right) + 1;
-        return x;
+
+        if (depth == 0) {
+            root = replacement;
+        } else if (path[depth - 1].left == x) {
+            path[depth - 1].left = replacement;
+        } else {
+            path[depth - 1].right = replacement;
+        }
+        for (int i = changed - 1; i >= 0; i--) {
+            update(path[i]);
+        }
+        return root;
     }
 
 
@@ -214,11 +1382,26 @@ public class BST<Key extends Comparable<Key>, Value>{
         return height(root);
     }
 
-    private int height(Node x) {
+    private int height(Node x) { // level-order walk, counting levels instead of recursing
         if (x == null){
             return -1;
         }
-        return 1 + Math.max(height(x.left), height(x.right));
+        ArrayDeque<Node> queue = new ArrayDeque<Node>();
+        queue.add(x);
+        int height = -1;
+        while (!queue.isEmpty()) {
+            height++;
+            for (int i = queue.size(); i > 0; i--) { // drain exactly one level
+                Node next = queue.remove();
+                if (next.left != null) {
+                    queue.add(next.left);
+                }
+                if (next.right != null) {
+                    queue.add(next.right);
+                }
+            }
+        }
+        return height;
     }
 
 
@@ -237,6 +1420,82 @@ public class BST<Key extends Comparable<Key>, Value>{
         }
     }
 
+    private void update(Node x) { // recompute x's size and summary from its children, which must be up to date
+        x.size = size(x.left) + size(x.right) + 1;
+        if (augmentation != null) {
+            x.agg = summarize(x);
+        }
+    }
+
+    private Object summarize(Node x) {
+        return augmentation.combine(augmentation.combine(agg(x.left), augmentation.lift(x.key, x.val)), agg(x.right));
+    }
+
+    private Object agg(Node x) {
+        return x == null ? augmentation.identity() : x.agg;
+    }
+
+    @SuppressWarnings("unchecked")
+    public <A> A aggregate(Augmentation<? super Key, ? super Value, A> aug, Key lo, Key hi) { // summary of the entries in [lo, hi], O(log n); aug must be the tree's own
+        checkRange(lo, hi, "aggregate()");
+        if (aug == null || aug != augmentation){
+            throw new IllegalArgumentException("aggregate() with an augmentation this tree doesn't maintain");
+        }
+        if (lo.compareTo(hi) > 0) {
+            return aug.identity();
+        }
+        Node split = root; // highest node inside [lo, hi]: the boundary paths to lo and hi part there
+        while (split != null) {
+            if (split.key.compareTo(lo) < 0) {
+                split = split.right;
+            } else if (split.key.compareTo(hi) > 0) {
+                split = split.left;
+            } else {
+                break;
+            }
+        }
+        if (split == null) {
+            return aug.identity();
+        }
+        Object left = augmentation.identity();  // keys in [lo, split), built up right to left
+        Node x = split.left;
+        while (x != null) {
+            int cmp = lo.compareTo(x.key);
+            if (cmp > 0) {
+                x = x.right;
+            } else {
+                left = augmentation.combine(augmentation.combine(augmentation.lift(x.key, x.val), agg(x.right)), left);
+                if (cmp == 0) {
+                    break;
+                }
+                x = x.left;
+            }
+        }
+        Object right = augmentation.identity(); // keys in (split, hi], built up left to right
+        x = split.right;
+        while (x != null) {
+            int cmp = hi.compareTo(x.key);
+            if (cmp < 0) {
+                x = x.left;
+            } else {
+                right = augmentation.combine(right, augmentation.combine(agg(x.left), augmentation.lift(x.key, x.val)));
+                if (cmp == 0) {
+                    break;
+                }
+                x = x.right;
+            }
+        }
+        return (A) augmentation.combine(augmentation.combine(left, augmentation.lift(split.key, split.val)), right);
+    }
+
+    @SuppressWarnings("unchecked")
+    public <A> A aggregate(Augmentation<? super Key, ? super Value, A> aug) { // summary of the whole table, O(1)
+        if (aug == null || aug != augmentation){
+            throw new IllegalArgumentException("aggregate() with an augmentation this tree doesn't maintain");
+        }
+        return (A) agg(root);
+    }
+
     public Key max(){ // Returns the largest key in the symbol table.
         if (isEmpty()){
             throw new NoSuchElementException("calls max() with empty symbol table");
@@ -244,11 +1503,10 @@ public class BST<Key extends Comparable<Key>, Value>{
         return max(root).key;
     }
     private Node max(Node x) {
-        if (x.right == null) {
-            return x;
-        } else {
-            return max(x.right);
+        while (x.right != null) {
+            x = x.right;
         }
+        return x;
     }
 
 
@@ -259,26 +1517,91 @@ public class BST<Key extends Comparable<Key>, Value>{
         return min(root).key;
     }
     private Node min(Node x) {
-        if (x.left == null){
-            return x;
-        } else {
-            return min(x.left);
+        while (x.left != null) {
+            x = x.left;
+        }
+        return x;
+    }
+
+    public Key floor(Key key) { // largest key <= key, null if there is none
+        if (key == null){
+            throw new IllegalArgumentException("argument to floor() is null");
+        }
+        Key best = null;
+        Node x = root;
+        while (x != null) {
+            int cmp = key.compareTo(x.key);
+            if (cmp < 0) {
+                x = x.left;
+            } else if (cmp > 0) {
+                best = x.key;
+                x = x.right;
+            } else {
+                return x.key;
+            }
+        }
+        return best;
+    }
+
+    public Key ceiling(Key key) { // smallest key >= key, null if there is none
+        if (key == null){
+            throw new IllegalArgumentException("argument to ceiling() is null");
+        }
+        Key best = null;
+        Node x = root;
+        while (x != null) {
+            int cmp = key.compareTo(x.key);
+            if (cmp < 0) {
+                best = x.key;
+                x = x.left;
+            } else if (cmp > 0) {
+                x = x.right;
+            } else {
+                return x.key;
+            }
         }
+        return best;
     }
     public void deleteMin() { // Removes the smallest key and associated value from the symbol table
         if (isEmpty()){
             throw new NoSuchElementException("Symbol table underflow");
         }
-        root = deleteMin(root);
-        assert check();
+        Metrics m = metrics;
+        long start = m == null ? 0 : System.nanoTime();
+        modCount++;
+        if (balanced) {
+            if (!isRed(root.left) && !isRed(root.right)) {
+                root.color = RED;
+            }
+            opDepth = 0;
+            root = deleteMinBalanced(root);
+            if (root != null) {
+                root.color = BLACK;
+            }
+        } else {
+            root = deleteMin(root);
+        }
+        assert check(null);
+        if (m != null) {
+            record(m, Op.DELETE_MIN, opDepth, 0, System.nanoTime() - start);
+        }
     }
 
-    private Node deleteMin(Node x) {
+    private Node deleteMin(Node x) { // unlinks the leftmost node, returns the new subtree root
         if (x.left == null) {
+            opDepth = 1;
             return x.right;
         }
-        x.left = deleteMin(x.left);
-        x.size = size(x.left) + size(x.right) + 1;
+        int depth = push(0, x);
+        while (path[depth - 1].left.left != null) {
+            depth = push(depth, path[depth - 1].left);
+        }
+        opDepth = depth + 1;
+        Node parent = path[depth - 1];
+        parent.left = parent.left.right;
+        for (int i = depth - 1; i >= 0; i--) { // every node above the minimum loses one descendant
+            update(path[i]);
+        }
         return x;
     }
 
@@ -290,138 +1613,694 @@ public class BST<Key extends Comparable<Key>, Value>{
             delete(key);
             return;
         }
-        root = put(root, key, val);
-        assert check();
+        Metrics m = metrics;
+        long start = m == null ? 0 : System.nanoTime();
+        int before = size();
+        modCount++;
+        opComparisons = 0;
+        if (balanced) {
+            root = putBalanced(root, key, val);
+            root.color = BLACK;
+        } else {
+            root = put(root, key, val);
+        }
+        assert check(key);
+        if (m != null) {
+            long nanos = System.nanoTime() - start;
+            int depth = size() > before ? opComparisons + 1 : opComparisons; // a new node hangs below the last one compared
+            record(m, Op.PUT, depth, opComparisons, nanos);
+        }
     }
 
-    private Node put(Node x, Key key, Value val) { // Inserts the specified key-value pair into the symbol table, overwriting the old value with the new value if the symbol table already contains the specified key.
-        if (x == null) {
+    private Node put(Node root, Key key, Value val) { // Inserts the specified key-value pair into the symbol table, overwriting the old value with the new value if the symbol table already contains the specified key.
+        if (root == null) {
             return new Node(key, val, 1);
         }
-        int cmp = key.compareTo(x.key);
-        if (cmp < 0) {
-            x.left  = put(x.left,  key, val);
+        int depth = 0;
+        Node x = root;
+        while (true) {
+            int cmp = key.compareTo(x.key);
+            if (cmp == 0) { // overwrite, sizes unchanged
+                x.val = val;
+                if (augmentation == null) {
+                    opComparisons = depth + 1;
+                    return root;
+                }
+                depth = push(depth, x); // but the summaries of x and everything above it are stale
+                break;
+            }
+            depth = push(depth, x);
+            Node next = cmp < 0 ? x.left : x.right;
+            if (next == null) {
+                if (cmp < 0) {
+                    x.left = new Node(key, val, 1);
+                } else {
+                    x.right = new Node(key, val, 1);
+                }
+                break;
+            }
+            x = next;
+        }
+        opComparisons = depth; // one per node pushed
+        for (int i = depth - 1; i >= 0; i--) { // the new key is below every node on the path
+            update(path[i]);
+        }
+        return root;
+    }
+
+    private int push(int depth, Node x) { // record x on the search path, growing the buffer as the tree deepens
+        if (depth == path.length) {
+            Node[] bigger = newPath(2 * depth);
+            System.arraycopy(path, 0, bigger, 0, depth);
+            path = bigger;
+        }
+        path[depth] = x;
+        return depth + 1;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Node[] newPath(int capacity) {
+        return (Node[]) new BST<?, ?>.Node[capacity];
+    }
+
+    @SuppressWarnings("unchecked")
+    private Key[] newKeys(int capacity) { // Key is only known to be Comparable, so that is the array's runtime type
+        return (Key[]) new Comparable<?>[capacity];
+    }
+
+    /* Batched updates. The batch is sorted, so a plain tree takes it in one pass: the batch is split
+     *   around each node's key and each half goes down one side, every touched node is visited and
+     *   resized once, and a run of new keys that falls into an empty link becomes a balanced subtree.
+     *   Splicing subtrees in like that would break the red-black shape, so a balanced tree either
+     *   merges the batch with its in-order contents and rebuilds in O(n + m), or just loops over put
+     *   and delete when the batch is too small for that to pay off.
+     */
+
+    public void putAll(Key[] keys, Value[] vals) { // keys strictly ascending, values non-null
+        if (vals == null){
+            throw new IllegalArgumentException("argument to putAll() is null");
+        }
+        for (Value val : vals) {
+            if (val == null){
+                throw new IllegalArgumentException("putAll() with a null value, use deleteAll() or applyBatch()");
+            }
+        }
+        applyBatch(keys, vals);
+    }
+
+    public void deleteAll(Key[] keys) { // keys strictly ascending
+        if (keys == null){
+            throw new IllegalArgumentException("argument to deleteAll() is null");
+        }
+        @SuppressWarnings("unchecked")
+        Value[] none = (Value[]) new Object[keys.length];
+        applyBatch(keys, none);
+    }
+
+    public void applyBatch(Key[] keys, Value[] vals) { // keys strictly ascending; like put, a null value deletes its key
+        if (keys == null || vals == null){
+            throw new IllegalArgumentException("argument to applyBatch() is null");
+        }
+        if (keys.length != vals.length){
+            throw new IllegalArgumentException("applyBatch() needs as many values as keys: " + keys.length + " != " + vals.length);
+        }
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] == null){
+                throw new IllegalArgumentException("applyBatch() with a null key at index " + i);
+            }
+            if (i > 0 && keys[i - 1].compareTo(keys[i]) >= 0){
+                throw new IllegalArgumentException("applyBatch() keys are not strictly ascending at index " + i);
+            }
+        }
+        int m = keys.length;
+        if (m == 0) {
+            return;
+        }
+        if (!balanced) {
+            modCount++;
+            root = applyBatch(root, keys, vals);
+            assert check(null);
+            reshaped();
         }
-        else if (cmp > 0 ){
-            x.right = put(x.right, key, val);
+        else if (4L * m < size()) { // a rebuild touches all n nodes, per-key updates win until the batch is a sizeable fraction of them
+            for (int i = 0; i < m; i++) {
+                put(keys[i], vals[i]);
+            }
         } else {
-            x.val = val;
+            mergeAndRebuild(keys, vals);
+        }
+    }
+
+    private Node applyBatch(Node root, Key[] keys, Value[] vals) { // the one-pass merge for plain trees, with an explicit stack instead of recursion
+        Node[] nodes = newPath(64);   // frame: the subtree root, and the slice [lo, hi) of the batch that belongs in it
+        int[] lo = new int[64];
+        int[] hi = new int[64];
+        int[] split = new int[64];    // first batch index >= the node's key
+        int[] stage = new int[64];    // 0 = entering, 1 = left side done, 2 = right side done
+        int top = 0;
+        nodes[0] = root;
+        hi[0] = keys.length;
+        Node result = null;           // what the frame just popped wants linked into its parent
+        while (top >= 0) {
+            Node x = nodes[top];
+            if (stage[top] == 0) {
+                if (lo[top] == hi[top]) { // nothing for this subtree
+                    result = x;
+                    top--;
+                    continue;
+                }
+                if (x == null) {      // a run of keys that all land on one empty link
+                    result = buildFrom(keys, vals, lo[top], hi[top]);
+                    top--;
+                    continue;
+                }
+                split[top] = lowerBound(keys, lo[top], hi[top], x.key);
+                stage[top] = 1;
+                int childLo = lo[top];
+                int childHi = split[top];
+                Node child = x.left;
+                top++;
+                if (top == nodes.length) {
+                    Node[] bigger = newPath(2 * top);
+                    System.arraycopy(nodes, 0, bigger, 0, top);
+                    nodes = bigger;
+                    lo = Arrays.copyOf(lo, 2 * top);
+                    hi = Arrays.copyOf(hi, 2 * top);
+                    split = Arrays.copyOf(split, 2 * top);
+                    stage = Arrays.copyOf(stage, 2 * top);
+                }
+                nodes[top] = child;
+                lo[top] = childLo;
+                hi[top] = childHi;
+                stage[top] = 0;
+            }
+            else if (stage[top] == 1) {
+                x.left = result;
+                int i = split[top];
+                boolean match = i < hi[top] && keys[i].compareTo(x.key) == 0;
+                stage[top] = 2;
+                int childHi = hi[top];
+                top++;
+                nodes[top] = x.right;
+                lo[top] = match ? i + 1 : i;
+                hi[top] = childHi;
+                stage[top] = 0;
+            } else {
+                x.right = result;
+                int i = split[top];
+                if (i < hi[top] && keys[i].compareTo(x.key) == 0) {
+                    if (vals[i] != null) {
+                        x.val = vals[i];
+                    } else {
+                        x = unlink(x);
+                    }
+                }
+                if (x != null) {
+                    update(x);
+                }
+                nodes[top] = null;
+                result = x;
+                top--;
+            }
+        }
+        return result;
+    }
+
+    private Node unlink(Node x) { // Hibbard deletion of x itself, whose children are already final
+        if (x.right == null) {
+            return x.left;
+        }
+        if (x.left == null) {
+            return x.right;
         }
-        x.size = 1 + size(x.left) + size(x.right);
+        Node t = x;
+        x = min(t.right);
+        x.right = deleteMin(t.right);
+        x.left = t.left;
         return x;
     }
 
-    public void inOrder(Node node){ // traverse (prints out) the keys in inorder order.
-        if (node == null) {
-            return;
+    private int lowerBound(Key[] keys, int lo, int hi, Key key) { // first index in [lo, hi) whose key is >= key
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keys[mid].compareTo(key) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
         }
+        return lo;
+    }
 
-        inOrder(node.left);  // first recur on left child
-        System.out.print(node.key + " "); // then print the data of node
-        inOrder(node.right);
+    private Node buildFrom(Key[] keys, Value[] vals, int lo, int hi) { // balanced subtree of the non-deletes in [lo, hi)
+        Object[] liveKeys = new Object[hi - lo];
+        Object[] liveVals = new Object[hi - lo];
+        int n = 0;
+        for (int i = lo; i < hi; i++) {
+            if (vals[i] != null) {
+                liveKeys[n] = keys[i];
+                liveVals[n++] = vals[i];
+            }
+        }
+        return build(liveKeys, liveVals, 0, n);
+    }
 
+    private void mergeAndRebuild(Key[] keys, Value[] vals) { // merge the in-order contents with the batch and bulk load the result
+        int n = size();
+        int m = keys.length;
+        Object[] mergedKeys = new Object[n + m];
+        Object[] mergedVals = new Object[n + m];
+        int count = 0;
+        int i = 0;
+        for (Map.Entry<Key, Value> e : entries()) {
+            while (i < m && keys[i].compareTo(e.getKey()) < 0) { // batch keys not yet in the tree
+                if (vals[i] != null) {
+                    mergedKeys[count] = keys[i];
+                    mergedVals[count++] = vals[i];
+                }
+                i++;
+            }
+            if (i < m && keys[i].compareTo(e.getKey()) == 0) { // batch overrides or deletes an existing key
+                if (vals[i] != null) {
+                    mergedKeys[count] = keys[i];
+                    mergedVals[count++] = vals[i];
+                }
+                i++;
+            } else {
+                mergedKeys[count] = e.getKey();
+                mergedVals[count++] = e.getValue();
+            }
+        }
+        for (; i < m; i++) {
+            if (vals[i] != null) {
+                mergedKeys[count] = keys[i];
+                mergedVals[count++] = vals[i];
+            }
+        }
+        load(mergedKeys, mergedVals, count);
     }
 
-    public void postOrder(Node node){ // traverses (prints out) the keys in postorder order.
-        if (node == null) {
-            return;
+    /* Split and join. A split walks the search path for the cut once and, coming back up, hangs
+     *   each path node with its untouched subtree onto whichever half it belongs to (join3). In a
+     *   plain tree that is just relinking, O(height). A red-black join3 of trees whose black
+     *   heights differ by d descends d levels down the taller one's spine, adds the middle node as a
+     *   red link and repairs upwards like an insert; along one split the differences telescope, so
+     *   split, join and deleteRange are all O(log n). Only subMap copies, it leaves this tree alone.
+     */
+
+    public BST<Key, Value> split(Key key) { // moves every key >= key into the returned tree, this one keeps the smaller ones
+        if (key == null){
+            throw new IllegalArgumentException("calls split() with a null key");
+        }
+        modCount++;
+        Node[] halves = split(root, key, false);
+        root = blacken(halves[0]);
+        BST<Key, Value> right = new BST<Key, Value>(balanced, augmentation);
+        right.root = blacken(halves[1]);
+        assert check(null) && right.check(null);
+        reshaped();
+        return right;
+    }
+
+    public static <Key extends Comparable<Key>, Value> BST<Key, Value> join(BST<Key, Value> left, BST<Key, Value> right) { // every key in left must be below every key in right; takes the nodes of both, leaving them empty
+        if (left == null || right == null){
+            throw new IllegalArgumentException("argument to join() is null");
+        }
+        if (left == right){
+            throw new IllegalArgumentException("join() of a tree with itself");
+        }
+        if (left.balanced != right.balanced || left.augmentation != right.augmentation){
+            throw new IllegalArgumentException("join() needs two trees of the same mode and augmentation");
         }
+        if (!left.isEmpty() && !right.isEmpty() && left.max().compareTo(right.min()) >= 0){
+            throw new IllegalArgumentException("join() needs every key in left below every key in right");
+        }
+        BST<Key, Value> st = new BST<Key, Value>(left.balanced, left.augmentation);
+        st.root = st.blacken(st.join(left.root, right.root));
+        left.root = null;
+        right.root = null;
+        left.modCount++;
+        right.modCount++;
+        assert st.check(null);
+        return st;
+    }
 
-        postOrder(node.left); // first recur on left subtree
-        postOrder(node.right); // then recur on right subtree
-        System.out.print(node.key + " "); // now deal with the node
+    public BST<Key, Value> deleteRange(Key lo, Key hi) { // removes the keys in [lo, hi] and returns them as a tree of their own
+        checkRange(lo, hi, "deleteRange()");
+        BST<Key, Value> removed = new BST<Key, Value>(balanced, augmentation);
+        if (lo.compareTo(hi) > 0) {
+            return removed;
+        }
+        modCount++;
+        Node[] below = split(root, lo, false);
+        Node[] above = split(below[1], hi, true);
+        root = blacken(join(below[0], above[1]));
+        removed.root = blacken(above[0]);
+        assert check(lo) && removed.check(null);
+        reshaped();
+        return removed;
+    }
 
+    public BST<Key, Value> subMap(Key lo, Key hi) { // a copy of the entries in [lo, hi], O(k + log n)
+        checkRange(lo, hi, "subMap()");
+        int k = size(lo, hi);
+        Object[] keys = new Object[k];
+        Object[] vals = new Object[k];
+        EntryIterator it = new EntryIterator(lo, hi);
+        for (int i = 0; i < k; i++) {
+            Node x = it.nextNode();
+            keys[i] = x.key;
+            vals[i] = x.val;
+        }
+        BST<Key, Value> st = new BST<Key, Value>(balanced, augmentation);
+        st.load(keys, vals, k);
+        return st;
     }
 
-    public void preOrder(Node node){ // traverses (prints out) the keys in preorder order.
-        if (node == null) {
-            return;
+    private Node[] split(Node root, Key key, boolean keyGoesLeft) { // {keys below the cut, keys above it}; roots may come back red
+        int depth = 0;
+        Node x = root;
+        while (x != null) {
+            depth = push(depth, x);
+            int cmp = key.compareTo(x.key);
+            if (cmp == 0) {
+                break;
+            }
+            x = cmp < 0 ? x.left : x.right;
+        }
+        int[] heights = new int[depth + 1]; // black height of each path node, only needed when balanced
+        if (balanced) {
+            heights[0] = blackHeight(root);
+            for (int i = 0; i < depth; i++) {
+                heights[i + 1] = heights[i] - (isRed(path[i]) ? 0 : 1);
+            }
+        }
+        Node left = null;       // the halves of the subtree below path[i], built bottom up
+        Node right = null;
+        int leftHeight = 0;
+        int rightHeight = 0;
+        for (int i = depth - 1; i >= 0; i--) {
+            Node p = path[i];
+            path[i] = null;
+            int childHeight = heights[i + 1];
+            int cmp = key.compareTo(p.key);
+            if (cmp == 0) {     // the cut runs right beside p: one subtree stays whole, the other goes with p
+                if (keyGoesLeft) {
+                    right = p.right;
+                    rightHeight = childHeight;
+                    cmp = 1;
+                } else {
+                    left = p.left;
+                    leftHeight = childHeight;
+                    cmp = -1;
+                }
+            }
+            if (cmp < 0) {      // p and its right subtree are above the cut
+                int h = Math.max(heightAsRoot(right, rightHeight), heightAsRoot(p.right, childHeight));
+                right = join3(right, rightHeight, p, p.right, childHeight);
+                rightHeight = h;
+            } else {
+                int h = Math.max(heightAsRoot(p.left, childHeight), heightAsRoot(left, leftHeight));
+                left = join3(p.left, childHeight, p, left, leftHeight);
+                leftHeight = h;
+            }
         }
+        Node[] halves = newPath(2);
+        halves[0] = left;
+        halves[1] = right;
+        return halves;
+    }
 
-        System.out.print(node.key + " ");  // first print data of node
-        preOrder(node.left);  // then recur on left subtree
-        preOrder(node.right); // now recur on right subtree
+    private Node join(Node left, Node right) { // every key in left below every key in right
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+        Node middle = min(right);
+        if (balanced) {
+            right.color = BLACK;
+            if (!isRed(right.left) && !isRed(right.right)) {
+                right.color = RED;
+            }
+            right = deleteMinBalanced(right); // unlinks middle itself, the minimum of a red-black tree has no children
+            if (right != null) {
+                right.color = BLACK;
+            }
+            return join3(left, blackHeight(left), middle, right, blackHeight(right));
+        }
+        right = deleteMin(right);
+        return join3(left, 0, middle, right, 0);
+    }
 
+    private Node join3(Node left, int leftHeight, Node middle, Node right, int rightHeight) { // left < middle < right; the heights are only read when balanced
+        if (!balanced) {
+            middle.left = left;
+            middle.right = right;
+            update(middle);
+            return middle;
+        }
+        if (isRed(left)) {
+            left.color = BLACK;
+            leftHeight++;
+        }
+        if (isRed(right)) {
+            right.color = BLACK;
+            rightHeight++;
+        }
+        if (leftHeight > rightHeight) {
+            return joinRight(left, leftHeight, middle, right, rightHeight);
+        }
+        if (leftHeight < rightHeight) {
+            return joinLeft(left, leftHeight, middle, right, rightHeight);
+        }
+        return redParent(left, middle, right);
     }
 
-    public void levelOrder(Node node){ // traverse (prints out) the keys as levels, left to right.
-        int h = height(root);
-        int i;
-        for (i=1; i<=h+1; i++) {
-            givenLevel(root, i);
+    private Node joinRight(Node h, int height, Node middle, Node right, int rightHeight) { // down h's right spine to right's black height
+        if (height == rightHeight && !isRed(h)) {
+            return redParent(h, middle, right);
         }
+        h.right = joinRight(h.right, height - (isRed(h) ? 0 : 1), middle, right, rightHeight);
+        return balance(h);
     }
 
-    public void givenLevel(Node root, int level){
-        if (root == null) {
-            return;
-        } else if (level == 1) {
-            System.out.print(root.key + " ");
-        } else if (level > 1) {
-            givenLevel(root.left, level-1);
-            givenLevel(root.right, level-1);
+    private Node joinLeft(Node left, int leftHeight, Node middle, Node h, int height) { // down h's left spine to left's black height
+        if (height == leftHeight && !isRed(h)) {
+            return redParent(left, middle, h);
+        }
+        h.left = joinLeft(left, leftHeight, middle, h.left, height - (isRed(h) ? 0 : 1));
+        return balance(h);
+    }
+
+    private Node redParent(Node left, Node middle, Node right) {
+        middle.left = left;
+        middle.right = right;
+        middle.color = RED;
+        update(middle);
+        return middle;
+    }
+
+    private int blackHeight(Node x) { // black links on every path from x down to a null link, x's own if it is black
+        int height = 0;
+        while (x != null) {
+            if (!isRed(x)) {
+                height++;
+            }
+            x = x.left;
+        }
+        return height;
+    }
+
+    private int heightAsRoot(Node x, int height) { // black height once join3 has made x's root black
+        return isRed(x) ? height + 1 : height;
+    }
+
+    private Node blacken(Node x) { // a red-black tree's root is black
+        if (balanced && x != null) {
+            x.color = BLACK;
+        }
+        return x;
+    }
+
+    /* Left-leaning red-black helpers, only used when balanced is set. Same algorithms as
+     * algs4's RedBlackBST, but sharing this class's Node so rank/select keep using size.
+     */
+
+    private boolean isRed(Node x) {
+        if (x == null) {
+            return false;
+        }
+        return x.color == RED;
+    }
+
+    private Node putBalanced(Node h, Key key, Value val) {
+        if (h == null) {
+            return new Node(key, val, 1);
+        }
+        opComparisons++;
+        int cmp = key.compareTo(h.key);
+        if (cmp < 0) {
+            h.left  = putBalanced(h.left,  key, val);
+        }
+        else if (cmp > 0) {
+            h.right = putBalanced(h.right, key, val);
+        } else {
+            h.val = val;
+        }
+        if (isRed(h.right) && !isRed(h.left)) {
+            h = rotateLeft(h);
+        }
+        if (isRed(h.left) && isRed(h.left.left)) {
+            h = rotateRight(h);
+        }
+        if (isRed(h.left) && isRed(h.right)) {
+            flipColors(h);
+        }
+        update(h);
+        return h;
+    }
+
+    private Node deleteBalanced(Node h, Key key) { // key must be present in the subtree rooted at h
+        opComparisons++;
+        if (key.compareTo(h.key) < 0) {
+            if (!isRed(h.left) && !isRed(h.left.left)) {
+                h = moveRedLeft(h);
+            }
+            h.left = deleteBalanced(h.left, key);
+        } else {
+            if (isRed(h.left)) {
+                h = rotateRight(h);
+            }
+            opComparisons++;
+            if (key.compareTo(h.key) == 0 && (h.right == null)) {
+                return null;
+            }
+            if (!isRed(h.right) && !isRed(h.right.left)) {
+                h = moveRedRight(h);
+            }
+            opComparisons++;
+            if (key.compareTo(h.key) == 0) {
+                Node x = min(h.right);
+                h.key = x.key;
+                h.val = x.val;
+                h.right = deleteMinBalanced(h.right);
+            } else {
+                h.right = deleteBalanced(h.right, key);
+            }
+        }
+        return balance(h);
+    }
+
+    private Node deleteMinBalanced(Node h) {
+        opDepth++;
+        if (h.left == null) {
+            return null;
+        }
+        if (!isRed(h.left) && !isRed(h.left.left)) {
+            h = moveRedLeft(h);
+        }
+        h.left = deleteMinBalanced(h.left);
+        return balance(h);
+    }
+
+    private Node rotateRight(Node h) { // make a left-leaning link lean to the right
+        Node x = h.left;
+        h.left = x.right;
+        x.right = h;
+        x.color = h.color;
+        h.color = RED;
+        x.size = h.size;
+        x.agg = h.agg;
+        update(h);
+        return x;
+    }
+
+    private Node rotateLeft(Node h) { // make a right-leaning link lean to the left
+        Node x = h.right;
+        h.right = x.left;
+        x.left = h;
+        x.color = h.color;
+        h.color = RED;
+        x.size = h.size;
+        x.agg = h.agg;
+        update(h);
+        return x;
+    }
+
+    private void flipColors(Node h) { // flip the colors of a node and its two children
+        h.color = !h.color;
+        h.left.color = !h.left.color;
+        h.right.color = !h.right.color;
+    }
+
+    private Node moveRedLeft(Node h) { // make h.left or one of its children red, assuming h is red and h.left, h.left.left are black
+        flipColors(h);
+        if (isRed(h.right.left)) {
+            h.right = rotateRight(h.right);
+            h = rotateLeft(h);
+            flipColors(h);
+        }
+        return h;
+    }
+
+    private Node moveRedRight(Node h) { // make h.right or one of its children red, assuming h is red and h.right, h.right.left are black
+        flipColors(h);
+        if (isRed(h.left.left)) {
+            h = rotateRight(h);
+            flipColors(h);
         }
+        return h;
+    }
 
+    private Node balance(Node h) { // restore red-black invariant on the way back up
+        if (isRed(h.right) && !isRed(h.left)) {
+            h = rotateLeft(h);
+        }
+        if (isRed(h.left) && isRed(h.left.left)) {
+            h = rotateRight(h);
+        }
+        if (isRed(h.left) && isRed(h.right)) {
+            flipColors(h);
+        }
+        update(h);
+        return h;
     }
 
     public static void main(String[] args){ // BST driver
         BST<Integer, Integer> st = new BST<Integer, Integer>();
-        StdOut.println("Binary Search Tree Runner, please enter starting number of nodes ");
-        int n = StdIn.readInt();
+        Scanner in = new Scanner(System.in);
+        System.out.println("Binary Search Tree Runner, please enter starting number of nodes ");
+        int n = in.nextInt();
         for (int i = 0; i<n; i++) {
-            StdOut.println("Enter a number ");
-            int key = StdIn.readInt();
+            System.out.println("Enter a number ");
+            int key = in.nextInt();
             st.put(key, i);
         }
         while(true){
            System.out.println("Enter '1' if you would like to insert a node, '2' if you would like to delete a node, '3' if you would like to see the tree traversed in different ways, and '4' to exit.");
-           int x = StdIn.readInt();
+           int x = in.nextInt();
            if(x==1){
                System.out.println("What value would you like to insert?");
                System.out.println("Here are the values in order?");
-               st.inOrder(st.root);
-               System.out.println("");
-               int y = StdIn.readInt();
+               System.out.println(line(st, Traversal.IN_ORDER));
+               int y = in.nextInt();
                System.out.println("Where would you like to insert");
-               int z = StdIn.readInt();
+               int z = in.nextInt();
                st.put(y,z);
-               System.out.println("In order: ");
-               st.inOrder(st.root);
-               System.out.println("\nPost order: ");
-               st.postOrder(st.root);
-               System.out.println("\nPre order: ");
-               st.preOrder(st.root);
-               System.out.println("\nLevel order:");
-               st.levelOrder(st.root);
-               System.out.println("");
+               printTraversals(st);
            }
            if(x==2){
                 System.out.println("What value would you like to delete?");
                 System.out.println("Here are the values in order?");
-                st.inOrder(st.root);
-                System.out.println("");
-                int d = StdIn.readInt();
+                System.out.println(line(st, Traversal.IN_ORDER));
+                int d = in.nextInt();
                 st.delete(d);
-               System.out.println("In order: ");
-               st.inOrder(st.root);
-               System.out.println("\nPost order: ");
-               st.postOrder(st.root);
-               System.out.println("\nPre order: ");
-               st.preOrder(st.root);
-               System.out.println("\nLevel order:");
-               st.levelOrder(st.root);
-               System.out.println("");
+               printTraversals(st);
            }
            if(x==3){
-               System.out.println("In order: ");
-               st.inOrder(st.root);
-               System.out.println("\nPost order: ");
-               st.postOrder(st.root);
-               System.out.println("\nPre order: ");
-               st.preOrder(st.root);
-               System.out.println("\nLevel order:");
-               st.levelOrder(st.root);
-               System.out.println("");
+               printTraversals(st);
            }
            if(x==4){
                break;
@@ -430,4 +2309,19 @@ public class BST<Key extends Comparable<Key>, Value>{
 
     }
 
+    private static void printTraversals(BST<Integer, Integer> st) { // the keys in all four orders
+        System.out.println("In order: ");
+        System.out.println(line(st, Traversal.IN_ORDER));
+        System.out.println("Post order: ");
+        System.out.println(line(st, Traversal.POST_ORDER));
+        System.out.println("Pre order: ");
+        System.out.println(line(st, Traversal.PRE_ORDER));
+        System.out.println("Level order:");
+        System.out.println(line(st, Traversal.LEVEL_ORDER));
+    }
+
+    private static String line(BST<Integer, Integer> st, Traversal order) { // keys separated by spaces, built first and printed in one call
+        return st.keyStream(order).map(String::valueOf).collect(Collectors.joining(" "));
+    }
+
 }
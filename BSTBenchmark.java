@@ -0,0 +1,1156 @@
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.IntConsumer;
+import java.util.function.IntUnaryOperator;
+
+/* Quick timing driver for the tables, a plain main with no dependencies: each measurement is
+ *   repeated a few times after a warm-up round and the best time is reported. Run without -ea,
+ *   otherwise check() dominates. The JMH suites in jmh/ (gradle :jmh:jmh) are the reference
+ *   numbers for BST, BTreeST and the metrics hook: per-call percentiles and -prof gc allocation.
+ *
+ *   java BSTBenchmark ops [n]        every BST operation, latency percentiles (over batches of 32 calls) and
+ *                                    bytes allocated per call, for random/sorted/zipfian/adversarial keys,
+ *                                    1K keys up to n
+ *   java BSTBenchmark balance [n]    unbalanced vs red-black on sorted, reverse and random keys
+ *   java BSTBenchmark concurrent [n] ConcurrentBST vs a lock around BST, 1 to N threads, 90% reads
+ *   java BSTBenchmark range [n]      full scans and first-page reads through keys(lo, hi)
+ *   java BSTBenchmark int [n]        IntIntBST vs BST<Integer, Integer>: bytes per entry and put/get cost
+ *   java BSTBenchmark bulk [n]       put loop vs fromSorted/fromUnsorted
+ *   java BSTBenchmark batch [n]      sorted batches of puts and deletes: per-key loop vs applyBatch
+ *   java BSTBenchmark persistent [n] heap cost of keeping many PersistentBST versions alive
+ *   java BSTBenchmark btree [n]      random get/rank latency, BTreeST vs red-black BST, 1K keys up to n
+ *   java BSTBenchmark mapped [n]     MappedBST: open a snapshot vs rebuild the tree from it, then get cost
+ *                                    (100M keys needs roughly -Xmx24g)
+ *   java BSTBenchmark aggregate [n]  sum of values over [lo, hi]: aggregate() vs scanning entries(lo, hi),
+ *                                    and what keeping the sum costs put and delete
+ *   java BSTBenchmark split [n]      dropping a key range: delete per key vs deleteRange, and split + join
+ *   java BSTBenchmark metrics [n]    put/get/rank cost with instrumentation off and with a BSTStats recorder
+ *   java BSTBenchmark offheap [n]    OffHeapBST vs BST<Long, Long>: heap and direct bytes per entry, put/get
+ *                                    cost, and how long a full GC takes with each one live
+ *   java BSTBenchmark parallel [n]   parallelReduce/parallelCount on pools of 1 up to all cores vs one sequential
+ *                                    scan, and the queue-based levelOrder() against keys()
+ *   java BSTBenchmark traversal [n]  traverse/keyStream in each order: ns and bytes allocated per key; printing
+ *                                    key by key to a PrintStream vs dump() into the same stream
+ *   java BSTBenchmark cache [n]      CachedBST vs BST on Zipfian gets for a few skews and cache sizes, hit rate,
+ *                                    and what keeping the cache exact costs a 90/10 get/put mix
+ *   java BSTBenchmark cursor [n]     get and floor from the root vs from a Cursor on sequential, clustered and
+ *                                    uniform traces, and next() against keys()
+ */
+
+public class BSTBenchmark {
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) {
+        String suite = args.length > 0 ? args[0] : "balance";
+        int n = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+        if (suite.equals("ops")) {
+            ops(n);
+        } else if (suite.equals("balance")) {
+            balance(n);
+        } else if (suite.equals("concurrent")) {
+            concurrent(n);
+        } else if (suite.equals("range")) {
+            range(n);
+        } else if (suite.equals("int")) {
+            primitive(n);
+        } else if (suite.equals("bulk")) {
+            bulk(n);
+        } else if (suite.equals("batch")) {
+            batch(n);
+        } else if (suite.equals("persistent")) {
+            persistent(n);
+        } else if (suite.equals("btree")) {
+            btree(n);
+        } else if (suite.equals("mapped")) {
+            mapped(n);
+        } else if (suite.equals("aggregate")) {
+            aggregate(n);
+        } else if (suite.equals("split")) {
+            split(n);
+        } else if (suite.equals("metrics")) {
+            metrics(n);
+        } else if (suite.equals("offheap")) {
+            offHeap(n);
+        } else if (suite.equals("parallel")) {
+            parallel(n);
+        } else if (suite.equals("traversal")) {
+            traversal(n);
+        } else if (suite.equals("cache")) {
+            cache(n);
+        } else if (suite.equals("cursor")) {
+            cursor(n);
+        } else {
+            throw new IllegalArgumentException("unknown suite: " + suite);
+        }
+    }
+
+    private static void ops(int max) { // the baseline suite: run it before and after any change to BST
+        String[] dists = {"random", "sorted", "zipfian", "adversarial"};
+        System.out.printf("%-12s %9s %-10s %-10s %9s %9s %9s %9s %9s%n", "keys", "n", "mode", "op", "p50 ns", "p90 ns", "p99 ns", "p99.9 ns", "B/op");
+        for (String dist : dists) {
+            for (int n = 1000; n <= max; n *= 10) {
+                for (boolean balanced : new boolean[] {false, true}) {
+                    String mode = balanced ? "red-black" : "plain";
+                    if (!balanced && n > 10000 && (dist.equals("sorted") || dist.equals("adversarial"))) {
+                        System.out.printf("%-12s %9d %-10s skipped, a plain tree is a linked list here%n", dist, n, mode);
+                        continue;
+                    }
+                    opsRows(dist, n, balanced, false); // warm-up pass, prints nothing
+                    opsRows(dist, n, balanced, true);
+                }
+            }
+        }
+    }
+
+    private static void opsRows(String dist, int n, boolean balanced, boolean report) {
+        Integer[] inserts = boxed(insertOrder(dist, n));  // boxed up front so boxing doesn't count as the tree's allocation
+        Integer[] probes = boxed(probeOrder(dist, n, Math.min(n, 100000)));
+        String mode = balanced ? "red-black" : "plain";
+        BST<Integer, Integer> st = new BST<Integer, Integer>(balanced);
+        st.setVerification(BST.Verification.OFF);
+        measure(report, dist, n, mode, "put", inserts.length, i -> st.put(inserts[i], inserts[i]));
+        measure(report, dist, n, mode, "get", probes.length, i -> sink = st.get(probes[i]));
+        measure(report, dist, n, mode, "rank", probes.length, i -> sink = st.rank(probes[i]));
+        measure(report, dist, n, mode, "select", probes.length, i -> sink = st.select(probes[i]));
+        measure(report, dist, n, mode, "keys(+100)", Math.min(probes.length, 10000), i -> {
+            long sum = 0;
+            for (int k : st.keys(probes[i], probes[i] + 100)) {
+                sum += k;
+            }
+            sink = sum;
+        });
+        measure(report, dist, n, mode, "min", probes.length, i -> sink = st.min());
+        measure(report, dist, n, mode, "max", probes.length, i -> sink = st.max());
+        measure(report, dist, n, mode, "height", 100, i -> sink = st.height());
+        measure(report, dist, n, mode, "delete", n / 2, i -> st.delete(inserts[i]));
+    }
+
+    private static final int BATCH = 32; // calls per timed sample: a nanoTime pair costs about as much as one fast call
+
+    private static void measure(boolean report, String dist, int n, String mode, String op, int count, IntConsumer call) {
+        long[] samples = new long[(count + BATCH - 1) / BATCH]; // ns per call, averaged over each batch
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long tid = Thread.currentThread().getId();
+        long allocatedBefore = threads.getThreadAllocatedBytes(tid);
+        for (int b = 0; b < samples.length; b++) {
+            int from = b * BATCH;
+            int to = Math.min(count, from + BATCH);
+            long start = System.nanoTime();
+            for (int i = from; i < to; i++) {
+                call.accept(i);
+            }
+            samples[b] = (System.nanoTime() - start) / (to - from);
+        }
+        long bytes = threads.getThreadAllocatedBytes(tid) - allocatedBefore;
+        if (!report) {
+            return;
+        }
+        Arrays.sort(samples);
+        System.out.printf("%-12s %9d %-10s %-10s %9d %9d %9d %9d %9.1f%n", dist, n, mode, op,
+                percentile(samples, 0.50), percentile(samples, 0.90), percentile(samples, 0.99), percentile(samples, 0.999),
+                (double) bytes / count);
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        return sorted[Math.min(sorted.length - 1, (int) (p * sorted.length))];
+    }
+
+    static int[] insertOrder(String dist, int n) { // the order the n keys go in
+        if (dist.equals("sorted")) {
+            return sorted(n);
+        }
+        if (dist.equals("adversarial")) {
+            return zigzag(n);
+        }
+        return random(n, 42); // random, and zipfian too: the table is uniform, only the lookups are skewed
+    }
+
+    static int[] probeOrder(String dist, int n, int count) { // keys to look up, all of them present
+        int[] probes = new int[count];
+        if (dist.equals("sorted")) {
+            for (int i = 0; i < count; i++) {
+                probes[i] = i % n;
+            }
+        }
+        else if (dist.equals("adversarial")) {
+            int[] order = zigzag(n);
+            for (int i = 0; i < count; i++) { // the tail of the zigzag order is the deepest part of a plain tree
+                probes[i] = order[n - 1 - (i % n)];
+            }
+        }
+        else if (dist.equals("zipfian")) {
+            probes = zipfian(n, count, 0.99, 7);
+        } else {
+            Random rnd = new Random(7);
+            for (int i = 0; i < count; i++) {
+                probes[i] = rnd.nextInt(n);
+            }
+        }
+        return probes;
+    }
+
+    private static void balance(int n) { // put/get/rank/select cost for both tree modes on each key order
+        String[] names = {"sorted", "reverse", "random"};
+        int[][] orders = {sorted(n), reverse(n), random(n, 42)};
+        System.out.printf("%-8s %-10s %10s %10s %10s %10s %8s%n", "keys", "mode", "put ns", "get ns", "rank ns", "select ns", "height");
+        for (int w = 0; w < orders.length; w++) {
+            for (boolean balanced : new boolean[] {false, true}) {
+                String mode = balanced ? "red-black" : "plain";
+                try {
+                    row(names[w], mode, orders[w], balanced);
+                } catch (StackOverflowError e) {
+                    System.out.printf("%-8s %-10s %10s%n", names[w], mode, "stack overflow");
+                }
+            }
+        }
+    }
+
+    private static void row(String name, String mode, int[] keys, boolean balanced) {
+        int n = keys.length;
+        long put = best(() -> build(keys, balanced));
+        BST<Integer, Integer> st = build(keys, balanced);
+        long get = best(() -> {
+            long sum = 0;
+            for (int k : keys) {
+                sum += st.get(k);
+            }
+            return sum;
+        });
+        long rank = best(() -> {
+            long sum = 0;
+            for (int k : keys) {
+                sum += st.rank(k);
+            }
+            return sum;
+        });
+        long select = best(() -> {
+            long sum = 0;
+            for (int i = 0; i < n; i++) {
+                sum += st.select(i);
+            }
+            return sum;
+        });
+        System.out.printf("%-8s %-10s %10.1f %10.1f %10.1f %10.1f %8d%n", name, mode,
+                (double) put / n, (double) get / n, (double) rank / n, (double) select / n, st.height());
+    }
+
+    private static BST<Integer, Integer> build(int[] keys, boolean balanced) {
+        BST<Integer, Integer> st = new BST<Integer, Integer>(balanced);
+        for (int i = 0; i < keys.length; i++) {
+            st.put(keys[i], i);
+        }
+        return st;
+    }
+
+    private static void range(int n) { // full scan vs reading only the first page of a wide range
+        BST<Integer, Integer> st = new BST<Integer, Integer>(true);
+        for (int k : random(n, 42)) {
+            st.put(k, k);
+        }
+        Work full = () -> {
+            long sum = 0;
+            for (int k : st.keys()) {
+                sum += k;
+            }
+            return sum;
+        };
+        Work page = () -> { // first 20 keys from each of 1000 ranges starting across the table
+            long sum = 0;
+            for (int i = 0; i < 1000; i++) {
+                Iterator<Integer> it = st.keys(i * (n / 1000), n).iterator();
+                for (int j = 0; j < 20 && it.hasNext(); j++) {
+                    sum += it.next();
+                }
+            }
+            return sum;
+        };
+        Work stream = () -> st.keyStream(n / 4, 3 * n / 4).mapToLong(k -> k).sum();
+        System.out.printf("%-22s %12s %14s%n", "", "ns/key", "bytes/key");
+        System.out.printf("%-22s %12.2f %14.2f%n", "keys() full scan", (double) best(full) / n, (double) allocated(full) / n);
+        System.out.printf("%-22s %12.2f %14.2f%n", "first 20 of keys(lo,hi)", (double) best(page) / 20000, (double) allocated(page) / 20000);
+        System.out.printf("%-22s %12.2f %14.2f%n", "keyStream half range", (double) best(stream) / (n / 2), (double) allocated(stream) / (n / 2));
+    }
+
+    private static void primitive(int n) { // footprint and speed of the array-backed int table against boxed BST
+        int[] keys = random(n, 42);
+        for (int i = 0; i < n; i++) { // spread keys out so Integer's small-value cache doesn't hide boxing
+            keys[i] = keys[i] * 1024 + 1000;
+        }
+        long before = usedHeap();
+        BST<Integer, Integer> boxed = new BST<Integer, Integer>(true);
+        for (int k : keys) {
+            boxed.put(k, k);
+        }
+        long boxedBytes = usedHeap() - before;
+        before = usedHeap();
+        IntIntBST ints = new IntIntBST();
+        for (int k : keys) {
+            ints.put(k, k);
+        }
+        long intBytes = usedHeap() - before;
+        sink = new Object[] {boxed, ints};
+
+        long boxedPut = best(() -> {
+            BST<Integer, Integer> st = new BST<Integer, Integer>(true);
+            for (int k : keys) {
+                st.put(k, k);
+            }
+            return st;
+        });
+        long intPut = best(() -> {
+            IntIntBST st = new IntIntBST();
+            for (int k : keys) {
+                st.put(k, k);
+            }
+            return st;
+        });
+        long boxedGet = best(() -> {
+            long sum = 0;
+            for (int k : keys) {
+                sum += boxed.get(k);
+            }
+            return sum;
+        });
+        long intGet = best(() -> {
+            long sum = 0;
+            for (int k : keys) {
+                sum += ints.get(k);
+            }
+            return sum;
+        });
+        System.out.printf("%-22s %14s %10s %10s%n", "", "bytes/entry", "put ns", "get ns");
+        System.out.printf("%-22s %14.1f %10.1f %10.1f%n", "BST<Integer,Integer>", (double) boxedBytes / n, (double) boxedPut / n, (double) boxedGet / n);
+        System.out.printf("%-22s %14.1f %10.1f %10.1f%n", "IntIntBST", (double) intBytes / n, (double) intPut / n, (double) intGet / n);
+    }
+
+    private static void offHeap(int n) { // heap footprint and full-GC pause with n live entries, on-heap vs off-heap
+        long[] keys = new long[n];
+        int[] order = random(n, 42);
+        for (int i = 0; i < n; i++) { // spread out, so Long's small-value cache doesn't hide boxing
+            keys[i] = order[i] * 1024L + 1000;
+        }
+        System.out.printf("%-16s %12s %12s %10s %10s %12s%n", "", "heap B/entry", "direct B/e", "put ns", "get ns", "full GC ms");
+        heapRow(keys);
+        sink = null;
+        offHeapRow(keys);
+        sink = null;
+    }
+
+    private static void heapRow(long[] keys) { // in a method of its own so nothing of it is live during offHeapRow
+        int n = keys.length;
+        long put = best(() -> {
+            BST<Long, Long> st = new BST<Long, Long>(true);
+            st.setVerification(BST.Verification.OFF);
+            for (long k : keys) {
+                st.put(k, k);
+            }
+            return st;
+        });
+        sink = null;
+        long before = usedHeap();
+        long pause = gcPause();
+        BST<Long, Long> st = new BST<Long, Long>(true);
+        st.setVerification(BST.Verification.OFF);
+        for (long k : keys) {
+            st.put(k, k);
+        }
+        long heap = usedHeap() - before;
+        long get = best(() -> {
+            long sum = 0;
+            for (long k : keys) {
+                sum += st.get(k);
+            }
+            return sum;
+        });
+        System.out.printf("%-16s %12.1f %12.1f %10.1f %10.1f %12.1f%n", "BST<Long,Long>", (double) heap / n, 0.0,
+                (double) put / n, (double) get / n, (gcPause() - pause) / 1e6);
+        sink = st;
+    }
+
+    private static void offHeapRow(long[] keys) {
+        int n = keys.length;
+        long put = best(() -> {
+            OffHeapBST st = new OffHeapBST();
+            for (long k : keys) {
+                st.put(k, k);
+            }
+            return st;
+        });
+        sink = null;
+        long before = usedHeap();
+        long pause = gcPause();
+        OffHeapBST st = new OffHeapBST();
+        for (long k : keys) {
+            st.put(k, k);
+        }
+        long heap = usedHeap() - before;
+        long get = best(() -> {
+            long sum = 0;
+            for (long k : keys) {
+                sum += st.get(k);
+            }
+            return sum;
+        });
+        System.out.printf("%-16s %12.1f %12.1f %10.1f %10.1f %12.1f%n", "OffHeapBST", (double) heap / n, (double) st.offHeapBytes() / n,
+                (double) put / n, (double) get / n, (gcPause() - pause) / 1e6);
+        sink = st;
+    }
+
+    private static long gcPause() { // best wall time of a System.gc(), which is a full stop-the-world collection on the default collectors
+        long best = Long.MAX_VALUE;
+        for (int r = 0; r < 3; r++) {
+            long start = System.nanoTime();
+            System.gc();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+
+    private static void bulk(int n) { // cold-start cost: n puts vs one bulk build
+        Integer[] sortedKeys = new Integer[n];
+        Integer[] shuffledKeys = new Integer[n];
+        int[] order = random(n, 42);
+        for (int i = 0; i < n; i++) {
+            sortedKeys[i] = i;
+            shuffledKeys[i] = order[i];
+        }
+        System.out.printf("%-10s %-28s %10s %8s%n", "mode", "load", "ns/key", "height");
+        for (boolean balanced : new boolean[] {false, true}) {
+            String mode = balanced ? "red-black" : "plain";
+            if (balanced) { // a sorted put loop on a plain tree is quadratic, not worth waiting for
+                bulkRow(mode, "put loop, sorted keys", n, () -> {
+                    BST<Integer, Integer> st = new BST<Integer, Integer>(true);
+                    for (Integer k : sortedKeys) {
+                        st.put(k, k);
+                    }
+                    return st;
+                });
+            }
+            bulkRow(mode, "put loop, shuffled keys", n, () -> {
+                BST<Integer, Integer> st = new BST<Integer, Integer>(balanced);
+                for (Integer k : shuffledKeys) {
+                    st.put(k, k);
+                }
+                return st;
+            });
+            bulkRow(mode, "fromSorted", n, () -> BST.fromSorted(sortedKeys, sortedKeys, balanced));
+            bulkRow(mode, "fromUnsorted, shuffled keys", n, () -> BST.fromUnsorted(shuffledKeys, shuffledKeys, balanced));
+        }
+    }
+
+    private static void bulkRow(String mode, String load, int n, Work work) {
+        long time = best(work);
+        @SuppressWarnings("unchecked")
+        BST<Integer, Integer> st = (BST<Integer, Integer>) sink;
+        System.out.printf("%-10s %-28s %10.1f %8d%n", mode, load, (double) time / n, st.height());
+    }
+
+    private static void batch(int n) { // apply sorted batches (3 puts : 1 delete) of growing size to an n-key tree
+        Integer[] base = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            base[i] = 2 * i;
+        }
+        System.out.printf("%-10s %10s %14s %14s%n", "mode", "batch", "loop ns/key", "batch ns/key");
+        for (boolean balanced : new boolean[] {false, true}) {
+            for (int m = n / 1000; m <= n; m *= 10) {
+                Random rnd = new Random(m);
+                Integer[] keys = new Integer[m];
+                Integer[] vals = new Integer[m];
+                int step = 2 * n / m;
+                for (int i = 0; i < m; i++) {
+                    keys[i] = i * step + rnd.nextInt(step);
+                    vals[i] = rnd.nextInt(4) == 0 ? null : keys[i];
+                }
+                long loop = Long.MAX_VALUE;
+                long batched = Long.MAX_VALUE;
+                for (int r = 0; r <= ROUNDS; r++) { // each round starts from a fresh copy of the tree, built outside the timing
+                    BST<Integer, Integer> st = BST.fromSorted(base, base, balanced);
+                    long start = System.nanoTime();
+                    for (int i = 0; i < m; i++) {
+                        st.put(keys[i], vals[i]);
+                    }
+                    loop = Math.min(loop, System.nanoTime() - start);
+                    st = BST.fromSorted(base, base, balanced);
+                    start = System.nanoTime();
+                    st.applyBatch(keys, vals);
+                    batched = Math.min(batched, System.nanoTime() - start);
+                    sink = st;
+                }
+                System.out.printf("%-10s %10d %14.1f %14.1f%n", balanced ? "red-black" : "plain", m,
+                        (double) loop / m, (double) batched / m);
+            }
+        }
+    }
+
+    private static void persistent(int n) { // bytes retained per live version, each one a single put away from the last
+        int[] keys = random(n, 42);
+        long before = usedHeap();
+        PersistentBST<Integer, Integer> base = new PersistentBST<Integer, Integer>();
+        for (int k : keys) {
+            base = base.put(k, k);
+        }
+        long baseBytes = usedHeap() - before; // what a full copy of the table would cost
+        System.out.printf("%10s %16s %16s %14s%n", "versions", "bytes/version", "full copy bytes", "put ns");
+        for (int versions = 10; versions <= 100000; versions *= 10) {
+            Random rnd = new Random(versions);
+            Object[] live = new Object[versions];
+            before = usedHeap();
+            PersistentBST<Integer, Integer> v = base;
+            long start = System.nanoTime();
+            for (int i = 0; i < versions; i++) {
+                v = v.put(rnd.nextInt(2 * n), i);
+                live[i] = v;
+            }
+            long elapsed = System.nanoTime() - start;
+            long bytes = usedHeap() - before;
+            sink = live;
+            System.out.printf("%10d %16.1f %16d %14.1f%n", versions, (double) bytes / versions, baseBytes, (double) elapsed / versions);
+        }
+        sink = base;
+    }
+
+    private static void btree(int max) { // lookup latency as the table outgrows the caches
+        System.out.printf("%12s %14s %14s %14s %14s %8s %8s%n", "keys", "BST get ns", "BTree get ns", "BST rank ns", "BTree rank ns", "BST h", "BTree h");
+        for (int n = 1000; n <= max; n *= 10) {
+            Integer[] keys = new Integer[n];
+            for (int i = 0; i < n; i++) {
+                keys[i] = i;
+            }
+            BST<Integer, Integer> bst = BST.fromSorted(keys, keys, true);
+            BTreeST<Integer, Integer> btree = new BTreeST<Integer, Integer>();
+            for (int k : random(n, 42)) {
+                btree.put(keys[k], keys[k]);
+            }
+            Integer[] probes = new Integer[1000000]; // same random probe sequence for both, boxed up front
+            Random rnd = new Random(7);
+            for (int i = 0; i < probes.length; i++) {
+                probes[i] = keys[rnd.nextInt(n)];
+            }
+            long bstGet = best(() -> {
+                long sum = 0;
+                for (Integer k : probes) {
+                    sum += bst.get(k);
+                }
+                return sum;
+            });
+            long btreeGet = best(() -> {
+                long sum = 0;
+                for (Integer k : probes) {
+                    sum += btree.get(k);
+                }
+                return sum;
+            });
+            long bstRank = best(() -> {
+                long sum = 0;
+                for (Integer k : probes) {
+                    sum += bst.rank(k);
+                }
+                return sum;
+            });
+            long btreeRank = best(() -> {
+                long sum = 0;
+                for (Integer k : probes) {
+                    sum += btree.rank(k);
+                }
+                return sum;
+            });
+            int p = probes.length;
+            System.out.printf("%12d %14.1f %14.1f %14.1f %14.1f %8d %8d%n", n, (double) bstGet / p, (double) btreeGet / p,
+                    (double) bstRank / p, (double) btreeRank / p, bst.height(), btree.height());
+        }
+    }
+
+    private static void mapped(int n) { // startup cost of a snapshot, and what reading through the mapping costs afterwards
+        IntIntBST st = new IntIntBST(n);
+        for (int k : random(n, 42)) {
+            st.put(k, k);
+        }
+        try {
+            Path file = Files.createTempFile("bst", ".snapshot");
+            long write = best(() -> {
+                try {
+                    MappedBST.write(file, st);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return file;
+            });
+            long open = best(() -> {
+                try {
+                    return MappedBST.open(file);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            MappedBST mapped = MappedBST.open(file);
+            long rebuild = best(() -> { // what a heap table has to do at startup: read every entry back in
+                IntIntBST copy = new IntIntBST(n);
+                for (int k : mapped.keys()) {
+                    copy.put(k, mapped.get(k));
+                }
+                return copy;
+            });
+            int[] probes = random(n, 7);
+            long heapGet = best(() -> {
+                long sum = 0;
+                for (int k : probes) {
+                    sum += st.get(k);
+                }
+                return sum;
+            });
+            long mappedGet = best(() -> {
+                long sum = 0;
+                for (int k : probes) {
+                    sum += mapped.get(k);
+                }
+                return sum;
+            });
+            System.out.printf("%d keys, %d byte snapshot%n", n, Files.size(file));
+            System.out.printf("write snapshot      %10.3f ms%n", write / 1e6);
+            System.out.printf("open (map)          %10.3f ms%n", open / 1e6);
+            System.out.printf("rebuild IntIntBST   %10.3f ms%n", rebuild / 1e6);
+            System.out.printf("get, IntIntBST      %10.1f ns%n", (double) heapGet / n);
+            System.out.printf("get, MappedBST      %10.1f ns%n", (double) mappedGet / n);
+            Files.delete(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void aggregate(int n) { // range sums of growing width, and the update cost of maintaining them
+        BST.Augmentation<Integer, Integer, Long> sum = BST.Augmentation.sum(v -> v);
+        int[] keys = random(n, 42);
+        for (boolean balanced : new boolean[] {false, true}) {
+            String mode = balanced ? "red-black" : "plain";
+            BST<Integer, Integer> plain = build(keys, balanced);
+            BST<Integer, Integer> summed = new BST<Integer, Integer>(balanced, sum);
+            for (int i = 0; i < n; i++) {
+                summed.put(keys[i], i);
+            }
+            plain.setVerification(BST.Verification.OFF);
+            summed.setVerification(BST.Verification.OFF);
+            long putPlain = best(() -> churn(plain, keys));
+            long putSummed = best(() -> churn(summed, keys));
+            int churned = 2 * ((n + 9) / 10);
+            System.out.printf("%-10s ns per put or delete: %.1f without, %.1f with the sum%n", mode,
+                    (double) putPlain / churned, (double) putSummed / churned);
+            System.out.printf("%-10s %10s %14s %14s %10s%n", "", "width", "scan ns", "aggregate ns", "speedup");
+            for (int width = 10; width <= n; width *= 10) {
+                int w = width;
+                int queries = (int) Math.max(10, Math.min(10000, 10L * n / w));
+                int[] starts = new int[queries];
+                Random rnd = new Random(7);
+                for (int q = 0; q < queries; q++) {
+                    starts[q] = rnd.nextInt(n - w + 1);
+                }
+                long scan = best(() -> {
+                    long total = 0;
+                    for (int lo : starts) {
+                        for (Map.Entry<Integer, Integer> e : summed.entries(lo, lo + w - 1)) {
+                            total += e.getValue();
+                        }
+                    }
+                    return total;
+                });
+                long agg = best(() -> {
+                    long total = 0;
+                    for (int lo : starts) {
+                        total += summed.aggregate(sum, lo, lo + w - 1);
+                    }
+                    return total;
+                });
+                System.out.printf("%-10s %10d %14.1f %14.1f %9.0fx%n", mode, w, (double) scan / queries, (double) agg / queries, (double) scan / agg);
+            }
+        }
+    }
+
+    private static void split(int n) { // cost of cutting a range of growing width out of an n-key tree
+        int[] keys = random(n, 42);
+        System.out.printf("%-10s %10s %16s %16s %16s%n", "", "width", "delete loop us", "deleteRange us", "split+join us");
+        for (boolean balanced : new boolean[] {false, true}) {
+            String mode = balanced ? "red-black" : "plain";
+            BST<Integer, Integer> st = build(keys, balanced);
+            st.setVerification(BST.Verification.OFF);
+            int lo = n / 3;
+            for (int width = 10; width <= n / 10; width *= 10) {
+                int w = width;
+                long loop = bestOf(() -> { // the old way: collect the keys, then delete them one by one
+                    ArrayList<Integer> doomed = new ArrayList<Integer>();
+                    for (int k : st.keys(lo, lo + w - 1)) {
+                        doomed.add(k);
+                    }
+                    for (int k : doomed) {
+                        st.delete(k);
+                    }
+                }, () -> restore(st, lo, w));
+                long range = bestOf(() -> sink = st.deleteRange(lo, lo + w - 1), () -> restore(st, lo, w));
+                AtomicReference<BST<Integer, Integer>> tree = new AtomicReference<BST<Integer, Integer>>(st.subMap(0, n));
+                long cut = bestOf(() -> { // join hands back a new tree holding both halves
+                    BST<Integer, Integer> right = tree.get().split(lo + w);
+                    tree.set(BST.join(tree.get(), right));
+                }, () -> tree.get().setVerification(BST.Verification.OFF));
+                System.out.printf("%-10s %10d %16.1f %16.1f %16.1f%n", mode, w, loop / 1e3, range / 1e3, cut / 1e3);
+            }
+        }
+    }
+
+    private static void metrics(int n) { // what recording into a BSTStats costs over the same tree with no recorder set
+        int[] keys = random(n, 42);
+        int[] probes = random(n, 7);
+        System.out.printf("%-10s %-10s %10s %10s %10s%n", "", "metrics", "put ns", "get ns", "rank ns");
+        for (boolean balanced : new boolean[] {false, true}) {
+            String mode = balanced ? "red-black" : "plain";
+            for (boolean on : new boolean[] {false, true, false}) { // off twice: before and after the JIT has seen the instrumented paths
+                BSTStats stats = on ? new BSTStats() : null;
+                long put = best(() -> {
+                    BST<Integer, Integer> st = new BST<Integer, Integer>(balanced);
+                    st.setVerification(BST.Verification.OFF);
+                    st.setMetrics(stats);
+                    for (int i = 0; i < n; i++) {
+                        st.put(keys[i], i);
+                    }
+                    return st;
+                });
+                BST<Integer, Integer> st = build(keys, balanced);
+                st.setMetrics(stats);
+                long get = best(() -> {
+                    long sum = 0;
+                    for (int k : probes) {
+                        sum += st.get(k);
+                    }
+                    return sum;
+                });
+                long rank = best(() -> {
+                    long sum = 0;
+                    for (int k : probes) {
+                        sum += st.rank(k);
+                    }
+                    return sum;
+                });
+                System.out.printf("%-10s %-10s %10.1f %10.1f %10.1f%n", mode, on ? "BSTStats" : "off",
+                        (double) put / n, (double) get / n, (double) rank / n);
+            }
+        }
+    }
+
+    private static void parallel(int n) { // how a whole-tree sum and count scale with the pool, against one thread walking entries()
+        int[] keys = random(n, 42);
+        BST<Integer, Integer> st = build(keys, true);
+        st.setVerification(BST.Verification.OFF);
+        long seq = best(() -> {
+            long sum = 0;
+            for (Map.Entry<Integer, Integer> e : st.entries()) {
+                sum += e.getValue();
+            }
+            return sum;
+        });
+        System.out.printf("%-12s %12s %12s %10s%n", "threads", "sum ms", "count ms", "speedup");
+        System.out.printf("%-12s %12.2f %12s %10s%n", "sequential", seq / 1e6, "", "1.0x");
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; ; threads = Math.min(2 * threads, cores)) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            long sum = best(() -> st.parallelReduce(pool, 0L, (k, v) -> (long) v, Long::sum));
+            long count = best(() -> st.parallelCount(pool, (k, v) -> (v & 1) == 0));
+            pool.shutdown();
+            System.out.printf("%-12d %12.2f %12.2f %9.1fx%n", threads, sum / 1e6, count / 1e6, (double) seq / sum);
+            if (threads == cores) {
+                break;
+            }
+        }
+        long inOrder = best(() -> {
+            long sum = 0;
+            for (int k : st.keys()) {
+                sum += k;
+            }
+            return sum;
+        });
+        long levels = best(() -> {
+            long sum = 0;
+            for (int k : st.levelOrder()) {
+                sum += k;
+            }
+            return sum;
+        });
+        System.out.printf("ns per key: keys() %.1f, levelOrder() %.1f%n", (double) inOrder / n, (double) levels / n);
+    }
+
+    private static void traversal(int n) { // the visitor walks should cost about what keys() does and allocate nothing per key
+        BST<Integer, Integer> st = build(random(n, 42), true);
+        st.setVerification(BST.Verification.OFF);
+        System.out.printf("%-12s %14s %14s %14s %14s%n", "", "traverse ns", "bytes/key", "keyStream ns", "bytes/key");
+        for (BST.Traversal order : BST.Traversal.values()) {
+            Work visit = () -> {
+                long[] sum = new long[1];
+                st.traverse(order, (k, v) -> sum[0] += v);
+                return sum[0];
+            };
+            Work stream = () -> st.keyStream(order).mapToLong(k -> k).sum();
+            System.out.printf("%-12s %14.2f %14.2f %14.2f %14.2f%n", order, (double) best(visit) / n, (double) allocated(visit) / n,
+                    (double) best(stream) / n, (double) allocated(stream) / n);
+        }
+        PrintStream out = new PrintStream(new BufferedOutputStream(OutputStream.nullOutputStream(), 1 << 16), false);
+        long perKey = best(() -> { // what the old inOrder(Node) did: one print call, and one lock, per key
+            for (int k : st.keys()) {
+                out.print(k + " ");
+            }
+            out.flush();
+            return out;
+        });
+        long dumped = best(() -> {
+            try {
+                st.dump(BST.Traversal.IN_ORDER, out);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return out;
+        });
+        System.out.printf("print per key %.1f ms, dump %.1f ms (%.1fx)%n", perKey / 1e6, dumped / 1e6, (double) perKey / dumped);
+    }
+
+    private static void cache(int n) { // hot-key lookups through the cache, and the price of writes keeping it exact
+        int[] keys = random(n, 42);
+        BST<Integer, Integer> st = build(keys, true);
+        st.setVerification(BST.Verification.OFF);
+        int count = 1000000;
+        System.out.printf("%-6s %9s %10s %12s %12s %10s%n", "skew", "capacity", "hit rate", "BST get ns", "cached ns", "speedup");
+        for (double skew : new double[] {0.8, 0.99, 1.2}) {
+            int[] draws = zipfian(n, count, skew, 7);
+            long plain = best(() -> {
+                long sum = 0;
+                for (int k : draws) {
+                    sum += st.get(k);
+                }
+                return sum;
+            });
+            for (int capacity = Math.max(16, n / 1000); capacity <= n / 10; capacity *= 10) {
+                CachedBST<Integer, Integer> cached = new CachedBST<Integer, Integer>(st, capacity);
+                long time = best(() -> {
+                    long sum = 0;
+                    for (int k : draws) {
+                        sum += cached.get(k);
+                    }
+                    return sum;
+                });
+                System.out.printf("%-6.2f %9d %10.3f %12.1f %12.1f %9.1fx%n", skew, capacity, cached.hitRate(),
+                        (double) plain / count, (double) time / count, (double) plain / time);
+            }
+        }
+        int[] draws = zipfian(n, count, 0.99, 11);
+        int capacity = Math.max(16, n / 100);
+        CachedBST<Integer, Integer> mixed = new CachedBST<Integer, Integer>(st, capacity);
+        long plain = best(() -> mix(draws, st::get, st::put));
+        long time = best(() -> mix(draws, mixed::get, mixed::put));
+        System.out.printf("90%% get / 10%% put, skew 0.99, capacity %d: BST %.1f ns/op, CachedBST %.1f ns/op, hit rate %.3f%n",
+                capacity, (double) plain / count, (double) time / count, mixed.hitRate());
+        CachedBST<Integer, Integer> writes = new CachedBST<Integer, Integer>(st, capacity);
+        for (int k : draws) {
+            writes.get(k); // fill the cache with the hot keys, so puts find them there
+        }
+        long put = best(() -> mix(draws, k -> 0, st::put));
+        long cachedPut = best(() -> mix(draws, k -> 0, writes::put));
+        System.out.printf("puts alone: BST %.1f ns, CachedBST %.1f ns each%n", (double) put / (count / 10), (double) cachedPut / (count / 10));
+    }
+
+    private static Object mix(int[] draws, IntUnaryOperator get, BiConsumer<Integer, Integer> put) { // every tenth draw puts, the rest get
+        long sum = 0;
+        for (int i = 0; i < draws.length; i++) {
+            if (i % 10 == 0) {
+                put.accept(draws[i], i);
+            } else {
+                sum += get.applyAsInt(draws[i]);
+            }
+        }
+        return sum;
+    }
+
+    private static void cursor(int n) { // lookups that stay close to the previous one, from the root and from a finger
+        BST<Integer, Integer> st = build(random(n, 42), true);
+        st.setVerification(BST.Verification.OFF);
+        int[] sequential = sorted(n);
+        int[] clustered = new int[n]; // bursts of 64 lookups within 256 keys of a random spot
+        Random rnd = new Random(7);
+        for (int i = 0; i < n; i += 64) {
+            int center = rnd.nextInt(n);
+            for (int j = i; j < Math.min(n, i + 64); j++) {
+                clustered[j] = Math.max(0, Math.min(n - 1, center + rnd.nextInt(512) - 256));
+            }
+        }
+        int[] uniform = random(n, 11);
+        System.out.printf("%-12s %12s %12s %14s %14s%n", "trace", "get ns", "cursor ns", "floor ns", "cursor ns");
+        String[] names = {"sequential", "clustered", "uniform"};
+        int[][] traces = {sequential, clustered, uniform};
+        for (int t = 0; t < traces.length; t++) {
+            int[] trace = traces[t];
+            BST<Integer, Integer>.Cursor cursor = st.cursor();
+            long get = best(() -> {
+                long sum = 0;
+                for (int k : trace) {
+                    sum += st.get(k);
+                }
+                return sum;
+            });
+            long fingerGet = best(() -> {
+                long sum = 0;
+                for (int k : trace) {
+                    sum += cursor.get(k);
+                }
+                return sum;
+            });
+            long floor = best(() -> {
+                long sum = 0;
+                for (int k : trace) {
+                    sum += st.floor(k);
+                }
+                return sum;
+            });
+            long fingerFloor = best(() -> {
+                long sum = 0;
+                for (int k : trace) {
+                    sum += cursor.floor(k);
+                }
+                return sum;
+            });
+            System.out.printf("%-12s %12.1f %12.1f %14.1f %14.1f%n", names[t],
+                    (double) get / n, (double) fingerGet / n, (double) floor / n, (double) fingerFloor / n);
+        }
+        long scan = best(() -> {
+            long sum = 0;
+            for (int k : st.keys()) {
+                sum += k;
+            }
+            return sum;
+        });
+        long steps = best(() -> {
+            long sum = 0;
+            BST<Integer, Integer>.Cursor cursor = st.cursor();
+            for (boolean on = cursor.seek(st.min()); on; on = cursor.next()) {
+                sum += cursor.key();
+            }
+            return sum;
+        });
+        System.out.printf("ns per key: keys() %.1f, cursor next() %.1f%n", (double) scan / n, (double) steps / n);
+    }
+
+    private static long bestOf(Runnable op, Runnable reset) { // like best(), but reset runs untimed after every call
+        long best = Long.MAX_VALUE;
+        for (int r = 0; r <= ROUNDS; r++) {
+            long start = System.nanoTime();
+            op.run();
+            long time = System.nanoTime() - start;
+            if (r > 0) {
+                best = Math.min(best, time);
+            }
+            reset.run();
+        }
+        return best;
+    }
+
+    private static void restore(BST<Integer, Integer> st, int lo, int w) { // one sorted batch, so a plain tree doesn't get a w-long chain back
+        Integer[] range = new Integer[w];
+        for (int i = 0; i < w; i++) {
+            range[i] = lo + i;
+        }
+        st.putAll(range, range);
+    }
+
+    private static Object churn(BST<Integer, Integer> st, int[] keys) { // delete a tenth of the keys and put them back
+        for (int i = 0; i < keys.length; i += 10) {
+            st.delete(keys[i]);
+        }
+        for (int i = 0; i < keys.length; i += 10) {
+            st.put(keys[i], i);
+        }
+        return st;
+    }
+
+    interface Table {
+        Integer get(Integer key);
+        void put(Integer key, Integer val);
+    }
+
+    private static void concurrent(int n) { // throughput of a 90% get / 10% put mix as threads are added
+        int cores = Runtime.getRuntime().availableProcessors();
+        BST<Integer, Integer> locked = new BST<Integer, Integer>(true);
+        ConcurrentBST<Integer, Integer> lockFree = new ConcurrentBST<Integer, Integer>();
+        for (int k : random(n, 42)) {
+            locked.put(k, k);
+            lockFree.put(k, k);
+        }
+        Table global = new Table() {
+            public synchronized Integer get(Integer key) {
+                return locked.get(key);
+            }
+            public synchronized void put(Integer key, Integer val) {
+                locked.put(key, val);
+            }
+        };
+        Table cow = new Table() {
+            public Integer get(Integer key) {
+                return lockFree.get(key);
+            }
+            public void put(Integer key, Integer val) {
+                lockFree.put(key, val);
+            }
+        };
+        System.out.printf("%8s %16s %16s%n", "threads", "locked ops/ms", "concurrent ops/ms");
+        for (int threads = 1; threads <= cores; threads *= 2) {
+            System.out.printf("%8d %16.0f %16.0f%n", threads, throughput(global, n, threads), throughput(cow, n, threads));
+        }
+    }
+
+    private static double throughput(Table table, int n, int threads) { // ops per millisecond over a one second run
+        AtomicBoolean stop = new AtomicBoolean();
+        LongAdder ops = new LongAdder();
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread(() -> {
+                ThreadLocalRandom rnd = ThreadLocalRandom.current();
+                long done = 0;
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                while (!stop.get()) {
+                    int key = rnd.nextInt(n);
+                    if (rnd.nextInt(10) == 0) {
+                        table.put(key, key);
+                    } else {
+                        sink = table.get(key);
+                    }
+                    done++;
+                }
+                ops.add(done);
+            });
+            workers[t].start();
+        }
+        start.countDown();
+        try {
+            Thread.sleep(1000);
+            stop.set(true);
+            for (Thread worker : workers) {
+                worker.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return ops.sum() / 1000.0;
+    }
+
+    /* Helpers shared by the suites */
+
+    interface Work {
+        Object run();
+    }
+
+    static Object sink; // keeps results reachable so the JIT can't drop the work
+
+    static long best(Work work) { // best wall time in nanoseconds over ROUNDS runs, after one warm-up run
+        sink = work.run();
+        long best = Long.MAX_VALUE;
+        for (int r = 0; r < ROUNDS; r++) {
+            long start = System.nanoTime();
+            sink = work.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+
+    static long allocated(Work work) { // bytes allocated by this thread during one run (HotSpot only)
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long tid = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(tid);
+        sink = work.run();
+        return threads.getThreadAllocatedBytes(tid) - before;
+    }
+
+    static long usedHeap() { // live heap after a few full collections, good enough for footprint deltas
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    static Integer[] boxed(int[] a) {
+        Integer[] b = new Integer[a.length];
+        for (int i = 0; i < a.length; i++) {
+            b[i] = a[i];
+        }
+        return b;
+    }
+
+    static int[] zigzag(int n) { // 0, n-1, 1, n-2, ...: inserted in this order a plain BST degenerates into a zigzag path
+        int[] a = new int[n];
+        int lo = 0;
+        int hi = n - 1;
+        for (int i = 0; i < n; i++) {
+            a[i] = i % 2 == 0 ? lo++ : hi--;
+        }
+        return a;
+    }
+
+    static int[] zipfian(int n, int count, double skew, long seed) { // count draws from 0..n-1, the popular ranks scattered over the key space
+        double[] cdf = new double[n];
+        double total = 0;
+        for (int i = 0; i < n; i++) {
+            total += 1.0 / Math.pow(i + 1, skew);
+            cdf[i] = total;
+        }
+        int[] keyOfRank = random(n, seed);
+        Random rnd = new Random(seed);
+        int[] draws = new int[count];
+        for (int i = 0; i < count; i++) {
+            int rank = Arrays.binarySearch(cdf, rnd.nextDouble() * total);
+            draws[i] = keyOfRank[rank < 0 ? Math.min(n - 1, -rank - 1) : rank];
+        }
+        return draws;
+    }
+
+    static int[] sorted(int n) {
+        int[] a = new int[n];
+        for (int i = 0; i < n; i++) {
+            a[i] = i;
+        }
+        return a;
+    }
+
+    static int[] reverse(int n) {
+        int[] a = new int[n];
+        for (int i = 0; i < n; i++) {
+            a[i] = n - 1 - i;
+        }
+        return a;
+    }
+
+    static int[] random(int n, long seed) { // a random permutation of 0..n-1
+        int[] a = sorted(n);
+        Random rnd = new Random(seed);
+        for (int i = n - 1; i > 0; i--) {
+            int j = rnd.nextInt(i + 1);
+            int t = a[i];
+            a[i] = a[j];
+            a[j] = t;
+        }
+        return a;
+    }
+}
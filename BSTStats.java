@@ -0,0 +1,200 @@
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/* Metrics recorder for BST: per-operation counts, latency histograms, comparisons, and a histogram
+ *   of search-path depths, plus the size and height estimate the tree last reported. Counters are
+ *   LongAdders and histograms are arrays of them with one bucket per power of two, so recording is a
+ *   handful of uncontended adds and one recorder can be shared by trees on different threads.
+ *   register() puts it on the platform MBean server as BST:type=Stats,name=<name>.
+ *
+ *   BST<Integer, Integer> st = new BST<Integer, Integer>(true);
+ *   BSTStats stats = new BSTStats();
+ *   st.setMetrics(stats);
+ *   stats.register("orders");
+ */
+
+public class BSTStats implements BST.Metrics, BSTStatsMXBean {
+    private static final BST.Op[] OPS = BST.Op.values();
+    private static final int BUCKETS = 64;
+
+    private final LongAdder[] counts = adders(OPS.length);
+    private final LongAdder[] nanos = adders(OPS.length);
+    private final LongAdder[] comparisons = adders(OPS.length);
+    private final LongAdder[][] latency = new LongAdder[OPS.length][];  // per op, log2 buckets of nanoseconds
+    private final LongAdder[] depths = adders(BUCKETS);                 // log2 buckets of search-path depth
+    private final LongAdder depthTotal = new LongAdder();
+    private volatile int size;
+    private volatile int heightEstimate = -1;
+    private ObjectName name;        // set while registered
+
+    public BSTStats() {
+        for (int i = 0; i < OPS.length; i++) {
+            latency[i] = adders(BUCKETS);
+        }
+    }
+
+    private static LongAdder[] adders(int n) {
+        LongAdder[] a = new LongAdder[n];
+        for (int i = 0; i < n; i++) {
+            a[i] = new LongAdder();
+        }
+        return a;
+    }
+
+    private static int bucket(long value) { // 0 for 0, otherwise 1 + floor(lg value)
+        return value <= 0 ? 0 : BUCKETS - Long.numberOfLeadingZeros(value);
+    }
+
+    public void record(BST.Op op, int depth, int comparisons, long nanos) {
+        int i = op.ordinal();
+        counts[i].increment();
+        this.nanos[i].add(nanos);
+        this.comparisons[i].add(comparisons);
+        latency[i][Math.min(bucket(nanos), BUCKETS - 1)].increment();
+        depths[Math.min(bucket(depth), BUCKETS - 1)].increment();
+        depthTotal.add(depth);
+    }
+
+    public void shape(int size, int heightEstimate) {
+        this.size = size;
+        this.heightEstimate = heightEstimate;
+    }
+
+    public long count(BST.Op op) {
+        return counts[op.ordinal()].sum();
+    }
+
+    public long percentile(BST.Op op, double p) { // latency upper bound in nanoseconds, p in [0, 1]
+        LongAdder[] buckets = latency[op.ordinal()];
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            snapshot[b] = buckets[b].sum();
+            total += snapshot[b];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long target = (long) Math.ceil(p * total);
+        long seen = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            seen += snapshot[b];
+            if (seen >= Math.max(1, target)) {
+                return b == 0 ? 0 : b >= 63 ? Long.MAX_VALUE : (1L << b) - 1;
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    public Map<String, Long> getOperationCounts() {
+        Map<String, Long> m = new LinkedHashMap<String, Long>();
+        for (BST.Op op : OPS) {
+            m.put(op.name(), count(op));
+        }
+        return m;
+    }
+
+    public Map<String, Double> getMeanLatencyNanos() {
+        Map<String, Double> m = new LinkedHashMap<String, Double>();
+        for (BST.Op op : OPS) {
+            m.put(op.name(), mean(nanos[op.ordinal()], count(op)));
+        }
+        return m;
+    }
+
+    public Map<String, Long> getP50LatencyNanos() {
+        return percentiles(0.5);
+    }
+
+    public Map<String, Long> getP99LatencyNanos() {
+        return percentiles(0.99);
+    }
+
+    private Map<String, Long> percentiles(double p) {
+        Map<String, Long> m = new LinkedHashMap<String, Long>();
+        for (BST.Op op : OPS) {
+            m.put(op.name(), percentile(op, p));
+        }
+        return m;
+    }
+
+    public Map<String, Double> getMeanComparisons() {
+        Map<String, Double> m = new LinkedHashMap<String, Double>();
+        for (BST.Op op : OPS) {
+            m.put(op.name(), mean(comparisons[op.ordinal()], count(op)));
+        }
+        return m;
+    }
+
+    public double getMeanDepth() {
+        long total = 0;
+        for (LongAdder c : counts) {
+            total += c.sum();
+        }
+        return mean(depthTotal, total);
+    }
+
+    public long[] getDepthHistogram() {
+        long[] h = new long[BUCKETS];
+        for (int b = 0; b < BUCKETS; b++) {
+            h[b] = depths[b].sum();
+        }
+        return h;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public int getHeightEstimate() {
+        return heightEstimate;
+    }
+
+    public double getBalance() {
+        int n = size;
+        if (n == 0) {
+            return 1;
+        }
+        double lg = Math.log(n + 1) / Math.log(2);
+        return (heightEstimate + 1) / lg;
+    }
+
+    public void reset() { // counters and histograms only, the size and height estimate stay until the next write
+        for (int i = 0; i < OPS.length; i++) {
+            counts[i].reset();
+            nanos[i].reset();
+            comparisons[i].reset();
+            for (LongAdder b : latency[i]) {
+                b.reset();
+            }
+        }
+        for (LongAdder b : depths) {
+            b.reset();
+        }
+        depthTotal.reset();
+    }
+
+    private static double mean(LongAdder sum, long count) {
+        return count == 0 ? 0 : (double) sum.sum() / count;
+    }
+
+    public synchronized void register(String name) throws JMException { // on the platform MBean server, as BST:type=Stats,name=<name>
+        if (this.name != null) {
+            throw new IllegalStateException("already registered as " + this.name);
+        }
+        ObjectName objectName = ObjectName.getInstance("BST:type=Stats,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        this.name = objectName;
+    }
+
+    public synchronized void unregister() throws JMException {
+        if (name != null) {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+            name = null;
+        }
+    }
+}
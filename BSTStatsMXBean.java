@@ -0,0 +1,20 @@
+import java.util.Map;
+
+/* What BSTStats shows over JMX (jconsole, VisualVM, or any JMX-to-metrics bridge). Maps are keyed by
+ *   BST.Op name; latencies are in nanoseconds and the percentiles are the upper edge of a power-of-two
+ *   bucket, so they are accurate to within a factor of two.
+ */
+
+public interface BSTStatsMXBean {
+    Map<String, Long> getOperationCounts();
+    Map<String, Double> getMeanLatencyNanos();
+    Map<String, Long> getP50LatencyNanos();
+    Map<String, Long> getP99LatencyNanos();
+    Map<String, Double> getMeanComparisons();
+    double getMeanDepth();          // nodes on the search path, over every recorded operation
+    long[] getDepthHistogram();     // bucket i counts depths in [2^(i-1), 2^i), bucket 0 depth 0
+    int getSize();
+    int getHeightEstimate();        // the tree's estimate, see BST's instrumentation comment: exact only after height() or a bulk change
+    double getBalance();            // levels (height estimate + 1) over lg(size + 1): 1 is perfectly balanced, red-black stays near 2 at worst
+    void reset();
+}
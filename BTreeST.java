@@ -0,0 +1,461 @@
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/* Ordered symbol table with the same API as BST (get/put/delete, rank/select, min/max, lazy
+ *   keys(lo, hi)) stored as a B+-tree instead of a binary tree. Each node holds up to M keys in
+ *   one array, so a lookup in a million-key table visits 4 or 5 nodes instead of ~20 and each
+ *   visit is a binary search within one contiguous array. Entries live in the leaves, which are
+ *   chained left to right so range scans walk arrays rather than climbing the tree. Every node
+ *   keeps the number of entries below it, which is what rank and select descend by, like BST.size.
+ *
+ *   Internal node layout: children[0..n) with keys[i] (i >= 1) a separator that is greater than
+ *   every key in children[i-1] and no greater than any key in children[i]. keys[0] is unused.
+ */
+
+public class BTreeST<Key extends Comparable<Key>, Value> {
+    private static final int M = 64;        // max keys per leaf and children per internal node, must be even
+    private static final int MIN = M / 2;   // min for every node except the root
+
+    private Node root = new Node(true);     // root of the B+-tree
+    private int height;                     // number of internal levels above the leaves
+    private int modCount;                   // bumped by every put and delete, lets iterators fail fast
+    private boolean changed;                // did the last insert/remove add or drop an entry?
+
+    private final class Node {
+        private int n;                      // keys (leaf) or children (internal) in use
+        private int size;                   // number of entries in this subtree
+        private final Object[] keys = new Object[M];
+        private final Object[] vals;        // leaf only: associated data
+        private final Node[] children;      // internal only: subtrees
+        private Node next;                  // leaf only: the leaf to the right
+
+        @SuppressWarnings("unchecked")
+        Node(boolean leaf) {
+            vals = leaf ? new Object[M] : null;
+            children = leaf ? null : (Node[]) new BTreeST<?, ?>.Node[M];
+        }
+
+        boolean isLeaf() {
+            return children == null;
+        }
+
+        @SuppressWarnings("unchecked")
+        Key key(int i) {
+            return (Key) keys[i];
+        }
+
+        @SuppressWarnings("unchecked")
+        Value val(int i) {
+            return (Value) vals[i];
+        }
+    }
+
+    public int size() {
+        return root.size;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public int height() { // number of levels below the root
+        return height;
+    }
+
+    public boolean contains(Key key) {
+        if (key == null) {
+            throw new IllegalArgumentException("argument to contains() is null");
+        }
+        return get(key) != null;
+    }
+
+    public Value get(Key key) {
+        if (key == null) {
+            throw new IllegalArgumentException("calls get() with a null key");
+        }
+        Node x = root;
+        while (!x.isLeaf()) {
+            x = x.children[childIndex(x, key)];
+        }
+        int i = leafIndex(x, key);
+        if (i < x.n && key.compareTo(x.key(i)) == 0) {
+            return x.val(i);
+        }
+        return null;
+    }
+
+    public int rank(Key key) { // Number of keys in the table less than key.
+        if (key == null) {
+            throw new IllegalArgumentException("argument to rank() is null");
+        }
+        int r = 0;
+        Node x = root;
+        while (!x.isLeaf()) {
+            int i = childIndex(x, key);
+            for (int j = 0; j < i; j++) {
+                r += x.children[j].size;
+            }
+            x = x.children[i];
+        }
+        return r + leafIndex(x, key);
+    }
+
+    public Key select(int k) { // Return key of rank k.
+        if (k < 0 || k >= size()) {
+            throw new IllegalArgumentException("argument to select() is invalid: " + k);
+        }
+        Node x = root;
+        while (!x.isLeaf()) {
+            int j = 0;
+            while (k >= x.children[j].size) {
+                k -= x.children[j].size;
+                j++;
+            }
+            x = x.children[j];
+        }
+        return x.key(k);
+    }
+
+    public Key min() {
+        if (isEmpty()) {
+            throw new NoSuchElementException("calls min() with empty symbol table");
+        }
+        Node x = root;
+        while (!x.isLeaf()) {
+            x = x.children[0];
+        }
+        return x.key(0);
+    }
+
+    public Key max() {
+        if (isEmpty()) {
+            throw new NoSuchElementException("calls max() with empty symbol table");
+        }
+        Node x = root;
+        while (!x.isLeaf()) {
+            x = x.children[x.n - 1];
+        }
+        return x.key(x.n - 1);
+    }
+
+    public int size(Key lo, Key hi) { // Number of keys in [lo, hi].
+        checkRange(lo, hi, "size()");
+        if (lo.compareTo(hi) > 0) {
+            return 0;
+        }
+        if (contains(hi)) {
+            return rank(hi) - rank(lo) + 1;
+        }
+        return rank(hi) - rank(lo);
+    }
+
+    public Iterable<Key> keys() { // all keys in order, produced lazily
+        return () -> new KeyIterator(null, null);
+    }
+
+    public Iterable<Key> keys(Key lo, Key hi) { // keys in [lo, hi] in order, produced lazily along the leaf chain
+        checkRange(lo, hi, "keys()");
+        return () -> new KeyIterator(lo, hi);
+    }
+
+    private void checkRange(Key lo, Key hi, String method) {
+        if (lo == null) {
+            throw new IllegalArgumentException("first argument to " + method + " is null");
+        }
+        if (hi == null) {
+            throw new IllegalArgumentException("second argument to " + method + " is null");
+        }
+    }
+
+    public void put(Key key, Value val) {
+        if (key == null) {
+            throw new IllegalArgumentException("calls put() with a null key");
+        }
+        if (val == null) {
+            delete(key);
+            return;
+        }
+        modCount++;
+        Node split = insert(root, key, val);
+        if (split != null) { // the root was full: grow the tree by one level
+            Node fresh = new Node(false);
+            fresh.children[0] = root;
+            fresh.children[1] = split;
+            fresh.keys[1] = split.keys[0];
+            fresh.n = 2;
+            fresh.size = root.size + split.size;
+            root = fresh;
+            height++;
+        }
+    }
+
+    public void delete(Key key) {
+        if (key == null) {
+            throw new IllegalArgumentException("calls delete() with a null key");
+        }
+        modCount++;
+        remove(root, key);
+        if (!root.isLeaf() && root.n == 1) { // the root lost its last sibling pair: shrink by one level
+            root = root.children[0];
+            height--;
+        }
+    }
+
+    public void deleteMin() {
+        if (isEmpty()) {
+            throw new NoSuchElementException("Symbol table underflow");
+        }
+        delete(min());
+    }
+
+    /* Search helpers */
+
+    private int childIndex(Node x, Key key) { // the child of internal node x whose range holds key
+        int lo = 1;
+        int hi = x.n;
+        while (lo < hi) { // find the first separator greater than key
+            int mid = (lo + hi) >>> 1;
+            if (key.compareTo(x.key(mid)) < 0) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        return lo - 1;
+    }
+
+    private int leafIndex(Node x, Key key) { // first position in leaf x whose key is >= key
+        int lo = 0;
+        int hi = x.n;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (x.key(mid).compareTo(key) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /* Insertion: returns the new right sibling when h had to split (its keys[0] is the separator
+     *   the parent should use), null otherwise. Depth is the tree height, a handful of levels.
+     */
+
+    private Node insert(Node h, Key key, Value val) {
+        if (h.isLeaf()) {
+            int i = leafIndex(h, key);
+            if (i < h.n && key.compareTo(h.key(i)) == 0) {
+                h.vals[i] = val;
+                changed = false;
+                return null;
+            }
+            System.arraycopy(h.keys, i, h.keys, i + 1, h.n - i);
+            System.arraycopy(h.vals, i, h.vals, i + 1, h.n - i);
+            h.keys[i] = key;
+            h.vals[i] = val;
+            h.n++;
+            h.size++;
+            changed = true;
+            return h.n < M ? null : split(h);
+        }
+        int i = childIndex(h, key);
+        Node split = insert(h.children[i], key, val);
+        if (changed) {
+            h.size++;
+        }
+        if (split == null) {
+            return null;
+        }
+        System.arraycopy(h.children, i + 1, h.children, i + 2, h.n - i - 1);
+        System.arraycopy(h.keys, i + 1, h.keys, i + 2, h.n - i - 1);
+        h.children[i + 1] = split;
+        h.keys[i + 1] = split.keys[0];
+        h.n++;
+        return h.n < M ? null : split(h);
+    }
+
+    private Node split(Node h) { // move the upper half of a full node into a new right sibling
+        Node right = new Node(h.isLeaf());
+        right.n = M - MIN;
+        System.arraycopy(h.keys, MIN, right.keys, 0, right.n);
+        Arrays.fill(h.keys, MIN, M, null);
+        if (h.isLeaf()) {
+            System.arraycopy(h.vals, MIN, right.vals, 0, right.n);
+            Arrays.fill(h.vals, MIN, M, null);
+            right.size = right.n;
+            right.next = h.next;
+            h.next = right;
+        } else {
+            System.arraycopy(h.children, MIN, right.children, 0, right.n);
+            Arrays.fill(h.children, MIN, M, null);
+            for (int j = 0; j < right.n; j++) {
+                right.size += right.children[j].size;
+            }
+        }
+        h.n = MIN;
+        h.size -= right.size;
+        return right;
+    }
+
+    /* Deletion: after removing from a child, an underfull child borrows one slot from a sibling
+     *   that can spare it, or else merges with that sibling.
+     */
+
+    private void remove(Node h, Key key) {
+        if (h.isLeaf()) {
+            int i = leafIndex(h, key);
+            if (i == h.n || key.compareTo(h.key(i)) != 0) {
+                changed = false;
+                return;
+            }
+            System.arraycopy(h.keys, i + 1, h.keys, i, h.n - i - 1);
+            System.arraycopy(h.vals, i + 1, h.vals, i, h.n - i - 1);
+            h.n--;
+            h.keys[h.n] = null;
+            h.vals[h.n] = null;
+            h.size--;
+            changed = true;
+            return;
+        }
+        int i = childIndex(h, key);
+        remove(h.children[i], key);
+        if (!changed) {
+            return;
+        }
+        h.size--;
+        if (h.children[i].n >= MIN) {
+            return;
+        }
+        if (i + 1 < h.n) {
+            if (h.children[i + 1].n > MIN) {
+                borrowFromRight(h, i);
+            } else {
+                merge(h, i);
+            }
+        } else {
+            if (h.children[i - 1].n > MIN) {
+                borrowFromLeft(h, i);
+            } else {
+                merge(h, i - 1);
+            }
+        }
+    }
+
+    private void borrowFromRight(Node h, int i) { // move the first slot of children[i+1] to the end of children[i]
+        Node a = h.children[i];
+        Node b = h.children[i + 1];
+        if (a.isLeaf()) {
+            a.keys[a.n] = b.keys[0];
+            a.vals[a.n] = b.vals[0];
+            a.size++;
+            b.size--;
+            System.arraycopy(b.vals, 1, b.vals, 0, b.n - 1);
+            b.vals[b.n - 1] = null;
+        } else {
+            Node moved = b.children[0];
+            a.keys[a.n] = h.keys[i + 1];
+            a.children[a.n] = moved;
+            a.size += moved.size;
+            b.size -= moved.size;
+            System.arraycopy(b.children, 1, b.children, 0, b.n - 1);
+            b.children[b.n - 1] = null;
+        }
+        a.n++;
+        System.arraycopy(b.keys, 1, b.keys, 0, b.n - 1);
+        b.n--;
+        b.keys[b.n] = null;
+        h.keys[i + 1] = b.keys[0];
+    }
+
+    private void borrowFromLeft(Node h, int i) { // move the last slot of children[i-1] to the front of children[i]
+        Node a = h.children[i - 1];
+        Node c = h.children[i];
+        a.n--;
+        System.arraycopy(c.keys, 0, c.keys, 1, c.n);
+        if (c.isLeaf()) {
+            System.arraycopy(c.vals, 0, c.vals, 1, c.n);
+            c.keys[0] = a.keys[a.n];
+            c.vals[0] = a.vals[a.n];
+            a.vals[a.n] = null;
+            a.size--;
+            c.size++;
+            h.keys[i] = c.keys[0];
+        } else {
+            System.arraycopy(c.children, 0, c.children, 1, c.n);
+            Node moved = a.children[a.n];
+            c.children[0] = moved;
+            c.keys[1] = h.keys[i];
+            h.keys[i] = a.keys[a.n];
+            a.children[a.n] = null;
+            a.size -= moved.size;
+            c.size += moved.size;
+        }
+        a.keys[a.n] = null;
+        c.n++;
+    }
+
+    private void merge(Node h, int i) { // fold children[i+1] into children[i] and drop it from h
+        Node a = h.children[i];
+        Node b = h.children[i + 1];
+        if (a.isLeaf()) {
+            System.arraycopy(b.keys, 0, a.keys, a.n, b.n);
+            System.arraycopy(b.vals, 0, a.vals, a.n, b.n);
+            a.next = b.next;
+        } else {
+            System.arraycopy(b.keys, 1, a.keys, a.n + 1, b.n - 1);
+            System.arraycopy(b.children, 0, a.children, a.n, b.n);
+            a.keys[a.n] = h.keys[i + 1];
+        }
+        a.n += b.n;
+        a.size += b.size;
+        System.arraycopy(h.children, i + 2, h.children, i + 1, h.n - i - 2);
+        System.arraycopy(h.keys, i + 2, h.keys, i + 1, h.n - i - 2);
+        h.n--;
+        h.children[h.n] = null;
+        h.keys[h.n] = null;
+    }
+
+    private class KeyIterator implements Iterator<Key> { // walks the leaf chain from the first key >= lo
+        private final Key hi;
+        private final int expectedModCount = modCount;
+        private Node leaf;
+        private int i;
+
+        KeyIterator(Key lo, Key hi) {
+            this.hi = hi;
+            Node x = root;
+            while (!x.isLeaf()) {
+                x = lo == null ? x.children[0] : x.children[childIndex(x, lo)];
+            }
+            leaf = x;
+            i = lo == null ? 0 : leafIndex(x, lo);
+            skipExhausted();
+        }
+
+        private void skipExhausted() {
+            while (leaf != null && i == leaf.n) {
+                leaf = leaf.next;
+                i = 0;
+            }
+        }
+
+        public boolean hasNext() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            return leaf != null && (hi == null || hi.compareTo(leaf.key(i)) >= 0);
+        }
+
+        public Key next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Key key = leaf.key(i++);
+            skipExhausted();
+            return key;
+        }
+    }
+}
@@ -0,0 +1,167 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/* Read-through cache in front of a BST, for lookups skewed towards a few hot keys: a hit costs one
+ *   hash probe instead of a root-to-node descent with a compareTo per level. The cache holds at
+ *   most capacity keys and evicts the least recently used one (an access-ordered LinkedHashMap).
+ *   Misses are cached too, so a hot key that isn't in the table stops reaching the tree as well.
+ *
+ *   Writes go through this class and keep the cache exact rather than just dropping the key: put
+ *   overwrites a cached key's value, delete and deleteMin mark a cached key absent, and a key that
+ *   isn't cached is left alone, so writes never push hot keys out. The BST itself is not handed
+ *   out, since a write that bypasses this class would leave stale entries behind.
+ *
+ *   Like BST this is not thread-safe; with access order, even get rearranges the cache.
+ */
+
+public class CachedBST<Key extends Comparable<Key>, Value> {
+    private static final Object ABSENT = new Object(); // cached answer for a key the table doesn't have
+
+    private final BST<Key, Value> st;
+    private final int capacity;
+    private final LinkedHashMap<Key, Object> cache;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public CachedBST(int capacity) { // red-black BST underneath
+        this(new BST<Key, Value>(true), capacity);
+    }
+
+    public CachedBST(BST<Key, Value> st, int capacity) { // takes st over: from now on write to it only through this object
+        if (st == null){
+            throw new IllegalArgumentException("argument to CachedBST() is null");
+        }
+        if (capacity < 1){
+            throw new IllegalArgumentException("cache capacity must be at least 1: " + capacity);
+        }
+        this.st = st;
+        this.capacity = capacity;
+        this.cache = new LinkedHashMap<Key, Object>(2 * capacity, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<Key, Object> eldest) {
+                if (size() > CachedBST.this.capacity) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    public Value get(Key key) {
+        if (key == null){
+            throw new IllegalArgumentException("calls get() with a null key");
+        }
+        Object cached = cache.get(key);
+        if (cached != null) {
+            hits++;
+            return cached == ABSENT ? null : (Value) cached;
+        }
+        misses++;
+        Value val = st.get(key);
+        cache.put(key, val == null ? ABSENT : val);
+        return val;
+    }
+
+    public boolean contains(Key key) {
+        if (key == null){
+            throw new IllegalArgumentException("argument to contains() is null");
+        }
+        return get(key) != null;
+    }
+
+    public void put(Key key, Value val) { // like BST.put, a null value deletes the key
+        if (key == null) {
+            throw new IllegalArgumentException("calls put() with a null key");
+        }
+        st.put(key, val);
+        cache.replace(key, val == null ? ABSENT : val);
+    }
+
+    public void delete(Key key) {
+        if (key == null){
+            throw new IllegalArgumentException("calls delete() with a null key");
+        }
+        st.delete(key);
+        cache.replace(key, ABSENT);
+    }
+
+    public void deleteMin() {
+        Key min = st.min(); // throws on an empty table, as deleteMin would
+        st.deleteMin();
+        cache.replace(min, ABSENT);
+    }
+
+    public int size() {
+        return st.size();
+    }
+
+    public boolean isEmpty() {
+        return st.isEmpty();
+    }
+
+    public Key min() {
+        return st.min();
+    }
+
+    public Key max() {
+        return st.max();
+    }
+
+    public int rank(Key key) { // Number of keys in the table less than key.
+        return st.rank(key);
+    }
+
+    public Key select(int k) { // Return key of rank k.
+        return st.select(k);
+    }
+
+    public Iterable<Key> keys() {
+        return st.keys();
+    }
+
+    public Iterable<Key> keys(Key lo, Key hi) {
+        return st.keys(lo, hi);
+    }
+
+    public void clearCache() { // drops every cached answer, the statistics stay
+        cache.clear();
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public int cached() { // keys currently cached, present or absent
+        return cache.size();
+    }
+
+    public long hits() {
+        return hits;
+    }
+
+    public long misses() {
+        return misses;
+    }
+
+    public long evictions() {
+        return evictions;
+    }
+
+    public double hitRate() { // hits / lookups since construction or the last resetStats(), 0 before any lookup
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    public void resetStats() {
+        hits = 0;
+        misses = 0;
+        evictions = 0;
+    }
+
+    public String toString() {
+        return String.format("CachedBST[size=%d, cached=%d/%d, hits=%d, misses=%d, hit rate=%.3f, evictions=%d]",
+                size(), cached(), capacity, hits, misses, hitRate(), evictions);
+    }
+}
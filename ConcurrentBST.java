@@ -0,0 +1,103 @@
+import java.util.concurrent.atomic.AtomicReference;
+
+/* Thread-safe ordered symbol table with the same operations as BST. The current contents are a
+ *   PersistentBST version: put and delete build the next version (copying only the O(log n) nodes
+ *   on the search path), then swing the reference with compareAndSet and start over if another
+ *   writer won the race.
+ *
+ *   Consistency: every read loads the current version exactly once and runs against it, so get,
+ *   rank, select, min, max and keys(lo, hi) each see one linearizable snapshot of the table, and
+ *   never block or retry. Two separate calls may of course see different versions; callers that
+ *   need several reads to agree should take a snapshot() and query that. Writers are lock-free but
+ *   all contend on the one reference, so this suits read-mostly tables.
+ */
+
+public class ConcurrentBST<Key extends Comparable<Key>, Value> {
+    private final AtomicReference<PersistentBST<Key, Value>> current = new AtomicReference<PersistentBST<Key, Value>>(new PersistentBST<Key, Value>());
+
+    public PersistentBST<Key, Value> snapshot() { // the current version, O(1), stays valid however the table changes later
+        return current.get();
+    }
+
+    public int size() {
+        return current.get().size();
+    }
+
+    public boolean isEmpty() {
+        return current.get().isEmpty();
+    }
+
+    public boolean contains(Key key) {
+        return current.get().contains(key);
+    }
+
+    public Value get(Key key) {
+        return current.get().get(key);
+    }
+
+    public int rank(Key key) { // Number of keys in the table less than key.
+        return current.get().rank(key);
+    }
+
+    public Key select(int k) { // Return key of rank k.
+        return current.get().select(k);
+    }
+
+    public Key min() {
+        return current.get().min();
+    }
+
+    public Key max() {
+        return current.get().max();
+    }
+
+    public int size(Key lo, Key hi) {
+        return current.get().size(lo, hi);
+    }
+
+    public Iterable<Key> keys() { // all keys, from the version current when this is called
+        return current.get().keys();
+    }
+
+    public Iterable<Key> keys(Key lo, Key hi) { // keys in [lo, hi], all taken from one version of the tree
+        return current.get().keys(lo, hi);
+    }
+
+    public int height() {
+        return current.get().height();
+    }
+
+    public void put(Key key, Value val) {
+        if (key == null) {
+            throw new IllegalArgumentException("calls put() with a null key");
+        }
+        while (true) {
+            PersistentBST<Key, Value> old = current.get();
+            if (current.compareAndSet(old, old.put(key, val))) {
+                return;
+            }
+        }
+    }
+
+    public void delete(Key key) {
+        if (key == null) {
+            throw new IllegalArgumentException("calls delete() with a null key");
+        }
+        while (true) {
+            PersistentBST<Key, Value> old = current.get();
+            PersistentBST<Key, Value> fresh = old.delete(key);
+            if (fresh == old || current.compareAndSet(old, fresh)) { // absent key: nothing to publish
+                return;
+            }
+        }
+    }
+
+    public void deleteMin() {
+        while (true) {
+            PersistentBST<Key, Value> old = current.get();
+            if (current.compareAndSet(old, old.deleteMin())) {
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,428 @@
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/* Ordered int -> int symbol table for the BST<Integer, Integer> workload. Same algorithms as
+ *   BST's balanced mode (a left-leaning red-black tree with subtree sizes for rank/select), but
+ *   nodes are slots in parallel primitive arrays instead of objects: no boxing, no per-entry
+ *   headers, nothing for the GC to trace. A node is an int index; slot 0 is the shared null link.
+ *   Deleted slots go on a free list (chained through left[]) and are reused by later puts.
+ */
+
+public class IntIntBST {
+    private static final boolean RED   = true;
+    private static final boolean BLACK = false;
+    private static final int NIL = 0;   // null link: size 0, black, never handed out
+
+    private int[] keys;                 // sorted by key
+    private int[] vals;                 // associated data
+    private int[] left, right;          // left and right subtrees
+    private int[] size;                 // number of nodes in subtree
+    private boolean[] color;            // color of parent link
+
+    private int root = NIL;             // root of the tree
+    private int used = 1;               // slots handed out so far, including NIL
+    private int free = NIL;             // head of the list of deleted slots
+
+    public IntIntBST() {
+        this(16);
+    }
+
+    public IntIntBST(int capacity) { // room for capacity entries before the arrays have to grow
+        if (capacity < 0) {
+            throw new IllegalArgumentException("capacity is negative: " + capacity);
+        }
+        keys = new int[capacity + 1];
+        vals = new int[capacity + 1];
+        left = new int[capacity + 1];
+        right = new int[capacity + 1];
+        size = new int[capacity + 1];
+        color = new boolean[capacity + 1];
+    }
+
+    public int size() {
+        return size[root];
+    }
+
+    public boolean isEmpty() {
+        return root == NIL;
+    }
+
+    public boolean contains(int key) {
+        return find(key) != NIL;
+    }
+
+    public int get(int key) { // value for key, NoSuchElementException if it's not in the table
+        int x = find(key);
+        if (x == NIL) {
+            throw new NoSuchElementException("key not in table: " + key);
+        }
+        return vals[x];
+    }
+
+    public int getOrDefault(int key, int defaultValue) {
+        int x = find(key);
+        return x == NIL ? defaultValue : vals[x];
+    }
+
+    private int find(int key) {
+        int x = root;
+        while (x != NIL) {
+            int k = keys[x];
+            if (key < k) {
+                x = left[x];
+            }
+            else if (key > k) {
+                x = right[x];
+            } else {
+                return x;
+            }
+        }
+        return NIL;
+    }
+
+    public int rank(int key) { // Number of keys in the table less than key.
+        int r = 0;
+        int x = root;
+        while (x != NIL) {
+            int k = keys[x];
+            if (key < k) {
+                x = left[x];
+            }
+            else if (key > k) {
+                r += 1 + size[left[x]];
+                x = right[x];
+            } else {
+                return r + size[left[x]];
+            }
+        }
+        return r;
+    }
+
+    public int select(int k) { // Return key of rank k.
+        if (k < 0 || k >= size()) {
+            throw new IllegalArgumentException("argument to select() is invalid: " + k);
+        }
+        int x = root;
+        while (true) {
+            int t = size[left[x]];
+            if (t > k) {
+                x = left[x];
+            }
+            else if (t < k) {
+                k = k - t - 1;
+                x = right[x];
+            } else {
+                return keys[x];
+            }
+        }
+    }
+
+    public int min() {
+        if (isEmpty()) {
+            throw new NoSuchElementException("calls min() with empty symbol table");
+        }
+        return keys[min(root)];
+    }
+
+    public int max() {
+        if (isEmpty()) {
+            throw new NoSuchElementException("calls max() with empty symbol table");
+        }
+        int x = root;
+        while (right[x] != NIL) {
+            x = right[x];
+        }
+        return keys[x];
+    }
+
+    private int min(int x) {
+        while (left[x] != NIL) {
+            x = left[x];
+        }
+        return x;
+    }
+
+    public int size(int lo, int hi) { // Number of keys in [lo, hi].
+        if (lo > hi) {
+            return 0;
+        }
+        if (contains(hi)) {
+            return rank(hi) - rank(lo) + 1;
+        }
+        return rank(hi) - rank(lo);
+    }
+
+    public int[] keys() {
+        if (isEmpty()) {
+            return new int[0];
+        }
+        return keys(min(), max());
+    }
+
+    public int[] values() { // every value in ascending key order: values()[i] belongs to keys()[i]
+        int[] result = new int[size()];
+        int n = 0;
+        int[] stack = new int[64];
+        int top = 0;
+        int x = root;
+        while (true) {
+            while (x != NIL) {
+                if (top == stack.length) {
+                    stack = Arrays.copyOf(stack, 2 * top);
+                }
+                stack[top++] = x;
+                x = left[x];
+            }
+            if (top == 0) {
+                return result;
+            }
+            int next = stack[--top];
+            result[n++] = vals[next];
+            x = right[next];
+        }
+    }
+
+    public int[] keys(int lo, int hi) { // keys in [lo, hi] in ascending order
+        int[] result = new int[size(lo, hi)];
+        int n = 0;
+        int[] stack = new int[64];
+        int top = 0;
+        int x = root;
+        while (true) {
+            while (x != NIL) {
+                if (lo <= keys[x]) {
+                    if (top == stack.length) {
+                        stack = Arrays.copyOf(stack, 2 * top);
+                    }
+                    stack[top++] = x;
+                    x = left[x];
+                } else {
+                    x = right[x];
+                }
+            }
+            if (top == 0) {
+                return result;
+            }
+            int next = stack[--top];
+            if (keys[next] > hi) {
+                return result;
+            }
+            result[n++] = keys[next];
+            x = right[next];
+        }
+    }
+
+    public int height() {
+        return height(root);
+    }
+
+    private int height(int x) { // depth is at most 2 lg n, recursion is fine
+        if (x == NIL) {
+            return -1;
+        }
+        return 1 + Math.max(height(left[x]), height(right[x]));
+    }
+
+    public void put(int key, int val) {
+        root = put(root, key, val);
+        color[root] = BLACK;
+    }
+
+    public void delete(int key) {
+        if (!contains(key)) {
+            return;
+        }
+        if (!isRed(left[root]) && !isRed(right[root])) {
+            color[root] = RED;
+        }
+        root = delete(root, key);
+        if (root != NIL) {
+            color[root] = BLACK;
+        }
+    }
+
+    public void deleteMin() {
+        if (isEmpty()) {
+            throw new NoSuchElementException("Symbol table underflow");
+        }
+        if (!isRed(left[root]) && !isRed(right[root])) {
+            color[root] = RED;
+        }
+        root = deleteMin(root);
+        if (root != NIL) {
+            color[root] = BLACK;
+        }
+    }
+
+    /* Slot management */
+
+    private int newNode(int key, int val) {
+        int x;
+        if (free != NIL) {
+            x = free;
+            free = left[x];
+        } else {
+            if (used == keys.length) {
+                grow();
+            }
+            x = used++;
+        }
+        keys[x] = key;
+        vals[x] = val;
+        left[x] = NIL;
+        right[x] = NIL;
+        size[x] = 1;
+        color[x] = RED;
+        return x;
+    }
+
+    private void release(int x) {
+        left[x] = free;
+        free = x;
+    }
+
+    private void grow() {
+        int capacity = Math.max(16, 2 * keys.length);
+        keys = Arrays.copyOf(keys, capacity);
+        vals = Arrays.copyOf(vals, capacity);
+        left = Arrays.copyOf(left, capacity);
+        right = Arrays.copyOf(right, capacity);
+        size = Arrays.copyOf(size, capacity);
+        color = Arrays.copyOf(color, capacity);
+    }
+
+    /* Left-leaning red-black helpers, see BST */
+
+    private boolean isRed(int x) {
+        return x != NIL && color[x] == RED;
+    }
+
+    private int put(int h, int key, int val) {
+        if (h == NIL) {
+            return newNode(key, val);
+        }
+        if (key < keys[h]) {
+            int child = put(left[h], key, val); // may grow the arrays, so don't evaluate left before the call
+            left[h] = child;
+        }
+        else if (key > keys[h]) {
+            int child = put(right[h], key, val);
+            right[h] = child;
+        } else {
+            vals[h] = val;
+        }
+        if (isRed(right[h]) && !isRed(left[h])) {
+            h = rotateLeft(h);
+        }
+        if (isRed(left[h]) && isRed(left[left[h]])) {
+            h = rotateRight(h);
+        }
+        if (isRed(left[h]) && isRed(right[h])) {
+            flipColors(h);
+        }
+        size[h] = size[left[h]] + size[right[h]] + 1;
+        return h;
+    }
+
+    private int delete(int h, int key) { // key must be present below h
+        if (key < keys[h]) {
+            if (!isRed(left[h]) && !isRed(left[left[h]])) {
+                h = moveRedLeft(h);
+            }
+            left[h] = delete(left[h], key);
+        } else {
+            if (isRed(left[h])) {
+                h = rotateRight(h);
+            }
+            if (key == keys[h] && right[h] == NIL) {
+                release(h);
+                return NIL;
+            }
+            if (!isRed(right[h]) && !isRed(left[right[h]])) {
+                h = moveRedRight(h);
+            }
+            if (key == keys[h]) {
+                int x = min(right[h]);
+                keys[h] = keys[x];
+                vals[h] = vals[x];
+                right[h] = deleteMin(right[h]);
+            } else {
+                right[h] = delete(right[h], key);
+            }
+        }
+        return balance(h);
+    }
+
+    private int deleteMin(int h) {
+        if (left[h] == NIL) {
+            release(h);
+            return NIL;
+        }
+        if (!isRed(left[h]) && !isRed(left[left[h]])) {
+            h = moveRedLeft(h);
+        }
+        left[h] = deleteMin(left[h]);
+        return balance(h);
+    }
+
+    private int rotateRight(int h) {
+        int x = left[h];
+        left[h] = right[x];
+        right[x] = h;
+        color[x] = color[h];
+        color[h] = RED;
+        size[x] = size[h];
+        size[h] = size[left[h]] + size[right[h]] + 1;
+        return x;
+    }
+
+    private int rotateLeft(int h) {
+        int x = right[h];
+        right[h] = left[x];
+        left[x] = h;
+        color[x] = color[h];
+        color[h] = RED;
+        size[x] = size[h];
+        size[h] = size[left[h]] + size[right[h]] + 1;
+        return x;
+    }
+
+    private void flipColors(int h) {
+        color[h] = !color[h];
+        color[left[h]] = !color[left[h]];
+        color[right[h]] = !color[right[h]];
+    }
+
+    private int moveRedLeft(int h) {
+        flipColors(h);
+        if (isRed(left[right[h]])) {
+            right[h] = rotateRight(right[h]);
+            h = rotateLeft(h);
+            flipColors(h);
+        }
+        return h;
+    }
+
+    private int moveRedRight(int h) {
+        flipColors(h);
+        if (isRed(left[left[h]])) {
+            h = rotateRight(h);
+            flipColors(h);
+        }
+        return h;
+    }
+
+    private int balance(int h) {
+        if (isRed(right[h]) && !isRed(left[h])) {
+            h = rotateLeft(h);
+        }
+        if (isRed(left[h]) && isRed(left[left[h]])) {
+            h = rotateRight(h);
+        }
+        if (isRed(left[h]) && isRed(right[h])) {
+            flipColors(h);
+        }
+        size[h] = size[left[h]] + size[right[h]] + 1;
+        return h;
+    }
+}
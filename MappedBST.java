@@ -0,0 +1,208 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/* Read-only int -> int ordered symbol table served straight out of a memory-mapped snapshot file.
+ *   write() saves an IntIntBST or a BST<Integer, Integer>; open() maps the file and is done, no
+ *   parsing and no heap nodes, so opening costs the same for 1K keys as for 100M, and the entries
+ *   live in the page cache rather than on the Java heap.
+ *
+ *   File layout (big-endian ints):
+ *     magic 'BSTM', format version, n, reserved
+ *     n keys in ascending order
+ *     n values, values[i] belongs to keys[i]
+ *   A sorted array is the in-order traversal of the tree with the links dropped: rank is a binary
+ *   search, select is an index, and a range scan is a sequential read of consecutive pages.
+ *   A single mapping tops out at 2 GB, which is about 268M entries.
+ */
+
+public class MappedBST {
+    private static final int MAGIC = 0x4253544D;    // "BSTM"
+    private static final int VERSION = 1;
+    private static final int HEADER = 16;           // bytes before the keys
+    private static final int WRITE_BUFFER = 1 << 20;
+
+    private final IntBuffer keys;       // views into the one mapping
+    private final IntBuffer vals;
+    private final int n;
+
+    public interface EntryVisitor {
+        void visit(int key, int val);
+    }
+
+    private MappedBST(MappedByteBuffer file, int n) {
+        this.n = n;
+        this.keys = file.slice(HEADER, 4 * n).asIntBuffer();
+        this.vals = file.slice(HEADER + 4 * n, 4 * n).asIntBuffer();
+    }
+
+    public static MappedBST open(Path path) throws IOException { // maps the file read-only; the mapping outlives the channel
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            long length = ch.size();
+            if (length < HEADER || length > Integer.MAX_VALUE) {
+                throw new IOException("not a BST snapshot: " + path);
+            }
+            MappedByteBuffer file = ch.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            int n = file.getInt(8);
+            if (file.getInt(0) != MAGIC || file.getInt(4) != VERSION || n < 0 || length != HEADER + 8L * n) {
+                throw new IOException("not a BST snapshot: " + path);
+            }
+            return new MappedBST(file, n);
+        }
+    }
+
+    public static void write(Path path, IntIntBST st) throws IOException { // two in-order walks, O(n)
+        write(path, st.keys(), st.values());
+    }
+
+    public static void write(Path path, BST<Integer, Integer> st) throws IOException {
+        int[] ks = new int[st.size()];
+        int[] vs = new int[ks.length];
+        int i = 0;
+        for (Map.Entry<Integer, Integer> e : st.entries()) {
+            ks[i] = e.getKey();
+            vs[i++] = e.getValue();
+        }
+        write(path, ks, vs);
+    }
+
+    private static void write(Path path, int[] ks, int[] vs) throws IOException { // to a temp file first, so open() never sees half a snapshot
+        if (HEADER + 8L * ks.length > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("too many entries for one snapshot: " + ks.length);
+        }
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buf = ByteBuffer.allocateDirect(WRITE_BUFFER);
+            buf.putInt(MAGIC).putInt(VERSION).putInt(ks.length).putInt(0);
+            for (int[] a : new int[][] {ks, vs}) {
+                for (int x : a) {
+                    if (!buf.hasRemaining()) {
+                        drain(ch, buf);
+                    }
+                    buf.putInt(x);
+                }
+            }
+            drain(ch, buf);
+            ch.force(false);
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void drain(FileChannel ch, ByteBuffer buf) throws IOException {
+        buf.flip();
+        while (buf.hasRemaining()) {
+            ch.write(buf);
+        }
+        buf.clear();
+    }
+
+    public int size() {
+        return n;
+    }
+
+    public boolean isEmpty() {
+        return n == 0;
+    }
+
+    public boolean contains(int key) {
+        return find(key) >= 0;
+    }
+
+    public int get(int key) { // value for key, NoSuchElementException if it's not in the table
+        int i = find(key);
+        if (i < 0) {
+            throw new NoSuchElementException("key not in table: " + key);
+        }
+        return vals.get(i);
+    }
+
+    public int getOrDefault(int key, int defaultValue) {
+        int i = find(key);
+        return i < 0 ? defaultValue : vals.get(i);
+    }
+
+    private int find(int key) { // index of key, or -1
+        int i = rank(key);
+        return i < n && keys.get(i) == key ? i : -1;
+    }
+
+    public int rank(int key) { // Number of keys in the table less than key.
+        int lo = 0;
+        int hi = n;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keys.get(mid) < key) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    public int select(int k) { // Return key of rank k.
+        if (k < 0 || k >= n) {
+            throw new IllegalArgumentException("argument to select() is invalid: " + k);
+        }
+        return keys.get(k);
+    }
+
+    public int min() {
+        if (isEmpty()) {
+            throw new NoSuchElementException("calls min() with empty symbol table");
+        }
+        return keys.get(0);
+    }
+
+    public int max() {
+        if (isEmpty()) {
+            throw new NoSuchElementException("calls max() with empty symbol table");
+        }
+        return keys.get(n - 1);
+    }
+
+    public int size(int lo, int hi) { // Number of keys in [lo, hi].
+        if (lo > hi) {
+            return 0;
+        }
+        return upper(hi) - rank(lo);
+    }
+
+    private int upper(int key) { // number of keys <= key
+        return key == Integer.MAX_VALUE ? n : rank(key + 1);
+    }
+
+    public int[] keys() {
+        int[] result = new int[n];
+        keys.get(0, result);
+        return result;
+    }
+
+    public int[] keys(int lo, int hi) { // keys in [lo, hi] in ascending order
+        if (lo > hi) {
+            return new int[0];
+        }
+        int from = rank(lo);
+        int[] result = new int[upper(hi) - from];
+        keys.get(from, result);
+        return result;
+    }
+
+    public void scan(int lo, int hi, EntryVisitor visitor) { // visits the entries in [lo, hi] in key order, reading the mapping in place
+        if (lo > hi) {
+            return;
+        }
+        int to = upper(hi);
+        for (int i = rank(lo); i < to; i++) {
+            visitor.visit(keys.get(i), vals.get(i));
+        }
+    }
+}
@@ -0,0 +1,473 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/* Ordered long -> long symbol table whose nodes live outside the Java heap. Same algorithms as
+ *   IntIntBST (a left-leaning red-black tree with subtree sizes, nodes addressed by int index, a
+ *   free list of deleted slots), but the slots are 32-byte records in direct ByteBuffers:
+ *
+ *     key (8) | val (8) | left (4) | right (4) | size (4) | color (4)
+ *
+ *   Slots come in chunks of CHUNK_NODES = 65536 (2 MB), added as the table grows and never moved;
+ *   slot 0 is the shared null link. On the heap each chunk is a direct ByteBuffer plus the cleaner
+ *   that frees it (a phantom reference and its deallocator), and the chunk table itself grows with
+ *   n: about three objects per 65536 entries, so some 4,600 at 100M entries, instead of one Node,
+ *   two boxes and their headers per entry, and none of them with anything inside for a full GC to
+ *   trace. Memory is given back when the table itself is collected, there is no explicit free
+ *   (direct buffers have no public one).
+ */
+
+public class OffHeapBST {
+    private static final int RED   = 1;
+    private static final int BLACK = 0;
+    private static final int NIL = 0;           // null link: size 0, black, never handed out
+
+    private static final int NODE_BYTES = 32;
+    private static final int KEY = 0, VAL = 8, LEFT = 16, RIGHT = 20, SIZE = 24, COLOR = 28;
+    private static final int CHUNK_BITS = 16;
+    private static final int CHUNK_NODES = 1 << CHUNK_BITS;
+
+    private ByteBuffer[] chunks = new ByteBuffer[4];
+    private int root = NIL;                     // root of the tree
+    private int used = 1;                       // slots handed out so far, including NIL
+    private int free = NIL;                     // head of the list of deleted slots
+
+    public interface EntryVisitor {
+        void visit(long key, long val);
+    }
+
+    public OffHeapBST() {
+        chunks[0] = newChunk();                 // all zeros: NIL is black with size 0
+    }
+
+    private static ByteBuffer newChunk() {
+        return ByteBuffer.allocateDirect(CHUNK_NODES * NODE_BYTES).order(ByteOrder.nativeOrder());
+    }
+
+    /* Field access: x >>> CHUNK_BITS picks the chunk, the low bits the record in it */
+
+    private long key(int x) {
+        return chunks[x >>> CHUNK_BITS].getLong(((x & (CHUNK_NODES - 1)) << 5) + KEY);
+    }
+
+    private long val(int x) {
+        return chunks[x >>> CHUNK_BITS].getLong(((x & (CHUNK_NODES - 1)) << 5) + VAL);
+    }
+
+    private int left(int x) {
+        return chunks[x >>> CHUNK_BITS].getInt(((x & (CHUNK_NODES - 1)) << 5) + LEFT);
+    }
+
+    private int right(int x) {
+        return chunks[x >>> CHUNK_BITS].getInt(((x & (CHUNK_NODES - 1)) << 5) + RIGHT);
+    }
+
+    private int size(int x) {
+        return chunks[x >>> CHUNK_BITS].getInt(((x & (CHUNK_NODES - 1)) << 5) + SIZE);
+    }
+
+    private boolean isRed(int x) {
+        return chunks[x >>> CHUNK_BITS].getInt(((x & (CHUNK_NODES - 1)) << 5) + COLOR) == RED;
+    }
+
+    private void setKey(int x, long key) {
+        chunks[x >>> CHUNK_BITS].putLong(((x & (CHUNK_NODES - 1)) << 5) + KEY, key);
+    }
+
+    private void setVal(int x, long val) {
+        chunks[x >>> CHUNK_BITS].putLong(((x & (CHUNK_NODES - 1)) << 5) + VAL, val);
+    }
+
+    private void setLeft(int x, int child) {
+        chunks[x >>> CHUNK_BITS].putInt(((x & (CHUNK_NODES - 1)) << 5) + LEFT, child);
+    }
+
+    private void setRight(int x, int child) {
+        chunks[x >>> CHUNK_BITS].putInt(((x & (CHUNK_NODES - 1)) << 5) + RIGHT, child);
+    }
+
+    private void setSize(int x, int size) {
+        chunks[x >>> CHUNK_BITS].putInt(((x & (CHUNK_NODES - 1)) << 5) + SIZE, size);
+    }
+
+    private void setColor(int x, int color) {
+        chunks[x >>> CHUNK_BITS].putInt(((x & (CHUNK_NODES - 1)) << 5) + COLOR, color);
+    }
+
+    public int size() {
+        return size(root);
+    }
+
+    public boolean isEmpty() {
+        return root == NIL;
+    }
+
+    public long offHeapBytes() { // direct memory reserved by the chunks
+        long n = 0;
+        for (ByteBuffer c : chunks) {
+            if (c != null) {
+                n += c.capacity();
+            }
+        }
+        return n;
+    }
+
+    public boolean contains(long key) {
+        return find(key) != NIL;
+    }
+
+    public long get(long key) { // value for key, NoSuchElementException if it's not in the table
+        int x = find(key);
+        if (x == NIL) {
+            throw new NoSuchElementException("key not in table: " + key);
+        }
+        return val(x);
+    }
+
+    public long getOrDefault(long key, long defaultValue) {
+        int x = find(key);
+        return x == NIL ? defaultValue : val(x);
+    }
+
+    private int find(long key) {
+        int x = root;
+        while (x != NIL) {
+            long k = key(x);
+            if (key < k) {
+                x = left(x);
+            }
+            else if (key > k) {
+                x = right(x);
+            } else {
+                return x;
+            }
+        }
+        return NIL;
+    }
+
+    public int rank(long key) { // Number of keys in the table less than key.
+        int r = 0;
+        int x = root;
+        while (x != NIL) {
+            long k = key(x);
+            if (key < k) {
+                x = left(x);
+            }
+            else if (key > k) {
+                r += 1 + size(left(x));
+                x = right(x);
+            } else {
+                return r + size(left(x));
+            }
+        }
+        return r;
+    }
+
+    public long select(int k) { // Return key of rank k.
+        if (k < 0 || k >= size()) {
+            throw new IllegalArgumentException("argument to select() is invalid: " + k);
+        }
+        int x = root;
+        while (true) {
+            int t = size(left(x));
+            if (t > k) {
+                x = left(x);
+            }
+            else if (t < k) {
+                k = k - t - 1;
+                x = right(x);
+            } else {
+                return key(x);
+            }
+        }
+    }
+
+    public long min() {
+        if (isEmpty()) {
+            throw new NoSuchElementException("calls min() with empty symbol table");
+        }
+        return key(min(root));
+    }
+
+    public long max() {
+        if (isEmpty()) {
+            throw new NoSuchElementException("calls max() with empty symbol table");
+        }
+        int x = root;
+        while (right(x) != NIL) {
+            x = right(x);
+        }
+        return key(x);
+    }
+
+    private int min(int x) {
+        while (left(x) != NIL) {
+            x = left(x);
+        }
+        return x;
+    }
+
+    public int size(long lo, long hi) { // Number of keys in [lo, hi].
+        if (lo > hi) {
+            return 0;
+        }
+        if (contains(hi)) {
+            return rank(hi) - rank(lo) + 1;
+        }
+        return rank(hi) - rank(lo);
+    }
+
+    public long[] keys() {
+        if (isEmpty()) {
+            return new long[0];
+        }
+        return keys(min(), max());
+    }
+
+    public long[] keys(long lo, long hi) { // keys in [lo, hi] in ascending order
+        long[] result = new long[size(lo, hi)];
+        int[] n = new int[1];
+        scan(lo, hi, (k, v) -> result[n[0]++] = k);
+        return result;
+    }
+
+    public void scan(long lo, long hi, EntryVisitor visitor) { // visits the entries in [lo, hi] in key order, reading the chunks in place
+        int[] stack = new int[64];
+        int top = 0;
+        int x = root;
+        while (true) {
+            while (x != NIL) {
+                if (lo <= key(x)) {
+                    if (top == stack.length) {
+                        stack = Arrays.copyOf(stack, 2 * top);
+                    }
+                    stack[top++] = x;
+                    x = left(x);
+                } else {
+                    x = right(x);
+                }
+            }
+            if (top == 0) {
+                return;
+            }
+            int next = stack[--top];
+            long k = key(next);
+            if (k > hi) {
+                return;
+            }
+            visitor.visit(k, val(next));
+            x = right(next);
+        }
+    }
+
+    public int height() {
+        return height(root);
+    }
+
+    private int height(int x) { // depth is at most 2 lg n, recursion is fine
+        if (x == NIL) {
+            return -1;
+        }
+        return 1 + Math.max(height(left(x)), height(right(x)));
+    }
+
+    public void put(long key, long val) {
+        root = put(root, key, val);
+        setColor(root, BLACK);
+    }
+
+    public void delete(long key) {
+        if (!contains(key)) {
+            return;
+        }
+        if (!isRed(left(root)) && !isRed(right(root))) {
+            setColor(root, RED);
+        }
+        root = delete(root, key);
+        if (root != NIL) {
+            setColor(root, BLACK);
+        }
+    }
+
+    public void deleteMin() {
+        if (isEmpty()) {
+            throw new NoSuchElementException("Symbol table underflow");
+        }
+        if (!isRed(left(root)) && !isRed(right(root))) {
+            setColor(root, RED);
+        }
+        root = deleteMin(root);
+        if (root != NIL) {
+            setColor(root, BLACK);
+        }
+    }
+
+    /* Slot management */
+
+    private int newNode(long key, long val) {
+        int x;
+        if (free != NIL) {
+            x = free;
+            free = left(x);
+        } else {
+            if (used == Integer.MAX_VALUE) {
+                throw new IllegalStateException("off-heap table is full");
+            }
+            if ((used & (CHUNK_NODES - 1)) == 0) {
+                grow();
+            }
+            x = used++;
+        }
+        setKey(x, key);
+        setVal(x, val);
+        setLeft(x, NIL);
+        setRight(x, NIL);
+        setSize(x, 1);
+        setColor(x, RED);
+        return x;
+    }
+
+    private void release(int x) {
+        setLeft(x, free);
+        free = x;
+    }
+
+    private void grow() { // a new chunk for slots used onwards, the existing ones stay where they are
+        int chunk = used >>> CHUNK_BITS;
+        if (chunk == chunks.length) {
+            chunks = Arrays.copyOf(chunks, 2 * chunks.length);
+        }
+        chunks[chunk] = newChunk();
+    }
+
+    /* Left-leaning red-black helpers, see BST */
+
+    private int put(int h, long key, long val) {
+        if (h == NIL) {
+            return newNode(key, val);
+        }
+        long k = key(h);
+        if (key < k) {
+            setLeft(h, put(left(h), key, val));
+        }
+        else if (key > k) {
+            setRight(h, put(right(h), key, val));
+        } else {
+            setVal(h, val);
+        }
+        if (isRed(right(h)) && !isRed(left(h))) {
+            h = rotateLeft(h);
+        }
+        if (isRed(left(h)) && isRed(left(left(h)))) {
+            h = rotateRight(h);
+        }
+        if (isRed(left(h)) && isRed(right(h))) {
+            flipColors(h);
+        }
+        setSize(h, size(left(h)) + size(right(h)) + 1);
+        return h;
+    }
+
+    private int delete(int h, long key) { // key must be present below h
+        if (key < key(h)) {
+            if (!isRed(left(h)) && !isRed(left(left(h)))) {
+                h = moveRedLeft(h);
+            }
+            setLeft(h, delete(left(h), key));
+        } else {
+            if (isRed(left(h))) {
+                h = rotateRight(h);
+            }
+            if (key == key(h) && right(h) == NIL) {
+                release(h);
+                return NIL;
+            }
+            if (!isRed(right(h)) && !isRed(left(right(h)))) {
+                h = moveRedRight(h);
+            }
+            if (key == key(h)) {
+                int x = min(right(h));
+                setKey(h, key(x));
+                setVal(h, val(x));
+                setRight(h, deleteMin(right(h)));
+            } else {
+                setRight(h, delete(right(h), key));
+            }
+        }
+        return balance(h);
+    }
+
+    private int deleteMin(int h) {
+        if (left(h) == NIL) {
+            release(h);
+            return NIL;
+        }
+        if (!isRed(left(h)) && !isRed(left(left(h)))) {
+            h = moveRedLeft(h);
+        }
+        setLeft(h, deleteMin(left(h)));
+        return balance(h);
+    }
+
+    private int rotateRight(int h) {
+        int x = left(h);
+        setLeft(h, right(x));
+        setRight(x, h);
+        setColor(x, isRed(h) ? RED : BLACK);
+        setColor(h, RED);
+        setSize(x, size(h));
+        setSize(h, size(left(h)) + size(right(h)) + 1);
+        return x;
+    }
+
+    private int rotateLeft(int h) {
+        int x = right(h);
+        setRight(h, left(x));
+        setLeft(x, h);
+        setColor(x, isRed(h) ? RED : BLACK);
+        setColor(h, RED);
+        setSize(x, size(h));
+        setSize(h, size(left(h)) + size(right(h)) + 1);
+        return x;
+    }
+
+    private void flipColors(int h) {
+        setColor(h, isRed(h) ? BLACK : RED);
+        setColor(left(h), isRed(left(h)) ? BLACK : RED);
+        setColor(right(h), isRed(right(h)) ? BLACK : RED);
+    }
+
+    private int moveRedLeft(int h) {
+        flipColors(h);
+        if (isRed(left(right(h)))) {
+            setRight(h, rotateRight(right(h)));
+            h = rotateLeft(h);
+            flipColors(h);
+        }
+        return h;
+    }
+
+    private int moveRedRight(int h) {
+        flipColors(h);
+        if (isRed(left(left(h)))) {
+            h = rotateRight(h);
+            flipColors(h);
+        }
+        return h;
+    }
+
+    private int balance(int h) {
+        if (isRed(right(h)) && !isRed(left(h))) {
+            h = rotateLeft(h);
+        }
+        if (isRed(left(h)) && isRed(left(left(h)))) {
+            h = rotateRight(h);
+        }
+        if (isRed(left(h)) && isRed(right(h))) {
+            flipColors(h);
+        }
+        setSize(h, size(left(h)) + size(right(h)) + 1);
+        return h;
+    }
+}
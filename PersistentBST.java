@@ -0,0 +1,442 @@
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/* Persistent (immutable) ordered symbol table. put, delete and deleteMin leave this version alone
+ *   and return a new one that shares every untouched subtree with it: only the O(log n) nodes on
+ *   the search path are copied. Holding on to a version is therefore an O(1) snapshot, and every
+ *   old version keeps answering get, rank, select, min, max and keys(lo, hi) as of its own time.
+ *   The tree is a left-leaning red-black BST with subtree sizes, as in BST's balanced mode.
+ *
+ *   Each write takes a fresh epoch and stamps it on the nodes it creates. A node from an older
+ *   epoch belongs to some version and is copied before it changes; a node with the write's own
+ *   epoch was made by this write, is not reachable from any version yet, and is changed in place.
+ *   So a rebalancing step that touches a node twice (moveRedLeft and then the descent below it,
+ *   or a rotation after a color flip) copies it once.
+ *
+ *   Node is a static nested class here rather than an inner class like in BST: an inner Node would
+ *   point back at the version that created it, and so keep that version's whole tree alive.
+ */
+
+public final class PersistentBST<Key extends Comparable<Key>, Value> {
+    private static final boolean RED   = true;
+    private static final boolean BLACK = false;
+
+    private static final AtomicLong EPOCHS = new AtomicLong(); // hands every write its own epoch
+
+    private final Node<Key, Value> root; // never modified once this version exists
+
+    private static final class Node<Key, Value> {
+        private Key key;           // sorted by key
+        private Value val;         // associated data
+        private Node<Key, Value> left, right; // left and right subtrees
+        private int size;          // number of nodes in subtree
+        private boolean color;     // color of parent link
+        private final long epoch;  // the write that created this node, the only one that may change it
+
+        public Node(Key key, Value val, int size, boolean color, long epoch) {
+            this.key = key;
+            this.val = val;
+            this.size = size;
+            this.color = color;
+            this.epoch = epoch;
+        }
+    }
+
+    public PersistentBST() { // the empty table
+        this(null);
+    }
+
+    private PersistentBST(Node<Key, Value> root) {
+        this.root = root;
+    }
+
+    public int size() {
+        return size(root);
+    }
+
+    public boolean isEmpty() {
+        return root == null;
+    }
+
+    public boolean contains(Key key) {
+        if (key == null) {
+            throw new IllegalArgumentException("argument to contains() is null");
+        }
+        return get(root, key) != null;
+    }
+
+    public Value get(Key key) {
+        if (key == null) {
+            throw new IllegalArgumentException("calls get() with a null key");
+        }
+        Node<Key, Value> x = get(root, key);
+        return x == null ? null : x.val;
+    }
+
+    public int rank(Key key) { // Number of keys in the table less than key.
+        if (key == null) {
+            throw new IllegalArgumentException("argument to rank() is null");
+        }
+        int r = 0;
+        Node<Key, Value> x = root;
+        while (x != null) {
+            int cmp = key.compareTo(x.key);
+            if (cmp < 0) {
+                x = x.left;
+            }
+            else if (cmp > 0) {
+                r += 1 + size(x.left);
+                x = x.right;
+            } else {
+                return r + size(x.left);
+            }
+        }
+        return r;
+    }
+
+    public Key select(int k) { // Return key of rank k.
+        if (k < 0 || k >= size()) {
+            throw new IllegalArgumentException("argument to select() is invalid: " + k);
+        }
+        Node<Key, Value> x = root;
+        while (true) {
+            int t = size(x.left);
+            if (t > k) {
+                x = x.left;
+            }
+            else if (t < k) {
+                k = k - t - 1;
+                x = x.right;
+            } else {
+                return x.key;
+            }
+        }
+    }
+
+    public Key min() {
+        if (isEmpty()) {
+            throw new NoSuchElementException("calls min() with empty symbol table");
+        }
+        Node<Key, Value> x = root;
+        while (x.left != null) {
+            x = x.left;
+        }
+        return x.key;
+    }
+
+    public Key max() {
+        if (isEmpty()) {
+            throw new NoSuchElementException("calls max() with empty symbol table");
+        }
+        Node<Key, Value> x = root;
+        while (x.right != null) {
+            x = x.right;
+        }
+        return x.key;
+    }
+
+    public int size(Key lo, Key hi) { // Number of keys in [lo, hi].
+        checkRange(lo, hi, "size()");
+        if (lo.compareTo(hi) > 0) {
+            return 0;
+        }
+        if (contains(hi)) {
+            return rank(hi) - rank(lo) + 1;
+        }
+        return rank(hi) - rank(lo);
+    }
+
+    public Iterable<Key> keys() { // all keys in order, produced lazily
+        return () -> new KeyIterator(root, null, null);
+    }
+
+    public Iterable<Key> keys(Key lo, Key hi) { // keys in [lo, hi] in order, produced lazily
+        checkRange(lo, hi, "keys()");
+        return () -> new KeyIterator(root, lo, hi);
+    }
+
+    private void checkRange(Key lo, Key hi, String method) {
+        if (lo == null) {
+            throw new IllegalArgumentException("first argument to " + method + " is null");
+        }
+        if (hi == null) {
+            throw new IllegalArgumentException("second argument to " + method + " is null");
+        }
+    }
+
+    public int height() {
+        return height(root);
+    }
+
+    private int height(Node<Key, Value> x) { // depth is at most 2 lg n, recursion is fine
+        if (x == null) {
+            return -1;
+        }
+        return 1 + Math.max(height(x.left), height(x.right));
+    }
+
+    public PersistentBST<Key, Value> put(Key key, Value val) { // a new version with key bound to val
+        if (key == null) {
+            throw new IllegalArgumentException("calls put() with a null key");
+        }
+        if (val == null) {
+            return delete(key);
+        }
+        Node<Key, Value> fresh = put(root, key, val, EPOCHS.incrementAndGet());
+        fresh.color = BLACK;
+        return new PersistentBST<Key, Value>(fresh);
+    }
+
+    public PersistentBST<Key, Value> delete(Key key) { // a new version without key, or this one if key is absent
+        if (key == null) {
+            throw new IllegalArgumentException("calls delete() with a null key");
+        }
+        if (get(root, key) == null) {
+            return this;
+        }
+        long epoch = EPOCHS.incrementAndGet();
+        Node<Key, Value> h = own(root, epoch);
+        if (!isRed(h.left) && !isRed(h.right)) {
+            h.color = RED;
+        }
+        Node<Key, Value> fresh = delete(h, key, epoch);
+        if (fresh != null) {
+            fresh.color = BLACK;
+        }
+        return new PersistentBST<Key, Value>(fresh);
+    }
+
+    public PersistentBST<Key, Value> deleteMin() { // a new version without the smallest key
+        if (isEmpty()) {
+            throw new NoSuchElementException("Symbol table underflow");
+        }
+        long epoch = EPOCHS.incrementAndGet();
+        Node<Key, Value> h = own(root, epoch);
+        if (!isRed(h.left) && !isRed(h.right)) {
+            h.color = RED;
+        }
+        Node<Key, Value> fresh = deleteMin(h, epoch);
+        if (fresh != null) {
+            fresh.color = BLACK;
+        }
+        return new PersistentBST<Key, Value>(fresh);
+    }
+
+    private class KeyIterator implements Iterator<Key> { // in-order walk with an explicit stack; nodes never change, so no fail-fast check is needed
+        private final Key hi;
+        @SuppressWarnings("unchecked")
+        private Node<Key, Value>[] stack = (Node<Key, Value>[]) new Node<?, ?>[32];
+        private int top;
+
+        KeyIterator(Node<Key, Value> x, Key lo, Key hi) {
+            this.hi = hi;
+            pushLeft(x, lo);
+        }
+
+        private void pushLeft(Node<Key, Value> x, Key lo) {
+            while (x != null) {
+                if (lo == null || lo.compareTo(x.key) <= 0) {
+                    if (top == stack.length) {
+                        stack = Arrays.copyOf(stack, 2 * top);
+                    }
+                    stack[top++] = x;
+                    x = x.left;
+                } else {
+                    x = x.right;
+                }
+            }
+        }
+
+        public boolean hasNext() {
+            return top > 0 && (hi == null || hi.compareTo(stack[top - 1].key) >= 0);
+        }
+
+        public Key next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Node<Key, Value> next = stack[--top];
+            stack[top] = null;
+            pushLeft(next.right, null);
+            return next.key;
+        }
+    }
+
+    /* Path-copying red-black helpers. Each one takes a node through own() before changing it, so a
+     *   version that somebody may still hold is never touched. Only nodes created by the current
+     *   write, the ones stamped with its epoch, are mutated.
+     */
+
+    private Node<Key, Value> get(Node<Key, Value> x, Key key) {
+        while (x != null) {
+            int cmp = key.compareTo(x.key);
+            if (cmp < 0) {
+                x = x.left;
+            }
+            else if (cmp > 0) {
+                x = x.right;
+            } else {
+                return x;
+            }
+        }
+        return null;
+    }
+
+    private int size(Node<Key, Value> x) {
+        if (x == null) {
+            return 0;
+        }
+        return x.size;
+    }
+
+    private boolean isRed(Node<Key, Value> x) {
+        if (x == null) {
+            return false;
+        }
+        return x.color == RED;
+    }
+
+    private Node<Key, Value> own(Node<Key, Value> x, long epoch) { // x if this write created it, otherwise a copy that it may change
+        if (x.epoch == epoch) {
+            return x;
+        }
+        Node<Key, Value> c = new Node<Key, Value>(x.key, x.val, x.size, x.color, epoch);
+        c.left = x.left;
+        c.right = x.right;
+        return c;
+    }
+
+    private Node<Key, Value> put(Node<Key, Value> h, Key key, Value val, long epoch) {
+        if (h == null) {
+            return new Node<Key, Value>(key, val, 1, RED, epoch);
+        }
+        h = own(h, epoch);
+        int cmp = key.compareTo(h.key);
+        if (cmp < 0) {
+            h.left  = put(h.left,  key, val, epoch);
+        }
+        else if (cmp > 0) {
+            h.right = put(h.right, key, val, epoch);
+        } else {
+            h.val = val;
+        }
+        if (isRed(h.right) && !isRed(h.left)) {
+            h = rotateLeft(h, epoch);
+        }
+        if (isRed(h.left) && isRed(h.left.left)) {
+            h = rotateRight(h, epoch);
+        }
+        if (isRed(h.left) && isRed(h.right)) {
+            flipColors(h, epoch);
+        }
+        h.size = size(h.left) + size(h.right) + 1;
+        return h;
+    }
+
+    private Node<Key, Value> delete(Node<Key, Value> h, Key key, long epoch) { // key must be present below h, h is already owned
+        if (key.compareTo(h.key) < 0) {
+            if (!isRed(h.left) && !isRed(h.left.left)) {
+                h = moveRedLeft(h, epoch);
+            }
+            h.left = delete(own(h.left, epoch), key, epoch);
+        } else {
+            if (isRed(h.left)) {
+                h = rotateRight(h, epoch);
+            }
+            if (key.compareTo(h.key) == 0 && (h.right == null)) {
+                return null;
+            }
+            if (!isRed(h.right) && !isRed(h.right.left)) {
+                h = moveRedRight(h, epoch);
+            }
+            if (key.compareTo(h.key) == 0) {
+                Node<Key, Value> x = h.right;
+                while (x.left != null) {
+                    x = x.left;
+                }
+                h.key = x.key;
+                h.val = x.val;
+                h.right = deleteMin(own(h.right, epoch), epoch);
+            } else {
+                h.right = delete(own(h.right, epoch), key, epoch);
+            }
+        }
+        return balance(h, epoch);
+    }
+
+    private Node<Key, Value> deleteMin(Node<Key, Value> h, long epoch) { // h is already owned
+        if (h.left == null) {
+            return null;
+        }
+        if (!isRed(h.left) && !isRed(h.left.left)) {
+            h = moveRedLeft(h, epoch);
+        }
+        h.left = deleteMin(own(h.left, epoch), epoch);
+        return balance(h, epoch);
+    }
+
+    private Node<Key, Value> rotateRight(Node<Key, Value> h, long epoch) { // h is owned, its left child gets owned here
+        Node<Key, Value> x = own(h.left, epoch);
+        h.left = x.right;
+        x.right = h;
+        x.color = h.color;
+        h.color = RED;
+        x.size = h.size;
+        h.size = size(h.left) + size(h.right) + 1;
+        return x;
+    }
+
+    private Node<Key, Value> rotateLeft(Node<Key, Value> h, long epoch) { // h is owned, its right child gets owned here
+        Node<Key, Value> x = own(h.right, epoch);
+        h.right = x.left;
+        x.left = h;
+        x.color = h.color;
+        h.color = RED;
+        x.size = h.size;
+        h.size = size(h.left) + size(h.right) + 1;
+        return x;
+    }
+
+    private void flipColors(Node<Key, Value> h, long epoch) { // h is owned, both children get owned here
+        h.color = !h.color;
+        h.left = own(h.left, epoch);
+        h.left.color = !h.left.color;
+        h.right = own(h.right, epoch);
+        h.right.color = !h.right.color;
+    }
+
+    private Node<Key, Value> moveRedLeft(Node<Key, Value> h, long epoch) {
+        flipColors(h, epoch);
+        if (isRed(h.right.left)) {
+            h.right = rotateRight(h.right, epoch);
+            h = rotateLeft(h, epoch);
+            flipColors(h, epoch);
+        }
+        return h;
+    }
+
+    private Node<Key, Value> moveRedRight(Node<Key, Value> h, long epoch) {
+        flipColors(h, epoch);
+        if (isRed(h.left.left)) {
+            h = rotateRight(h, epoch);
+            flipColors(h, epoch);
+        }
+        return h;
+    }
+
+    private Node<Key, Value> balance(Node<Key, Value> h, long epoch) {
+        if (isRed(h.right) && !isRed(h.left)) {
+            h = rotateLeft(h, epoch);
+        }
+        if (isRed(h.left) && isRed(h.left.left)) {
+            h = rotateRight(h, epoch);
+        }
+        if (isRed(h.left) && isRed(h.right)) {
+            flipColors(h, epoch);
+        }
+        h.size = size(h.left) + size(h.right) + 1;
+        return h;
+    }
+}
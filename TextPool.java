@@ -0,0 +1,163 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/* Append-only, deduplicated store for short texts, kept as UTF-8 in large byte[] arenas instead of
+ *   one String (and one byte[]) per copy. intern() returns an int handle, the same handle for the
+ *   same bytes, which is all a holder has to keep; get() decodes it back into a String on demand.
+ *
+ *   A handle is the arena number (high bits) and the offset in it (low CHUNK_BITS bits) of a
+ *   varint length followed by the bytes. Arenas are CHUNK bytes, or one text's worth if that is
+ *   bigger; an entry never straddles two. Dedup is an open-addressing table of handles with their
+ *   hashes alongside, so only a hash match costs a byte comparison. Nothing is ever removed.
+ *
+ *   intern is synchronized; get needs no lock, since a handle can only have been handed out after
+ *   its bytes were written, and whoever passes a handle to another thread publishes those writes.
+ */
+
+public class TextPool {
+    private static final int CHUNK_BITS = 20;
+    private static final int CHUNK = 1 << CHUNK_BITS;   // bytes per arena, and the largest offset in one
+    private static final int MAX_CHUNKS = 1 << (31 - CHUNK_BITS);
+
+    private byte[][] chunks = new byte[4][];
+    private int chunk = -1;         // arena being filled
+    private int pos = CHUNK;        // next free byte in it
+    private long bytes;             // arena bytes in use
+
+    private int[] handles = new int[1024];  // handle + 1, 0 for an empty slot
+    private int[] hashes = new int[1024];
+    private int size;               // distinct texts
+
+    public int intern(String text) {
+        byte[] b = text.getBytes(StandardCharsets.UTF_8);
+        return intern(b, 0, b.length);
+    }
+
+    public synchronized int intern(byte[] a, int off, int len) { // handle for a[off, off + len), stored once
+        int hash = hash(a, off, len);
+        int mask = handles.length - 1;
+        for (int i = hash & mask; handles[i] != 0; i = (i + 1) & mask) {
+            if (hashes[i] == hash && matches(handles[i] - 1, a, off, len)) {
+                return handles[i] - 1;
+            }
+        }
+        int handle = append(a, off, len);
+        if (2 * (size + 1) > handles.length) {
+            rehash();
+            mask = handles.length - 1;
+        }
+        int i = hash & mask;
+        while (handles[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        handles[i] = handle + 1;
+        hashes[i] = hash;
+        size++;
+        return handle;
+    }
+
+    public String get(int handle) {
+        byte[] c = chunks[handle >>> CHUNK_BITS];
+        int len = length(c, handle & (CHUNK - 1));
+        int p = (handle & (CHUNK - 1)) + varintSize(len);
+        return new String(c, p, len, StandardCharsets.UTF_8);
+    }
+
+    public byte[] utf8(int handle) { // the stored bytes, copied
+        byte[] c = chunks[handle >>> CHUNK_BITS];
+        int len = length(c, handle & (CHUNK - 1));
+        int p = (handle & (CHUNK - 1)) + varintSize(len);
+        return Arrays.copyOfRange(c, p, p + len);
+    }
+
+    public synchronized int size() { // distinct texts stored
+        return size;
+    }
+
+    public synchronized long bytes() { // arena bytes in use, length prefixes included
+        return bytes;
+    }
+
+    private int append(byte[] a, int off, int len) {
+        int need = varintSize(len) + len;
+        if (CHUNK - pos < need) {
+            if (chunk + 1 == MAX_CHUNKS) {
+                throw new IllegalStateException("text pool is full");
+            }
+            chunk++;
+            if (chunk == chunks.length) {
+                chunks = Arrays.copyOf(chunks, 2 * chunks.length);
+            }
+            chunks[chunk] = new byte[Math.max(CHUNK, need)];
+            pos = 0;
+        }
+        byte[] c = chunks[chunk];
+        int handle = (chunk << CHUNK_BITS) | pos;
+        int n = len;
+        while (n >= 0x80) {
+            c[pos++] = (byte) (n | 0x80);
+            n >>>= 7;
+        }
+        c[pos++] = (byte) n;
+        System.arraycopy(a, off, c, pos, len);
+        pos += len;
+        if (pos >= CHUNK) { // an oversized arena holds just the one text
+            pos = CHUNK;
+        }
+        bytes += need;
+        return handle;
+    }
+
+    private boolean matches(int handle, byte[] a, int off, int len) {
+        byte[] c = chunks[handle >>> CHUNK_BITS];
+        int stored = length(c, handle & (CHUNK - 1));
+        int p = (handle & (CHUNK - 1)) + varintSize(stored);
+        return stored == len && Arrays.equals(c, p, p + len, a, off, off + len);
+    }
+
+    private void rehash() {
+        int[] oldHandles = handles;
+        int[] oldHashes = hashes;
+        handles = new int[2 * oldHandles.length];
+        hashes = new int[handles.length];
+        int mask = handles.length - 1;
+        for (int j = 0; j < oldHandles.length; j++) {
+            if (oldHandles[j] != 0) {
+                int i = oldHashes[j] & mask;
+                while (handles[i] != 0) {
+                    i = (i + 1) & mask;
+                }
+                handles[i] = oldHandles[j];
+                hashes[i] = oldHashes[j];
+            }
+        }
+    }
+
+    private static int hash(byte[] a, int off, int len) {
+        int h = 0;
+        for (int i = off; i < off + len; i++) {
+            h = 31 * h + a[i];
+        }
+        return (h ^ (h >>> 16)) * 0x45d9f3b;
+    }
+
+    private static int length(byte[] c, int p) { // the varint at c[p]
+        int len = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = c[p++];
+            len |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return len;
+            }
+        }
+    }
+
+    private static int varintSize(int n) {
+        int size = 1;
+        while (n >= 0x80) {
+            n >>>= 7;
+            size++;
+        }
+        return size;
+    }
+}
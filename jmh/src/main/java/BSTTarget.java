@@ -0,0 +1,65 @@
+/* BST<Integer, Integer>. variant: "plain" or "red-black", either with "+stats" to record every
+ *   call into a BSTStats.
+ */
+public class BSTTarget extends TableTarget {
+    private BST<Integer, Integer> st;
+
+    protected void build(String variant, int[] keys) {
+        st = new BST<Integer, Integer>(variant.startsWith("red-black"));
+        st.setVerification(BST.Verification.OFF);
+        for (int k : keys) {
+            st.put(box[k], box[k]);
+        }
+        if (variant.endsWith("+stats")) {
+            st.setMetrics(new BSTStats());
+        }
+    }
+
+    public Object get(int key) {
+        return st.get(box[key]);
+    }
+
+    public void put(int key) {
+        st.put(box[key], box[key]);
+    }
+
+    public void delete(int key) {
+        st.delete(box[key]);
+    }
+
+    public void insert(int key) {
+        st.put(box[key], box[key]);
+    }
+
+    public int rank(int key) {
+        return st.rank(box[key]);
+    }
+
+    public Object select(int k) {
+        return st.select(k);
+    }
+
+    public long range(int lo, int hi) {
+        long sum = 0;
+        for (int k : st.keys(box[lo], box[hi])) {
+            sum += k;
+        }
+        return sum;
+    }
+
+    public int height() {
+        return st.height();
+    }
+
+    public Object min() {
+        return st.min();
+    }
+
+    public Object max() {
+        return st.max();
+    }
+
+    public int size() {
+        return st.size();
+    }
+}
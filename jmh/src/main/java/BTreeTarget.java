@@ -0,0 +1,60 @@
+/* BTreeST<Integer, Integer>; variant is ignored, a B+-tree is always balanced.
+ */
+public class BTreeTarget extends TableTarget {
+    private BTreeST<Integer, Integer> st;
+
+    protected void build(String variant, int[] keys) {
+        st = new BTreeST<Integer, Integer>();
+        for (int k : keys) {
+            st.put(box[k], box[k]);
+        }
+    }
+
+    public Object get(int key) {
+        return st.get(box[key]);
+    }
+
+    public void put(int key) {
+        st.put(box[key], box[key]);
+    }
+
+    public void delete(int key) {
+        st.delete(box[key]);
+    }
+
+    public void insert(int key) {
+        st.put(box[key], box[key]);
+    }
+
+    public int rank(int key) {
+        return st.rank(box[key]);
+    }
+
+    public Object select(int k) {
+        return st.select(k);
+    }
+
+    public long range(int lo, int hi) {
+        long sum = 0;
+        for (int k : st.keys(box[lo], box[hi])) {
+            sum += k;
+        }
+        return sum;
+    }
+
+    public int height() {
+        return st.height();
+    }
+
+    public Object min() {
+        return st.min();
+    }
+
+    public Object max() {
+        return st.max();
+    }
+
+    public int size() {
+        return st.size();
+    }
+}
@@ -0,0 +1,24 @@
+import bench.Target;
+
+/* Base of the benchmark adapters (see bench.Target): the key orders come from BSTBenchmark, so
+ *   the JMH suites and the plain-main ones measure the same workloads.
+ */
+public abstract class TableTarget implements Target {
+    protected Integer[] box;    // box[k] == k, allocated once
+    private int[] probes;
+
+    public void setUp(String variant, String dist, int n) {
+        box = new Integer[n + 101];   // keysRange asks up to 100 past the largest key
+        for (int i = 0; i < box.length; i++) {
+            box[i] = i;
+        }
+        build(variant, BSTBenchmark.insertOrder(dist, n));
+        probes = BSTBenchmark.probeOrder(dist, n, Math.max(1024, Integer.highestOneBit(Math.min(n, 1 << 20))));
+    }
+
+    protected abstract void build(String variant, int[] keys);
+
+    public int[] probes() {
+        return probes;
+    }
+}
@@ -0,0 +1,50 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/* Lookup latency of BTreeST against the red-black BST as the table outgrows the caches:
+ *
+ *   gradle :jmh:jmh --args='BTreeBenchmark'
+ *   gradle :jmh:jmh --args='BTreeBenchmark -p n=100000000 -jvmArgs -Xmx32g'
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class BTreeBenchmark extends TableBenchmark {
+    @Param({"BTreeTarget", "BSTTarget"})
+    public String target;
+
+    @Param({"1000", "100000", "10000000"})
+    public int n;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        build(target, "red-black", "random", n);
+    }
+
+    @Benchmark
+    public Object get() {
+        return table.get(nextKey());
+    }
+
+    @Benchmark
+    public int rank() {
+        return table.rank(nextKey());
+    }
+
+    @Benchmark
+    public Object select() {
+        return table.select(nextKey());
+    }
+
+    @Benchmark
+    public long keysRange() {
+        int lo = nextKey();
+        return table.range(lo, lo + 100);
+    }
+}
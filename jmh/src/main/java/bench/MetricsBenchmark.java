@@ -0,0 +1,56 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/* What recording into a BSTStats costs: "stats" records every call, "off" is the same tree with
+ *   no recorder set. The difference between the rows is the cost of recording. Neither row says
+ *   what the unset hook itself costs, since both run the tree that has it; for that, compare
+ *   OpsBenchmark's BST rows against a build from before the hook existed.
+ *
+ *   gradle :jmh:jmh --args='MetricsBenchmark -prof gc'
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetricsBenchmark extends TableBenchmark {
+    @Param({"off", "stats"})
+    public String metrics;
+
+    @Param({"plain", "red-black"})
+    public String variant;
+
+    @Param({"100000"})
+    public int n;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        build("BSTTarget", metrics.equals("stats") ? variant + "+stats" : variant, "random", n);
+    }
+
+    @Benchmark
+    public Object get() {
+        return table.get(nextKey());
+    }
+
+    @Benchmark
+    public void put() {
+        table.put(nextKey());
+    }
+
+    @Benchmark
+    public void deleteAndInsert() {
+        int key = nextKey();
+        table.delete(key);
+        table.insert(key);
+    }
+
+    @Benchmark
+    public int rank() {
+        return table.rank(nextKey());
+    }
+}
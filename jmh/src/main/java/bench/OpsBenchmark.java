@@ -0,0 +1,86 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/* Every BST operation on every key distribution, the baseline to run before and after a change:
+ *
+ *   gradle :jmh:jmh --args='OpsBenchmark -prof gc -rf json -rff ops.json'
+ *
+ *   SampleTime mode times batches of calls and reports p50/p90/p99/p99.9 per call; -prof gc adds
+ *   the allocation rate (gc.alloc.rate.norm is bytes per call). Sorted and adversarial keys give
+ *   a plain tree a path of length n, so building one costs O(n^2): keep n at 100K or so for those.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OpsBenchmark extends TableBenchmark {
+    @Param({"BSTTarget"})
+    public String target;
+
+    @Param({"plain", "red-black"})
+    public String variant;
+
+    @Param({"random", "sorted", "zipfian", "adversarial"})
+    public String dist;
+
+    @Param({"1000", "100000"})
+    public int n;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        build(target, variant, dist, n);
+    }
+
+    @Benchmark
+    public Object get() {
+        return table.get(nextKey());
+    }
+
+    @Benchmark
+    public void put() {
+        table.put(nextKey());
+    }
+
+    @Benchmark
+    public void deleteAndInsert() { // leaves the table as it was, so every call sees the same n keys
+        int key = nextKey();
+        table.delete(key);
+        table.insert(key);
+    }
+
+    @Benchmark
+    public int rank() {
+        return table.rank(nextKey());
+    }
+
+    @Benchmark
+    public Object select() {
+        return table.select(nextKey());
+    }
+
+    @Benchmark
+    public long keysRange() { // the 101 keys from a probe up
+        int lo = nextKey();
+        return table.range(lo, lo + 100);
+    }
+
+    @Benchmark
+    public int height() {
+        return table.height();
+    }
+
+    @Benchmark
+    public Object min() {
+        return table.min();
+    }
+
+    @Benchmark
+    public Object max() {
+        return table.max();
+    }
+}
@@ -0,0 +1,61 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/* The loop-based BST against the recursive code it replaced (RecursiveBST), on read and write
+ *   paths alike, on random keys so the recursive version doesn't overflow the stack:
+ *
+ *   gradle :jmh:jmh --args='RecursionBenchmark'
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RecursionBenchmark extends TableBenchmark {
+    @Param({"BSTTarget", "RecursiveBSTTarget"})
+    public String target;
+
+    @Param({"1000", "1000000"})
+    public int n;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        build(target, "plain", "random", n);
+    }
+
+    @Benchmark
+    public Object get() {
+        return table.get(nextKey());
+    }
+
+    @Benchmark
+    public void put() {
+        table.put(nextKey());
+    }
+
+    @Benchmark
+    public void deleteAndInsert() {
+        int key = nextKey();
+        table.delete(key);
+        table.insert(key);
+    }
+
+    @Benchmark
+    public int rank() {
+        return table.rank(nextKey());
+    }
+
+    @Benchmark
+    public Object select() {
+        return table.select(nextKey());
+    }
+
+    @Benchmark
+    public Object min() {
+        return table.min();
+    }
+}
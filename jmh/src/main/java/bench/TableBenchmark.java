@@ -0,0 +1,21 @@
+package bench;
+
+/* What every benchmark here shares: one table per trial, and a cursor through its probe keys so
+ *   consecutive invocations look up different keys in the distribution's order.
+ */
+public abstract class TableBenchmark {
+    protected Target table;
+    private int[] probes;
+    private int next;
+
+    protected void build(String target, String variant, String dist, int n) {
+        table = Target.load(target);
+        table.setUp(variant, dist, n);
+        probes = table.probes();
+        next = 0;
+    }
+
+    protected int nextKey() {
+        return probes[next++ & (probes.length - 1)];
+    }
+}
@@ -0,0 +1,33 @@
+package bench;
+
+/* A table under test, as the benchmarks see it. JMH won't generate code for a benchmark in the
+ *   unnamed package, and a named package can't refer to one, so every table in this project gets a
+ *   small adapter in the unnamed package implementing this, and the benchmarks load it by name.
+ *   Each fork loads exactly one adapter class, so calls through it stay monomorphic and inline.
+ *
+ *   Keys are the ints 0..n-1. Adapters keep them boxed up front, so boxing never shows up in the
+ *   allocation rate -prof gc reports.
+ */
+public interface Target {
+    void setUp(String variant, String dist, int n); // build the table by inserting 0..n-1 in dist's order
+    int[] probes();             // keys to look up, all present, in dist's lookup order; length a power of 2
+    Object get(int key);
+    void put(int key);          // overwrite: the full search path, and the table keeps its shape
+    void delete(int key);
+    void insert(int key);       // put a key that delete just removed
+    int rank(int key);
+    Object select(int k);
+    long range(int lo, int hi); // walks the keys in [lo, hi] in order, returns their sum
+    int height();
+    Object min();
+    Object max();
+    int size();
+
+    static Target load(String name) { // name of an adapter class in the unnamed package
+        try {
+            return (Target) Class.forName(name).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalArgumentException("no benchmark target " + name, e);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class AnimalJournalTest {
+    @TempDir
+    Path dir;
+
+    private static AnimalJournal.Record record(int i) {
+        BitSet path = new BitSet();
+        path.set(1);
+        return new AnimalJournal.Record(path, 3, i % 2 == 0, "guess " + i, "question " + i, "answer " + i);
+    }
+
+    @Test
+    void aFailedAppendLeavesNothingBehind() throws IOException { // user-014: the next record follows the last good one
+        Path file = dir.resolve("journal");
+        FaultyChannel ch = new FaultyChannel(file);
+        try (AnimalJournal journal = AnimalJournal.open(ch, file, 0, r -> fail("empty journal replayed"))) {
+            journal.append(record(0));
+            long good = Files.size(file);
+            ch.shortWrite = true;
+            assertThrows(IOException.class, () -> journal.append(record(1)));
+            assertEquals(good, Files.size(file));
+            ch.failForce = true;
+            assertThrows(IOException.class, () -> journal.append(record(2)));
+            assertEquals(good, Files.size(file));
+            assertEquals(1, journal.records());
+            journal.append(record(3));
+        }
+        List<AnimalJournal.Record> replayed = new ArrayList<AnimalJournal.Record>();
+        try (AnimalJournal journal = AnimalJournal.open(file, 0, replayed::add)) {
+            assertEquals(2, journal.records());
+        }
+        assertEquals("guess 0", replayed.get(0).oldGuess);
+        assertEquals("guess 3", replayed.get(1).oldGuess);
+    }
+
+    @Test
+    void aJournalThatCantRollBackRefusesAppends() throws IOException { // user-014
+        Path file = dir.resolve("journal");
+        FaultyChannel ch = new FaultyChannel(file);
+        try (AnimalJournal journal = AnimalJournal.open(ch, file, 0, r -> fail("empty journal replayed"))) {
+            journal.append(record(0));
+            ch.failTruncate = true;
+            ch.shortWrite = true;
+            assertThrows(IOException.class, () -> journal.append(record(1)));
+            ch.failTruncate = false;
+            assertThrows(IOException.class, () -> journal.append(record(2)));
+            assertEquals(1, journal.records());
+        }
+        List<AnimalJournal.Record> replayed = new ArrayList<AnimalJournal.Record>();
+        try (AnimalJournal journal = AnimalJournal.open(file, 0, replayed::add)) { // the torn half record goes at replay
+            assertEquals(1, journal.records());
+        }
+        assertEquals("guess 0", replayed.get(0).oldGuess);
+    }
+
+    @Test
+    void replaysCompleteRecordsAndDropsATornTail() throws IOException {
+        Path file = dir.resolve("journal");
+        try (AnimalJournal journal = AnimalJournal.open(file, 0, r -> fail("empty journal replayed"))) {
+            for (int i = 0; i < 3; i++) {
+                journal.append(record(i));
+            }
+        }
+        long good = Files.size(file);
+        Files.write(file, new byte[] {0, 0, 0, 40, 1, 2, 3}, StandardOpenOption.APPEND); // a write cut short
+
+        List<AnimalJournal.Record> replayed = new ArrayList<AnimalJournal.Record>();
+        try (AnimalJournal journal = AnimalJournal.open(file, 0, replayed::add)) {
+            assertEquals(3, journal.records());
+            assertEquals(good, Files.size(file));
+            journal.append(record(3));
+        }
+        assertEquals(3, replayed.size());
+        AnimalJournal.Record r = replayed.get(2);
+        assertEquals("guess 2", r.oldGuess);
+        assertEquals("question 2", r.question);
+        assertEquals("answer 2", r.answer);
+        assertTrue(r.answerIsYes);
+        assertEquals(3, r.depth);
+        assertTrue(r.path.get(1));
+
+        replayed.clear();
+        try (AnimalJournal journal = AnimalJournal.open(file, 0, replayed::add)) {
+            assertEquals(4, journal.records());
+            journal.reset(1);
+            assertEquals(0, journal.records());
+            assertEquals(1, journal.epoch());
+        }
+        try (AnimalJournal journal = AnimalJournal.open(file, 1, x -> fail("reset journal replayed"))) {
+            assertEquals(0, journal.records());
+        }
+    }
+
+    @Test
+    void recordsOfAnOlderEpochAreSkipped() throws IOException { // user-016: they belong to a snapshot that's been replaced
+        Path file = dir.resolve("journal");
+        try (AnimalJournal journal = AnimalJournal.open(file, 4, r -> fail("empty journal replayed"))) {
+            journal.append(record(0));
+        }
+        try (AnimalJournal journal = AnimalJournal.open(file, 5, r -> fail("old record replayed"))) {
+            assertEquals(0, journal.records());
+            assertEquals(5, journal.epoch());
+            journal.append(record(1));
+        }
+        List<AnimalJournal.Record> replayed = new ArrayList<AnimalJournal.Record>();
+        try (AnimalJournal journal = AnimalJournal.open(file, 5, replayed::add)) {
+            assertEquals(1, journal.records());
+        }
+        assertEquals("guess 1", replayed.get(0).oldGuess);
+        assertThrows(IOException.class, () -> AnimalJournal.open(file, 3, r -> fail("newer record replayed")));
+    }
+}
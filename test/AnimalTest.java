@@ -0,0 +1,245 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class AnimalTest {
+    private static final List<String> TREE = Arrays.asList(
+            "Guessing Game, are you ready?",
+            "1 Is it a mammal",
+            "0 Trout",
+            "1 Does it bark?",
+            "0 Cow",
+            "0 Dog");
+
+    @TempDir
+    Path dir;
+
+    /* A player reading its answers off a script: "y"/"n" for each confirm, text for each ask. */
+    static class Script implements Animal.Player {
+        private final ArrayDeque<String> answers;
+
+        Script(String... answers) {
+            this.answers = new ArrayDeque<String>(Arrays.asList(answers));
+        }
+
+        public boolean confirm(String question) {
+            return answers.remove().equals("y");
+        }
+
+        public String ask(String prompt) {
+            return answers.remove();
+        }
+
+        public void tell(String message) {
+        }
+
+        boolean done() {
+            return answers.isEmpty();
+        }
+    }
+
+    private Path write(String name, List<String> lines) throws IOException {
+        Path file = dir.resolve(name);
+        Files.write(file, lines, StandardCharsets.UTF_8);
+        return file;
+    }
+
+    static String text(Animal game) throws IOException {
+        StringWriter s = new StringWriter();
+        PrintWriter out = new PrintWriter(s);
+        game.saveTree(out);
+        out.flush();
+        return s.toString().replace(System.lineSeparator(), "\n");
+    }
+
+    static String joined(List<String> lines) {
+        return String.join("\n", lines) + "\n";
+    }
+
+    private static void teachShark(Animal game) throws IOException {
+        Script lose = new Script("y", "n", "n", "Shark", "Does it have teeth", "y");
+        game.play(lose);
+        assertTrue(lose.done());
+    }
+
+    @Test
+    void learnsFromALostGameAndWinsTheNext() throws IOException {
+        Animal game = Animal.load(write("tree.txt", TREE));
+        teachShark(game);
+        Script win = new Script("y", "n", "y", "y");
+        game.play(win);
+        assertTrue(win.done());
+        assertEquals(1, game.wins());
+        assertEquals(1, game.losses());
+        assertEquals(joined(Arrays.asList("Guessing Game, are you ready?", "1 Is it a mammal",
+                "1 Does it have teeth", "0 Trout", "0 Shark", "1 Does it bark?", "0 Cow", "0 Dog")), text(game));
+    }
+
+    @Test
+    void textBinaryAndCompactFormsRoundTrip() throws IOException {
+        Path file = write("tree.txt", TREE);
+        Animal game = Animal.load(file);
+        teachShark(game);
+        String expected = text(game);
+
+        Path bin = dir.resolve("tree.bin");
+        game.saveBinary(bin);
+        assertEquals(expected, text(Animal.openBinary(bin)));
+
+        Path saved = dir.resolve("saved.txt");
+        game.save(saved);
+        assertEquals(expected, text(Animal.load(saved)));
+
+        Animal compact = Animal.load(saved, true);
+        assertNotNull(compact.textPool());
+        assertEquals(expected, text(compact));
+        teachShark(Animal.load(file, true));
+    }
+
+    @Test
+    void binaryFormatCarriesTextLongerThanTheWriteBuffer() throws IOException {
+        StringBuilder question = new StringBuilder();
+        while (question.length() < 3 << 20) {
+            question.append("Is it bigger than a breadbox, ");
+        }
+        Animal game = Animal.load(write("tree.txt", Arrays.asList("Ready?", "1 " + question, "0 Ant", "0 Whale")));
+        Path bin = dir.resolve("tree.bin");
+        game.saveBinary(bin);
+        game.saveBinary(bin); // over an existing file
+        assertFalse(Files.exists(dir.resolve("tree.bin.tmp")));
+        assertEquals(text(game), text(Animal.openBinary(bin)));
+    }
+
+    @Test
+    void journalReplaysOverTheSnapshot() throws IOException {
+        Path snapshot = write("tree.txt", TREE);
+        Path journal = dir.resolve("tree.journal");
+        Animal game = Animal.open(snapshot, journal);
+        teachShark(game);
+        String expected = text(game);
+        game.close();
+        assertEquals(joined(TREE), joined(Files.readAllLines(snapshot)));
+
+        Animal reopened = Animal.open(snapshot, journal);
+        assertEquals(expected, text(reopened));
+        reopened.compact();
+        reopened.close();
+        assertEquals("epoch 1", Files.readAllLines(snapshot).get(8));
+        Animal compacted = Animal.open(snapshot, journal); // the journal is empty now
+        assertEquals(expected, text(compacted));
+        compacted.close();
+    }
+
+    @Test
+    void aCrashBetweenSnapshotAndJournalResetLosesNothing() throws IOException { // user-016
+        Path snapshot = write("tree.txt", Arrays.asList("Ready?", "1 Does it fly?", "1 Does it fly?", "0 x", "0 y", "0 z"));
+        Path journal = dir.resolve("tree.journal");
+        Animal game = Animal.open(snapshot, journal);
+        game.play(new Script("y", "n", "n", "n", "w", "Is it w", "y"));
+        byte[] beforeOptimize = Files.readAllBytes(journal);
+        assertTrue(game.optimize()); // the inner "Does it fly?" goes: the record's path no longer fits
+        String expected = text(game);
+        game.close();
+        assertEquals(joined(Arrays.asList("Ready?", "1 Does it fly?", "1 Is it w", "0 x", "0 w", "0 z")), expected);
+
+        Files.write(journal, beforeOptimize); // as if the crash came before the journal was emptied
+        Animal reopened = Animal.open(snapshot, journal);
+        assertEquals(expected, text(reopened));
+        reopened.play(new Script("y", "n", "n", "n", "v", "Is it v", "y"));
+        reopened.compact();
+        reopened.close();
+        Animal compacted = Animal.open(snapshot, journal);
+        assertEquals(joined(Arrays.asList("Ready?", "1 Does it fly?", "1 Is it w", "1 Is it v", "0 x", "0 v", "0 w", "0 z")), text(compacted));
+        compacted.close();
+    }
+
+    @Test
+    void anOptimizeThatCantWriteItsSnapshotKeepsTheOldTree() throws IOException { // user-016
+        Path snapshot = write("tree.txt", Arrays.asList("Ready?", "1 Does it fly?", "1 Does it fly?", "0 x", "0 y", "0 z"));
+        Path journal = dir.resolve("tree.journal");
+        Animal game = Animal.open(snapshot, journal);
+        game.play(new Script("y", "n", "n", "n", "w", "Is it w", "y"));
+        String learned = text(game);
+        Path tmp = Files.createDirectory(dir.resolve("tree.txt.tmp")); // where save() writes first
+        assertThrows(IOException.class, game::optimize);
+        Files.delete(tmp);
+        assertEquals(learned, text(game));
+        game.play(new Script("y", "n", "n", "n", "n", "v", "Is it v", "y")); // journaled against the old tree, which is still the snapshot's
+        String expected = text(game);
+        game.close();
+        Animal reopened = Animal.open(snapshot, journal);
+        assertEquals(expected, text(reopened));
+        reopened.close();
+    }
+
+    @Test
+    void anOptimizeThatCantResetTheJournalKeepsTheOldTree() throws Exception { // user-016
+        Path snapshot = write("tree.txt", Arrays.asList("Ready?", "1 Does it fly?", "1 Does it fly?", "0 x", "0 y", "0 z"));
+        Path journal = dir.resolve("tree.journal");
+        Animal game = Animal.open(snapshot, journal);
+        game.play(new Script("y", "n", "n", "n", "w", "Is it w", "y"));
+        String learned = text(game);
+        Field field = Animal.class.getDeclaredField("journal");
+        field.setAccessible(true);
+        ((AnimalJournal) field.get(game)).close();
+        FaultyChannel ch = new FaultyChannel(journal);
+        field.set(game, AnimalJournal.open(ch, journal, 0, r -> { }));
+        ch.failForce = true; // the reset's first force
+        assertThrows(IOException.class, game::optimize);
+        assertEquals(learned, text(game));
+
+        Path copy = dir.resolve("copy.txt");
+        Path copyJournal = dir.resolve("copy.journal");
+        Files.copy(snapshot, copy);
+        Files.copy(journal, copyJournal);
+        Animal crashed = Animal.open(copy, copyJournal); // a restart now gets the optimized tree, which loses nothing
+        assertEquals(joined(Arrays.asList("Ready?", "1 Does it fly?", "1 Is it w", "0 x", "0 w", "0 z")), text(crashed));
+        crashed.close();
+
+        game.play(new Script("y", "n", "n", "n", "n", "v", "Is it v", "y")); // rewrites the snapshot, resets the journal, then journals
+        String expected = text(game);
+        game.close();
+        assertEquals("epoch 1", Files.readAllLines(snapshot).get(8));
+        Animal reopened = Animal.open(snapshot, journal);
+        assertEquals(expected, text(reopened));
+        reopened.close();
+    }
+
+    @Test
+    void aGuessThatCantBeJournaledIsNotLearned() throws Exception { // user-014: the split is taken back
+        Path snapshot = write("tree.txt", TREE);
+        Animal game = Animal.open(snapshot, dir.resolve("tree.journal"));
+        Field journal = Animal.class.getDeclaredField("journal");
+        journal.setAccessible(true);
+        ((AnimalJournal) journal.get(game)).close(); // every append fails from here on
+        assertThrows(IOException.class, () -> game.play(new Script("y", "n", "n", "Shark", "Does it have teeth", "y")));
+        assertEquals(joined(TREE), text(game));
+        assertEquals(0, game.losses());
+    }
+
+    @Test
+    void optimizeDropsQuestionsThatCantMatter() throws IOException {
+        Animal game = Animal.load(write("tree.txt", Arrays.asList(
+                "Guessing Game, are you ready?",
+                "1 Does it fly?",
+                "0 Cat",
+                "1 Does it fly?",
+                "0 Cow",
+                "0 Bird")));
+        assertTrue(game.optimize());
+        assertEquals(joined(Arrays.asList("Guessing Game, are you ready?", "1 Does it fly?", "0 Cat", "0 Bird")), text(game));
+        assertEquals(1.0, game.expectedQuestions());
+    }
+}
@@ -0,0 +1,593 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.StringWriter;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/* BST against java.util.TreeMap. The tests run with -ea and Verification.FULL, so every mutation
+ *   also runs BST's own invariant check (symmetric order, sizes, red-black shape, aggregates).
+ */
+class BSTTest {
+    private static BST<Integer, Integer> checked(boolean balanced) {
+        BST<Integer, Integer> st = new BST<Integer, Integer>(balanced);
+        st.setVerification(BST.Verification.FULL);
+        return st;
+    }
+
+    private static Object field(Object o, String name) throws ReflectiveOperationException { // for planting corruption
+        Field f = o.getClass().getDeclaredField(name);
+        f.setAccessible(true);
+        return f.get(o);
+    }
+
+    private static void set(Object o, String name, Object value) throws ReflectiveOperationException {
+        Field f = o.getClass().getDeclaredField(name);
+        f.setAccessible(true);
+        f.set(o, value);
+    }
+
+    private static List<Integer> list(Iterable<Integer> keys) {
+        List<Integer> list = new ArrayList<Integer>();
+        for (int k : keys) {
+            list.add(k);
+        }
+        return list;
+    }
+
+    private static void assertSame(TreeMap<Integer, Integer> ref, BST<Integer, Integer> st) {
+        assertEquals(ref.size(), st.size());
+        assertEquals(new ArrayList<Integer>(ref.keySet()), list(st.keys()));
+        for (Map.Entry<Integer, Integer> e : ref.entrySet()) {
+            assertEquals(e.getValue(), st.get(e.getKey()));
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void randomOperationsMatchTreeMap(boolean balanced) {
+        BST<Integer, Integer> st = checked(balanced);
+        TreeMap<Integer, Integer> ref = new TreeMap<Integer, Integer>();
+        Random rnd = new Random(1);
+        for (int i = 0; i < 3000; i++) {
+            int k = rnd.nextInt(500);
+            int op = rnd.nextInt(4);
+            if (op < 2) {
+                st.put(k, i);
+                ref.put(k, i);
+            } else if (op == 2) {
+                st.delete(k);
+                ref.remove(k);
+            } else if (!ref.isEmpty()) {
+                st.deleteMin();
+                ref.pollFirstEntry();
+            }
+            assertEquals(ref.size(), st.size());
+        }
+        assertSame(ref, st);
+        for (int k = -1; k <= 500; k++) {
+            assertEquals(ref.headMap(k).size(), st.rank(k));
+            assertEquals(ref.floorKey(k), st.floor(k));
+            assertEquals(ref.ceilingKey(k), st.ceiling(k));
+        }
+        List<Integer> keys = new ArrayList<Integer>(ref.keySet());
+        for (int i = 0; i < keys.size(); i++) {
+            assertEquals(keys.get(i), st.select(i));
+        }
+        assertEquals(ref.firstKey(), st.min());
+        assertEquals(ref.lastKey(), st.max());
+    }
+
+    @Test
+    void emptyTable() {
+        BST<Integer, Integer> st = checked(true);
+        assertTrue(st.isEmpty());
+        assertNull(st.get(1));
+        assertThrows(NoSuchElementException.class, st::min);
+        assertThrows(NoSuchElementException.class, st::deleteMin);
+        assertThrows(IllegalArgumentException.class, () -> st.get(null));
+        assertThrows(IllegalArgumentException.class, () -> st.select(0));
+        assertEquals(-1, st.height());
+    }
+
+    @Test
+    void redBlackHeightStaysLogarithmicOnSortedInput() {
+        BST<Integer, Integer> st = new BST<Integer, Integer>(true);
+        st.setVerification(BST.Verification.SAMPLED);
+        for (int i = 0; i < 100000; i++) {
+            st.put(i, i);
+        }
+        assertTrue(st.height() <= 2 * 17, "height " + st.height());
+    }
+
+    @Test
+    void degenerateTreeHasNoStackLimit() { // user-002: a 30K-long path, every operation a loop
+        BST<Integer, Integer> st = new BST<Integer, Integer>(false);
+        st.setVerification(BST.Verification.OFF);
+        int n = 30000;
+        for (int i = 0; i < n; i++) {
+            st.put(i, i);
+        }
+        assertEquals(n - 1, st.height());
+        assertEquals(n - 1, st.get(n - 1));
+        assertEquals(n - 1, st.rank(n - 1));
+        assertEquals(n - 1, st.select(n - 1));
+        assertEquals(n - 1, st.max());
+        assertEquals(n, list(st.keys()).size());
+        st.delete(n / 2);
+        st.deleteMin();
+        assertEquals(n - 2, st.size());
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void sampledVerificationAcceptsValidMutations(boolean balanced) {
+        BST<Integer, Integer> st = new BST<Integer, Integer>(balanced);
+        st.setVerification(BST.Verification.SAMPLED, 64);
+        Random rnd = new Random(2);
+        for (int i = 0; i < 20000; i++) {
+            int k = rnd.nextInt(2000);
+            if (rnd.nextInt(3) == 0) {
+                st.delete(k);
+            } else {
+                st.put(k, i);
+            }
+        }
+    }
+
+    @Test
+    void sampledVerificationChecksTheSuccessorSpine() throws Exception { // user-003: the nodes a delete rewrites below its own path
+        BST<Integer, Integer> st = new BST<Integer, Integer>(false);
+        st.setVerification(BST.Verification.SAMPLED, Integer.MAX_VALUE);
+        for (int k : new int[] {50, 20, 80, 60, 90, 55, 65}) {
+            st.put(k, k);
+        }
+        Object sixty = field(field(field(st, "root"), "right"), "left");
+        set(sixty, "size", 5); // on 50's successor spine, off the search path for 50
+        assertThrows(AssertionError.class, () -> st.put(50, 0));
+    }
+
+    @Test
+    void sampledVerificationChecksBlackHeight() throws Exception {
+        BST<Integer, Integer> st = new BST<Integer, Integer>(true);
+        st.setVerification(BST.Verification.SAMPLED, Integer.MAX_VALUE);
+        for (int k = 0; k < 100; k++) {
+            st.put(k, k);
+        }
+        Object x = field(field(st, "root"), "right");
+        do {
+            x = field(x, "left");
+        } while ((Boolean) field(x, "color"));
+        set(x, "color", true); // one black link fewer down the root's right side
+        assertThrows(AssertionError.class, () -> st.put(0, 0));
+    }
+
+    @Test
+    void rangeIterationIsLazyAndFailFast() {
+        BST<Integer, Integer> st = checked(true);
+        for (int i = 0; i < 100; i++) {
+            st.put(i, i);
+        }
+        assertEquals(List.of(10, 11, 12), list(st.keys(10, 12)));
+        assertEquals(List.of(), list(st.keys(12, 10)));
+        assertEquals(21, st.size(10, 30));
+        assertEquals(List.of(40, 41), st.keyStream(40, 41).collect(Collectors.toList()));
+        Iterator<Integer> it = st.keys().iterator();
+        it.next();
+        st.put(1000, 1);
+        assertThrows(ConcurrentModificationException.class, it::next);
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void bulkLoads(boolean balanced) {
+        for (int n = 0; n < 300; n++) {
+            Integer[] keys = new Integer[n];
+            Integer[] vals = new Integer[n];
+            for (int i = 0; i < n; i++) {
+                keys[i] = 2 * i;
+                vals[i] = i;
+            }
+            BST<Integer, Integer> st = BST.fromSorted(keys, vals, balanced);
+            st.setVerification(BST.Verification.FULL);
+            assertEquals(n, st.size());
+            for (int i = 0; i < n; i++) {
+                assertEquals(i, st.get(2 * i));
+                assertEquals(i, st.rank(2 * i));
+            }
+            st.put(3, 1); // still a working tree of its kind
+            st.delete(4);
+        }
+        BST<Integer, Integer> u = BST.fromUnsorted(new Integer[] {5, 3, 9, 3, 1}, new Integer[] {1, 2, 3, 4, 5}, balanced);
+        assertEquals(4, u.size());
+        assertEquals(4, u.get(3)); // the last value wins, as with put
+        assertThrows(IllegalArgumentException.class, () -> BST.fromSorted(new Integer[] {1, 1}, new Integer[] {1, 1}, false));
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void batchesMatchPerKeyUpdates(boolean balanced) {
+        BST<Integer, Integer> st = checked(balanced);
+        TreeMap<Integer, Integer> ref = new TreeMap<Integer, Integer>();
+        Random rnd = new Random(3);
+        for (int round = 0; round < 50; round++) {
+            TreeMap<Integer, Integer> batch = new TreeMap<Integer, Integer>();
+            for (int i = rnd.nextInt(100); i > 0; i--) {
+                batch.put(rnd.nextInt(1000), rnd.nextInt(4) == 0 ? null : round);
+            }
+            Integer[] keys = batch.keySet().toArray(new Integer[0]);
+            Integer[] vals = batch.values().toArray(new Integer[0]);
+            st.applyBatch(keys, vals);
+            for (int i = 0; i < keys.length; i++) {
+                if (vals[i] == null) {
+                    ref.remove(keys[i]);
+                } else {
+                    ref.put(keys[i], vals[i]);
+                }
+            }
+            assertSame(ref, st);
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void aggregatesFollowUpdates(boolean balanced) {
+        BST.Augmentation<Integer, Integer, Long> sum = BST.Augmentation.sum(v -> v);
+        BST<Integer, Integer> st = new BST<Integer, Integer>(balanced, sum);
+        st.setVerification(BST.Verification.FULL);
+        TreeMap<Integer, Integer> ref = new TreeMap<Integer, Integer>();
+        Random rnd = new Random(4);
+        for (int i = 0; i < 2000; i++) {
+            int k = rnd.nextInt(300);
+            if (rnd.nextInt(3) == 0) {
+                st.delete(k);
+                ref.remove(k);
+            } else {
+                st.put(k, i);
+                ref.put(k, i);
+            }
+            int lo = rnd.nextInt(300);
+            int hi = lo + rnd.nextInt(100);
+            long expected = 0;
+            for (int v : ref.subMap(lo, true, hi, true).values()) {
+                expected += v;
+            }
+            assertEquals(expected, st.aggregate(sum, lo, hi));
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void everyBulkLoaderTakesAnAugmentation(boolean balanced) { // user-007
+        BST.Augmentation<Integer, Integer, Long> sum = BST.Augmentation.sum(v -> v);
+        TreeMap<Integer, Integer> ref = new TreeMap<Integer, Integer>();
+        for (int i = 0; i < 500; i++) {
+            ref.put(3 * i, i);
+        }
+        Integer[] keys = ref.keySet().toArray(new Integer[0]);
+        Integer[] vals = ref.values().toArray(new Integer[0]);
+        Integer[] reversedKeys = new Integer[keys.length];
+        Integer[] reversedVals = new Integer[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            reversedKeys[i] = keys[keys.length - 1 - i];
+            reversedVals[i] = vals[keys.length - 1 - i];
+        }
+        List<BST<Integer, Integer>> loaded = new ArrayList<BST<Integer, Integer>>();
+        loaded.add(BST.fromSorted(keys, vals, balanced, sum));
+        loaded.add(BST.fromSorted(ref.entrySet().iterator(), balanced, sum));
+        loaded.add(BST.fromSorted(ref.entrySet().stream(), balanced, sum));
+        loaded.add(BST.fromUnsorted(reversedKeys, reversedVals, balanced, sum));
+        Random rnd = new Random(12);
+        for (BST<Integer, Integer> st : loaded) {
+            st.setVerification(BST.Verification.FULL);
+            for (int i = 0; i < 200; i++) {
+                int lo = rnd.nextInt(1500);
+                int hi = lo + rnd.nextInt(300);
+                long expected = 0;
+                for (int v : ref.subMap(lo, true, hi, true).values()) {
+                    expected += v;
+                }
+                assertEquals(expected, st.aggregate(sum, lo, hi));
+            }
+            st.put(1, 1000); // the summaries are kept up from here as with any augmented tree
+            assertEquals(1000L, st.aggregate(sum, 1, 2));
+        }
+        assertThrows(IllegalArgumentException.class, () -> BST.fromSorted((Integer[]) null, vals, balanced, sum));
+        assertThrows(IllegalArgumentException.class, () -> BST.fromSorted(keys, new Integer[1], balanced));
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void splitJoinAndDeleteRange(boolean balanced) {
+        Random rnd = new Random(5);
+        for (int round = 0; round < 100; round++) {
+            BST<Integer, Integer> st = checked(balanced);
+            TreeMap<Integer, Integer> ref = new TreeMap<Integer, Integer>();
+            for (int i = rnd.nextInt(300); i > 0; i--) {
+                int k = rnd.nextInt(1000);
+                st.put(k, k);
+                ref.put(k, k);
+            }
+            int cut = rnd.nextInt(1000);
+            BST<Integer, Integer> right = st.split(cut);
+            assertEquals(new ArrayList<Integer>(ref.headMap(cut).keySet()), list(st.keys()));
+            assertEquals(new ArrayList<Integer>(ref.tailMap(cut).keySet()), list(right.keys()));
+            BST<Integer, Integer> joined = BST.join(st, right);
+            assertSame(ref, joined);
+            int lo = rnd.nextInt(1000);
+            int hi = lo + rnd.nextInt(200);
+            BST<Integer, Integer> copy = joined.subMap(lo, hi);
+            BST<Integer, Integer> removed = joined.deleteRange(lo, hi);
+            assertEquals(list(copy.keys()), list(removed.keys()));
+            assertEquals(new ArrayList<Integer>(ref.subMap(lo, true, hi, true).keySet()), list(removed.keys()));
+            ref.subMap(lo, true, hi, true).clear();
+            assertSame(ref, joined);
+        }
+    }
+
+    @Test
+    void traversalOrders() {
+        BST<Integer, Integer> st = checked(false);
+        for (int k : new int[] {4, 2, 6, 1, 3, 5, 7, 0}) {
+            st.put(k, 10 * k);
+        }
+        assertEquals("0 1 2 3 4 5 6 7", line(st, BST.Traversal.IN_ORDER));
+        assertEquals("4 2 1 0 3 6 5 7", line(st, BST.Traversal.PRE_ORDER));
+        assertEquals("0 1 3 2 5 7 6 4", line(st, BST.Traversal.POST_ORDER));
+        assertEquals("4 2 6 1 3 5 7 0", line(st, BST.Traversal.LEVEL_ORDER));
+        StringBuilder visited = new StringBuilder();
+        st.traverse(BST.Traversal.POST_ORDER, (k, v) -> visited.append(v).append(' '));
+        assertEquals("0 10 30 20 50 70 60 40 ", visited.toString());
+        assertThrows(ConcurrentModificationException.class, () -> st.traverse(BST.Traversal.PRE_ORDER, (k, v) -> st.put(100 + k, 1)));
+    }
+
+    private static String line(BST<Integer, Integer> st, BST.Traversal order) {
+        return st.keyStream(order).map(String::valueOf).collect(Collectors.joining(" "));
+    }
+
+    @Test
+    void dumpWritesOneLinePerEntry() throws Exception {
+        BST<Integer, Integer> st = new BST<Integer, Integer>(true);
+        st.setVerification(BST.Verification.SAMPLED);
+        for (int i = 0; i < 20000; i++) {
+            st.put(i, 2 * i);
+        }
+        StringWriter out = new StringWriter();
+        st.dump(BST.Traversal.IN_ORDER, out);
+        String[] lines = out.toString().split("\n");
+        assertEquals(20000, lines.length);
+        assertEquals("123 246", lines[123]);
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void parallelOperationsMatchSequential(boolean balanced) {
+        BST<Integer, Integer> st = new BST<Integer, Integer>(balanced);
+        st.setVerification(BST.Verification.OFF);
+        int n = 50000;
+        int[] keys = BSTBenchmark.random(n, 3);
+        for (int k : keys) {
+            st.put(k, 2 * k);
+        }
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            StringBuilder inOrder = new StringBuilder();
+            for (int k : st.keys()) {
+                inOrder.append(k).append(',');
+            }
+            assertEquals(inOrder.toString(), st.parallelReduce(pool, "", (k, v) -> k + ",", String::concat)); // combined in key order
+            assertEquals((n + 2) / 3, st.parallelCount(pool, (k, v) -> k % 3 == 0));
+            LongAdder sum = new LongAdder();
+            st.parallelForEach(pool, (k, v) -> sum.add(v));
+            assertEquals((long) n * (n - 1), sum.sum());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void cursorMatchesTreeMap(boolean balanced) {
+        BST<Integer, Integer> st = new BST<Integer, Integer>(balanced);
+        TreeMap<Integer, Integer> ref = new TreeMap<Integer, Integer>();
+        BST<Integer, Integer>.Cursor c = st.cursor();
+        assertFalse(c.seek(5));
+        assertNull(c.floor(5));
+        Random rnd = new Random(6);
+        for (int i = 0; i < 3000; i++) {
+            int k = 2 * rnd.nextInt(10000);
+            st.put(k, i);
+            ref.put(k, i);
+        }
+        c = st.cursor();
+        for (int i = 0; i < 100000; i++) {
+            int k = rnd.nextInt(20004) - 2;
+            switch (rnd.nextInt(6)) {
+                case 0:
+                    assertEquals(ref.get(k), c.get(k));
+                    break;
+                case 1:
+                    assertEquals(ref.floorKey(k), c.floor(k));
+                    break;
+                case 2:
+                    assertEquals(ref.ceilingKey(k), c.ceiling(k));
+                    break;
+                case 3:
+                    if (c.valid()) {
+                        Integer next = ref.higherKey(c.key());
+                        assertEquals(next != null, c.next());
+                        assertEquals(next, c.valid() ? c.key() : null);
+                    }
+                    break;
+                case 4:
+                    if (c.valid()) {
+                        Integer prev = ref.lowerKey(c.key());
+                        assertEquals(prev != null, c.prev());
+                        assertEquals(prev, c.valid() ? c.key() : null);
+                    }
+                    break;
+                default:
+                    if (rnd.nextInt(50) == 0) {
+                        st.put(k, 1);
+                        ref.put(k, 1);
+                        assertThrows(ConcurrentModificationException.class, c::valid);
+                        c.get(k); // a search starts over from the root
+                    }
+            }
+            if (c.valid()) {
+                assertEquals(ref.headMap(c.key()).size(), c.rank());
+                assertEquals(ref.get(c.key()), c.value());
+            }
+        }
+    }
+
+    @Test
+    void metricsSeeEveryInstrumentedCall() {
+        BST<Integer, Integer> st = new BST<Integer, Integer>(true);
+        BSTStats stats = new BSTStats();
+        st.setMetrics(stats);
+        for (int i = 0; i < 1000; i++) {
+            st.put(i, i);
+        }
+        for (int i = 0; i < 500; i++) {
+            st.get(i);
+            st.rank(i);
+        }
+        st.delete(7);
+        st.deleteMin();
+        assertEquals(1000, stats.count(BST.Op.PUT));
+        assertEquals(500, stats.count(BST.Op.GET));
+        assertEquals(500, stats.count(BST.Op.RANK));
+        assertEquals(1, stats.count(BST.Op.DELETE));
+        assertEquals(1, stats.count(BST.Op.DELETE_MIN));
+        assertEquals(998, stats.getSize());
+        st.setMetrics(null);
+        st.get(1);
+        assertEquals(500, stats.count(BST.Op.GET));
+    }
+
+    /* A Metrics that keeps the last call's figures, and a key that counts its own compareTo calls. */
+    static class LastCall implements BST.Metrics {
+        BST.Op op;
+        int depth;
+        int comparisons;
+        int heightEstimate;
+
+        public void record(BST.Op op, int depth, int comparisons, long nanos) {
+            this.op = op;
+            this.depth = depth;
+            this.comparisons = comparisons;
+        }
+
+        public void shape(int size, int heightEstimate) {
+            this.heightEstimate = heightEstimate;
+        }
+    }
+
+    static final class Counted implements Comparable<Counted> {
+        static long compares;
+        final int k;
+
+        Counted(int k) {
+            this.k = k;
+        }
+
+        public int compareTo(Counted o) {
+            compares++;
+            return Integer.compare(k, o.k);
+        }
+    }
+
+    @Test
+    void metricsReportTheSearchPath() { // user-020: 50 / 20 80 / 60 / 55
+        BST<Integer, Integer> st = new BST<Integer, Integer>(false);
+        LastCall last = new LastCall();
+        st.setMetrics(last);
+        for (int k : new int[] {50, 20, 80, 60}) {
+            st.put(k, k);
+        }
+        st.get(60);
+        assertEquals(3, last.depth);
+        assertEquals(3, last.comparisons);
+        st.rank(65);
+        assertEquals(3, last.depth);
+        st.put(55, 55);
+        assertEquals(4, last.depth);
+        assertEquals(3, last.comparisons);
+        assertEquals(3, last.heightEstimate);
+        st.put(55, 56);
+        assertEquals(4, last.depth);
+        assertEquals(4, last.comparisons);
+        st.delete(80);
+        assertEquals(2, last.depth);
+        assertEquals(2, last.comparisons);
+        st.deleteMin();
+        assertEquals(BST.Op.DELETE_MIN, last.op);
+        assertEquals(2, last.depth);
+        assertEquals(0, last.comparisons);
+        st.select(0);
+        assertEquals(1, last.depth);
+        assertEquals(3, last.heightEstimate); // still the bound from before the deletes, 50 / 60 / 55 is 2 deep
+        assertEquals(2, st.height());
+        st.put(50, 51);
+        assertEquals(3, last.heightEstimate); // height() measured, but the estimate is the writes' business
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void metricsCountEveryComparison(boolean balanced) {
+        BST<Counted, Integer> st = new BST<Counted, Integer>(balanced);
+        st.setVerification(BST.Verification.OFF); // its checks compare keys too
+        LastCall last = new LastCall();
+        st.setMetrics(last);
+        Random rnd = new Random(8);
+        for (int i = 0; i < 20000; i++) {
+            Counted k = new Counted(rnd.nextInt(3000));
+            long before = Counted.compares;
+            switch (rnd.nextInt(4)) {
+                case 0:
+                    st.get(k);
+                    break;
+                case 1:
+                    st.rank(k);
+                    break;
+                case 2:
+                    st.delete(k);
+                    break;
+                default:
+                    st.put(k, i);
+            }
+            assertEquals(Counted.compares - before, last.comparisons, last.op.toString());
+        }
+        int estimate = last.heightEstimate;
+        int height = st.height();
+        if (balanced) { // both within the bounds the black height sets
+            assertTrue(estimate + 1 <= 2 * (height + 1) && height + 1 <= 2 * (estimate + 1), estimate + " vs " + height);
+        } else {
+            assertTrue(estimate >= height, estimate + " < " + height);
+        }
+    }
+
+    @Test
+    void nullValueDeletes() {
+        BST<Integer, Integer> st = checked(true);
+        st.put(1, 1);
+        st.put(1, null);
+        assertFalse(st.contains(1));
+        assertTrue(Objects.isNull(st.get(1)));
+    }
+}
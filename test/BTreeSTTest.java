@@ -0,0 +1,62 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.Test;
+
+class BTreeSTTest {
+    @Test
+    void randomOperationsMatchTreeMap() {
+        BTreeST<Integer, Integer> st = new BTreeST<Integer, Integer>();
+        TreeMap<Integer, Integer> ref = new TreeMap<Integer, Integer>();
+        Random rnd = new Random(10);
+        for (int i = 0; i < 200000; i++) {
+            int k = rnd.nextInt(20000);
+            int op = rnd.nextInt(5);
+            if (op < 3) {
+                st.put(k, i);
+                ref.put(k, i);
+            } else if (op == 3) {
+                st.delete(k);
+                ref.remove(k);
+            } else if (!ref.isEmpty()) {
+                st.deleteMin();
+                ref.pollFirstEntry();
+            }
+        }
+        assertEquals(ref.size(), st.size());
+        List<Integer> keys = new ArrayList<Integer>(ref.keySet());
+        for (int k = -1; k <= 20000; k += 13) {
+            assertEquals(ref.get(k), st.get(k));
+            assertEquals(ref.headMap(k).size(), st.rank(k));
+        }
+        for (int i = 0; i < keys.size(); i += 11) {
+            assertEquals(keys.get(i), st.select(i));
+        }
+        assertEquals(ref.firstKey(), st.min());
+        assertEquals(ref.lastKey(), st.max());
+        List<Integer> range = new ArrayList<Integer>();
+        for (int k : st.keys(5000, 6000)) {
+            range.add(k);
+        }
+        assertEquals(new ArrayList<Integer>(ref.subMap(5000, true, 6000, true).keySet()), range);
+        assertEquals(range.size(), st.size(5000, 6000));
+    }
+
+    @Test
+    void iteratorsFailFast() {
+        BTreeST<Integer, Integer> st = new BTreeST<Integer, Integer>();
+        for (int i = 0; i < 100; i++) {
+            st.put(i, i);
+        }
+        Iterator<Integer> it = st.keys().iterator();
+        it.next();
+        st.put(1000, 1);
+        assertThrows(ConcurrentModificationException.class, it::next);
+    }
+}
@@ -0,0 +1,49 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.Test;
+
+class CachedBSTTest {
+    @Test
+    void cachedAnswersStayExactThroughWrites() {
+        CachedBST<Integer, Integer> st = new CachedBST<Integer, Integer>(64);
+        TreeMap<Integer, Integer> ref = new TreeMap<Integer, Integer>();
+        Random rnd = new Random(4);
+        for (int i = 0; i < 100000; i++) {
+            int k = rnd.nextInt(10) < 8 ? rnd.nextInt(50) : rnd.nextInt(5000); // mostly hot keys
+            int op = rnd.nextInt(6);
+            if (op < 3) {
+                assertEquals(ref.get(k), st.get(k));
+            } else if (op == 3) {
+                st.put(k, i);
+                ref.put(k, i);
+            } else if (op == 4) {
+                st.delete(k);
+                ref.remove(k);
+            } else if (!ref.isEmpty()) {
+                st.deleteMin();
+                ref.pollFirstEntry();
+            }
+        }
+        assertEquals(ref.size(), st.size());
+        assertTrue(st.cached() <= st.capacity());
+        assertTrue(st.hitRate() > 0.5, st.toString());
+        assertTrue(st.evictions() > 0);
+    }
+
+    @Test
+    void missesAreCached() {
+        CachedBST<Integer, Integer> st = new CachedBST<Integer, Integer>(4);
+        assertNull(st.get(1));
+        assertNull(st.get(1));
+        assertEquals(1, st.hits());
+        assertEquals(1, st.misses());
+        st.put(1, 10);
+        assertEquals(10, st.get(1));
+        assertEquals(2, st.hits());
+        st.resetStats();
+        assertEquals(0, st.hitRate());
+    }
+}
@@ -0,0 +1,55 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+
+class ConcurrentBSTTest {
+    @Test
+    void concurrentWritersLoseNothingAndReadersSeeWholeSnapshots() throws Exception {
+        ConcurrentBST<Integer, Integer> st = new ConcurrentBST<Integer, Integer>();
+        int writers = 4;
+        int perWriter = 2000;
+        AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int w = 0; w < writers; w++) {
+            int base = w * perWriter;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < perWriter; i++) {
+                    st.put(base + i, base + i);
+                }
+            }));
+        }
+        threads.add(new Thread(() -> { // a snapshot's keys always agree with its own size
+            try {
+                for (int i = 0; i < 200; i++) {
+                    PersistentBST<Integer, Integer> v = st.snapshot();
+                    int count = 0;
+                    for (int k : v.keys()) {
+                        count++;
+                    }
+                    assertEquals(v.size(), count);
+                }
+            } catch (Throwable t) {
+                failure.set(t);
+            }
+        }));
+        for (Thread t : threads) {
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertNull(failure.get());
+        assertEquals(writers * perWriter, st.size());
+        for (int k = 0; k < writers * perWriter; k += 97) {
+            assertEquals(k, st.get(k));
+            assertEquals(k, st.rank(k));
+        }
+        st.deleteMin();
+        st.delete(5);
+        assertEquals(writers * perWriter - 2, st.size());
+    }
+}
@@ -0,0 +1,66 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/* A file channel that can be told to fail: the next write stops halfway through its buffer,
+ *   the next force throws, or every truncate does.
+ */
+class FaultyChannel extends FileChannel {
+    private final FileChannel ch;
+    boolean shortWrite;
+    boolean failForce;
+    boolean failTruncate;
+
+    FaultyChannel(Path path) throws IOException {
+        ch = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    public int write(ByteBuffer src) throws IOException {
+        if (shortWrite) {
+            shortWrite = false;
+            ByteBuffer half = src.duplicate();
+            half.limit(src.position() + src.remaining() / 2);
+            int n = ch.write(half);
+            src.position(src.position() + n);
+            throw new IOException("simulated short write");
+        }
+        return ch.write(src);
+    }
+
+    public void force(boolean metaData) throws IOException {
+        if (failForce) {
+            failForce = false;
+            throw new IOException("simulated force failure");
+        }
+        ch.force(metaData);
+    }
+
+    public FileChannel truncate(long size) throws IOException {
+        if (failTruncate) {
+            throw new IOException("simulated truncate failure");
+        }
+        ch.truncate(size);
+        return this;
+    }
+
+    public int read(ByteBuffer dst) throws IOException { return ch.read(dst); }
+    public long read(ByteBuffer[] dsts, int offset, int length) throws IOException { return ch.read(dsts, offset, length); }
+    public long write(ByteBuffer[] srcs, int offset, int length) throws IOException { return ch.write(srcs, offset, length); }
+    public long position() throws IOException { return ch.position(); }
+    public FileChannel position(long p) throws IOException { ch.position(p); return this; }
+    public long size() throws IOException { return ch.size(); }
+    public long transferTo(long position, long count, WritableByteChannel target) throws IOException { return ch.transferTo(position, count, target); }
+    public long transferFrom(ReadableByteChannel src, long position, long count) throws IOException { return ch.transferFrom(src, position, count); }
+    public int read(ByteBuffer dst, long position) throws IOException { return ch.read(dst, position); }
+    public int write(ByteBuffer src, long position) throws IOException { return ch.write(src, position); }
+    public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException { return ch.map(mode, position, size); }
+    public FileLock lock(long position, long size, boolean shared) throws IOException { return ch.lock(position, size, shared); }
+    public FileLock tryLock(long position, long size, boolean shared) throws IOException { return ch.tryLock(position, size, shared); }
+    protected void implCloseChannel() throws IOException { ch.close(); }
+}
@@ -0,0 +1,51 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.Test;
+
+class IntIntBSTTest {
+    @Test
+    void randomOperationsMatchTreeMap() {
+        IntIntBST st = new IntIntBST(16);
+        TreeMap<Integer, Integer> ref = new TreeMap<Integer, Integer>();
+        Random rnd = new Random(6);
+        for (int i = 0; i < 100000; i++) {
+            int k = rnd.nextInt(5000) - 2500;
+            int op = rnd.nextInt(4);
+            if (op < 2) {
+                st.put(k, i);
+                ref.put(k, i);
+            } else if (op == 2) {
+                st.delete(k);
+                ref.remove(k);
+            } else if (!ref.isEmpty()) {
+                st.deleteMin();
+                ref.pollFirstEntry();
+            }
+        }
+        assertEquals(ref.size(), st.size());
+        for (int k = -2501; k <= 2500; k++) {
+            assertEquals(ref.containsKey(k), st.contains(k));
+            assertEquals(ref.getOrDefault(k, -1), st.getOrDefault(k, -1));
+            assertEquals(ref.headMap(k).size(), st.rank(k));
+        }
+        assertArrayEquals(ref.subMap(-100, true, 100, true).keySet().stream().mapToInt(Integer::intValue).toArray(), st.keys(-100, 100));
+        assertArrayEquals(ref.keySet().stream().mapToInt(Integer::intValue).toArray(), st.keys());
+        assertArrayEquals(ref.values().stream().mapToInt(Integer::intValue).toArray(), st.values());
+        assertEquals((int) ref.firstKey(), st.min());
+        assertEquals((int) ref.lastKey(), st.max());
+        assertEquals((int) ref.firstKey(), st.select(0));
+        assertTrue(st.height() <= 2 * 13);
+    }
+
+    @Test
+    void missingKeyThrows() {
+        IntIntBST st = new IntIntBST();
+        st.put(1, 2);
+        assertEquals(2, st.get(1));
+        assertThrows(NoSuchElementException.class, () -> st.get(3));
+    }
+}
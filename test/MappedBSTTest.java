@@ -0,0 +1,69 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class MappedBSTTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void snapshotAnswersLikeTheTableItWasWrittenFrom() throws IOException {
+        IntIntBST st = new IntIntBST();
+        Random rnd = new Random(12);
+        for (int i = 0; i < 20000; i++) {
+            st.put(rnd.nextInt(100000), i);
+        }
+        Path file = dir.resolve("table.bst");
+        MappedBST.write(file, st);
+        MappedBST m = MappedBST.open(file);
+        assertEquals(st.size(), m.size());
+        for (int k = -1; k < 100000; k += 17) {
+            assertEquals(st.contains(k), m.contains(k));
+            assertEquals(st.getOrDefault(k, -1), m.getOrDefault(k, -1));
+            assertEquals(st.rank(k), m.rank(k));
+        }
+        assertEquals(st.min(), m.min());
+        assertEquals(st.max(), m.max());
+        assertEquals(st.select(st.size() / 3), m.select(st.size() / 3));
+        assertArrayEquals(st.keys(), m.keys());
+        assertArrayEquals(st.keys(5000, 9000), m.keys(5000, 9000));
+        assertEquals(st.size(5000, 9000), m.size(5000, 9000));
+        List<Integer> scanned = new ArrayList<Integer>();
+        m.scan(5000, 9000, (key, val) -> {
+            assertEquals(st.get(key), val);
+            scanned.add(key);
+        });
+        assertEquals(st.size(5000, 9000), scanned.size());
+        assertThrows(NoSuchElementException.class, () -> m.get(-1));
+    }
+
+    @Test
+    void writesFromABSTToo() throws IOException {
+        BST<Integer, Integer> st = new BST<Integer, Integer>(true);
+        for (int i = 0; i < 1000; i++) {
+            st.put(3 * i, i);
+        }
+        Path file = dir.resolve("bst.bst");
+        MappedBST.write(file, st);
+        MappedBST m = MappedBST.open(file);
+        assertEquals(1000, m.size());
+        assertEquals(7, m.get(21));
+        assertEquals(8, m.rank(22));
+    }
+
+    @Test
+    void rejectsOtherFiles() throws IOException {
+        Path file = dir.resolve("junk");
+        Files.write(file, new byte[40]);
+        assertThrows(IOException.class, () -> MappedBST.open(file));
+    }
+}
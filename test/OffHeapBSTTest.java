@@ -0,0 +1,51 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.Test;
+
+class OffHeapBSTTest {
+    @Test
+    void randomOperationsMatchTreeMap() {
+        OffHeapBST st = new OffHeapBST();
+        TreeMap<Long, Long> ref = new TreeMap<Long, Long>();
+        Random rnd = new Random(21);
+        for (int i = 0; i < 200000; i++) {
+            long k = rnd.nextInt(30000) - 15000L;
+            int op = rnd.nextInt(4);
+            if (op < 2) {
+                st.put(k, i);
+                ref.put(k, (long) i);
+            } else if (op == 2) {
+                st.delete(k);
+                ref.remove(k);
+            } else if (!ref.isEmpty()) {
+                st.deleteMin();
+                ref.pollFirstEntry();
+            }
+        }
+        assertEquals(ref.size(), st.size());
+        for (long k = -15001; k <= 15000; k += 7) {
+            assertEquals(ref.containsKey(k), st.contains(k));
+            assertEquals((long) ref.getOrDefault(k, -1L), st.getOrDefault(k, -1));
+            assertEquals(ref.headMap(k).size(), st.rank(k));
+        }
+        assertEquals((long) ref.firstKey(), st.min());
+        assertEquals((long) ref.lastKey(), st.max());
+        long[] range = st.keys(-500, 500);
+        assertArrayEquals(ref.subMap(-500L, true, 500L, true).keySet().stream().mapToLong(Long::longValue).toArray(), range);
+        assertEquals(range.length, st.size(-500, 500));
+        List<Long> scanned = new ArrayList<Long>();
+        st.scan(-500, 500, (key, val) -> {
+            assertEquals(ref.get(key), val);
+            scanned.add(key);
+        });
+        assertEquals(range.length, scanned.size());
+        assertEquals(range[0], st.select(st.rank(-500)));
+        assertTrue(st.height() <= 2 * 15);
+        assertTrue(st.offHeapBytes() > 0);
+    }
+}
@@ -0,0 +1,92 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.Test;
+
+class PersistentBSTTest {
+    @Test
+    void everyVersionKeepsAnsweringAsOfItsOwnTime() {
+        Random rnd = new Random(9);
+        List<PersistentBST<Integer, Integer>> versions = new ArrayList<PersistentBST<Integer, Integer>>();
+        List<TreeMap<Integer, Integer>> refs = new ArrayList<TreeMap<Integer, Integer>>();
+        PersistentBST<Integer, Integer> v = new PersistentBST<Integer, Integer>();
+        TreeMap<Integer, Integer> ref = new TreeMap<Integer, Integer>();
+        for (int i = 0; i < 5000; i++) {
+            int k = rnd.nextInt(800);
+            int op = rnd.nextInt(4);
+            if (op < 2) {
+                v = v.put(k, i);
+                ref.put(k, i);
+            } else if (op == 2) {
+                v = v.delete(k);
+                ref.remove(k);
+            } else if (!ref.isEmpty()) {
+                v = v.deleteMin();
+                ref.pollFirstEntry();
+            }
+            if (i % 50 == 0) {
+                versions.add(v);
+                refs.add(new TreeMap<Integer, Integer>(ref));
+            }
+        }
+        for (int j = 0; j < versions.size(); j++) {
+            PersistentBST<Integer, Integer> s = versions.get(j);
+            TreeMap<Integer, Integer> m = refs.get(j);
+            assertEquals(m.size(), s.size());
+            List<Integer> keys = new ArrayList<Integer>();
+            for (int k : s.keys()) {
+                keys.add(k);
+            }
+            assertEquals(new ArrayList<Integer>(m.keySet()), keys);
+            for (int k = 0; k < 800; k += 7) {
+                assertEquals(m.get(k), s.get(k));
+                assertEquals(m.headMap(k).size(), s.rank(k));
+            }
+            if (!m.isEmpty()) {
+                assertEquals(m.firstKey(), s.min());
+                assertEquals(m.lastKey(), s.max());
+                assertEquals(keys.get(keys.size() / 2), s.select(keys.size() / 2));
+                assertEquals(m.subMap(100, true, 300, true).size(), s.size(100, 300));
+            }
+        }
+    }
+
+    @Test
+    void writesFromOneVersionDontSeeEachOther() { // each write owns only the nodes it made
+        PersistentBST<Integer, Integer> base = new PersistentBST<Integer, Integer>();
+        for (int i = 0; i < 1000; i++) {
+            base = base.put(i, i);
+        }
+        for (int i = 0; i < 1000; i += 3) {
+            PersistentBST<Integer, Integer> deleted = base.delete(i);
+            PersistentBST<Integer, Integer> replaced = base.put(i, -i);
+            PersistentBST<Integer, Integer> shrunk = base.deleteMin();
+            assertNull(deleted.get(i));
+            assertEquals(999, deleted.size());
+            assertEquals(-i, replaced.get(i));
+            assertEquals(1, shrunk.min());
+            assertEquals(i, base.get(i));
+            assertEquals(1000, base.size());
+            assertEquals(0, base.min());
+        }
+    }
+
+    @Test
+    void heightStaysLogarithmic() {
+        PersistentBST<Integer, Integer> v = new PersistentBST<Integer, Integer>();
+        for (int i = 0; i < 100000; i++) {
+            v = v.put(i, i);
+        }
+        assertTrue(v.height() <= 2 * 17, "height " + v.height());
+    }
+
+    @Test
+    void deletingAnAbsentKeyReturnsTheSameVersion() {
+        PersistentBST<Integer, Integer> v = new PersistentBST<Integer, Integer>().put(1, 1);
+        assertSame(v, v.delete(2));
+    }
+}
@@ -0,0 +1,36 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+class TextPoolTest {
+    @Test
+    void internStoresEachTextOnce() {
+        TextPool pool = new TextPool();
+        int a = pool.intern("Is it a mammal");
+        int b = pool.intern("Dog");
+        assertEquals(a, pool.intern("Is it a mammal"));
+        byte[] line = "0 Dog\n".getBytes(StandardCharsets.UTF_8);
+        assertEquals(b, pool.intern(line, 2, 3));
+        assertEquals(2, pool.size());
+        assertEquals("Is it a mammal", pool.get(a));
+        assertArrayEquals("Dog".getBytes(StandardCharsets.UTF_8), pool.utf8(b));
+    }
+
+    @Test
+    void manyTextsAcrossArenas() {
+        TextPool pool = new TextPool();
+        int n = 200000;
+        int[] handles = new int[n];
+        for (int i = 0; i < n; i++) {
+            handles[i] = pool.intern("text number " + i + " é");
+        }
+        assertEquals(n, pool.size());
+        assertTrue(pool.bytes() > 1 << 20);
+        for (int i = 0; i < n; i += 101) {
+            assertEquals("text number " + i + " é", pool.get(handles[i]));
+            assertEquals(handles[i], pool.intern("text number " + i + " é"));
+        }
+    }
+}